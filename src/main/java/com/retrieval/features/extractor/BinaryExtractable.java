@@ -0,0 +1,19 @@
+package com.retrieval.features.extractor;
+
+/**
+ * Implemented by extractors whose descriptors are natively binary, such as ORB.
+ * The packed form can be indexed in Hamming space without the conversion to
+ * {@code double[]} that {@link Extractable#extract(String)} performs.
+ */
+@FunctionalInterface
+public interface BinaryExtractable {
+
+    /**
+     * Extracts a binary descriptor from the given image file.
+     *
+     * @param imagePath The path to the image file.
+     * @return The descriptor packed into 64-bit words (bit {@code i} is bit {@code i % 64}
+     * of word {@code i / 64}). Returns an empty array if extraction fails.
+     */
+    long[] extractBinary(String imagePath);
+}
@@ -60,31 +60,36 @@ public class DJLExtractor implements Extractable, AutoCloseable {
 
     @Override
     public double[] extract(String imagePath) {
+        float[] features = extractFloat(imagePath);
+        return FeatureUtils.toDoubleArray(features);
+    }
+
+    /**
+     * Returns the model's float output directly, L2-normalized in place,
+     * without widening it to double precision.
+     */
+    @Override
+    public float[] extractFloat(String imagePath) {
         if (predictor == null) {
             log.error("DJLExtractor: Model is not loaded.");
-            return new double[0];
+            return new float[0];
         }
 
         // Input validation
         if (imagePath == null || imagePath.isEmpty()) {
             log.error("DJLExtractor: Image path cannot be null or empty.");
-            return new double[0];
+            return new float[0];
         }
 
         Path path = Paths.get(imagePath);
         if (!Files.exists(path)) {
             log.error("DJLExtractor: Image file not found: {}", imagePath);
-            return new double[0];
+            return new float[0];
         }
 
         try {
             Image image = ImageFactory.getInstance().fromFile(path);
-            float[] features = predictor.predict(image);
-
-            double[] featureVector = new double[features.length];
-            for (int i = 0; i < features.length; i++) {
-                featureVector[i] = features[i];
-            }
+            float[] featureVector = predictor.predict(image);
 
             FeatureUtils.normalize(featureVector);
             log.debug("DJLExtractor: Extracted {} features from {}", featureVector.length, imagePath);
@@ -92,7 +97,7 @@ public class DJLExtractor implements Extractable, AutoCloseable {
 
         } catch (IOException | TranslateException e) {
             log.error("Error extracting features from image: {}", imagePath, e);
-            return new double[0];
+            return new float[0];
         }
     }
 
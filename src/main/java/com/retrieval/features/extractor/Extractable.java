@@ -18,4 +18,22 @@ public interface Extractable {
      */
 
     double[] extract(String imagePath);
+
+    /**
+     * Extracts the feature vector in single precision, for indexes that store
+     * {@link com.retrieval.models.VectorPrecision#FLOAT32} vectors.
+     * Extractors whose models produce floats natively should override this to avoid
+     * the round trip through {@code double[]}.
+     *
+     * @param imagePath The path to the image file.
+     * @return A float array representing the feature vector. Returns an empty array if extraction fails.
+     */
+    default float[] extractFloat(String imagePath) {
+        double[] vector = extract(imagePath);
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) vector[i];
+        }
+        return result;
+    }
 }
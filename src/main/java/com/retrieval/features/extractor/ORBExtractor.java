@@ -9,12 +9,98 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Updated ORB implementation with fixed averaging loop and proper normalization.
+ * <p>
+ * ORB descriptors are binary (256 bits per keypoint). {@link #extract(String)} averages
+ * them into a real-valued vector for the generic indexes, while {@link #extractBinary(String)}
+ * keeps the descriptor binary: each bit is set if it is set in the majority of the image's
+ * keypoint descriptors, and the result is packed into four 64-bit words for Hamming search.
  */
-public class ORBExtractor implements Extractable {
+public class ORBExtractor implements Extractable, BinaryExtractable {
     private static final Logger log = LoggerFactory.getLogger(ORBExtractor.class);
 
     @Override
     public double[] extract(String imagePath) {
+        byte[][] descriptors = detectDescriptors(imagePath);
+        if (descriptors.length == 0) {
+            return new double[0];
+        }
+
+        int numDescriptors = descriptors.length;
+        int descriptorLength = descriptors[0].length;
+        double[] averageDescriptor = new double[descriptorLength];
+
+        // Process each descriptor
+        for (byte[] descriptor : descriptors) {
+            double[] currentDescriptor = new double[descriptorLength];
+
+            // Extract descriptor values
+            for (int col = 0; col < descriptorLength; col++) {
+                currentDescriptor[col] = descriptor[col] & 0xFF; // Convert unsigned byte
+            }
+
+            // Normalize individual descriptor
+            FeatureUtils.normalize(currentDescriptor);
+
+            // Add to running average
+            for (int col = 0; col < descriptorLength; col++) {
+                averageDescriptor[col] += currentDescriptor[col];
+            }
+        }
+
+        // Complete the averaging
+        for (int col = 0; col < descriptorLength; col++) {
+            averageDescriptor[col] /= numDescriptors;
+        }
+
+        // Final normalization
+        FeatureUtils.normalize(averageDescriptor);
+
+        log.debug("ORBExtractor: Processed {} descriptors from {}, final descriptor length: {}",
+                numDescriptors, imagePath, descriptorLength);
+
+        return averageDescriptor;
+    }
+
+    /**
+     * Aggregates the keypoint descriptors by a per-bit majority vote and packs the result.
+     */
+    @Override
+    public long[] extractBinary(String imagePath) {
+        byte[][] descriptors = detectDescriptors(imagePath);
+        if (descriptors.length == 0) {
+            return new long[0];
+        }
+
+        int descriptorLength = descriptors[0].length;
+        int bitCount = descriptorLength * Byte.SIZE;
+        int[] votes = new int[bitCount];
+        for (byte[] descriptor : descriptors) {
+            for (int bit = 0; bit < bitCount; bit++) {
+                votes[bit] += (descriptor[bit / Byte.SIZE] >>> (bit % Byte.SIZE)) & 1;
+            }
+        }
+
+        // A bit is set when strictly more than half of the descriptors set it
+        byte[] majority = new byte[descriptorLength];
+        for (int bit = 0; bit < bitCount; bit++) {
+            if (2 * votes[bit] > descriptors.length) {
+                majority[bit / Byte.SIZE] |= (byte) (1 << (bit % Byte.SIZE));
+            }
+        }
+
+        log.debug("ORBExtractor: Voted {} descriptors from {} into a {}-bit binary descriptor",
+                descriptors.length, imagePath, bitCount);
+
+        return FeatureUtils.packBits(majority);
+    }
+
+    /**
+     * Detects ORB keypoints and copies their descriptors out of native memory.
+     *
+     * @return One row of descriptor bytes per keypoint; empty if the image could not be
+     * read or has no keypoints.
+     */
+    private byte[][] detectDescriptors(String imagePath) {
         if (imagePath == null || imagePath.trim().isEmpty()) {
             throw new IllegalArgumentException("Image path cannot be null or empty");
         }
@@ -26,7 +112,7 @@ public class ORBExtractor implements Extractable {
 
             if (image.empty()) {
                 log.error("ORBExtractor: Could not read image {}", imagePath);
-                return new double[0];
+                return new byte[0][];
             }
 
             // Detect features and compute descriptors
@@ -34,50 +120,26 @@ public class ORBExtractor implements Extractable {
 
             if (descriptors.rows() == 0) {
                 log.warn("ORBExtractor: No descriptors found in {}", imagePath);
-                return new double[0];
+                return new byte[0][];
             }
 
             int numDescriptors = (int) descriptors.rows();
             int descriptorLength = (int) descriptors.cols();
-            double[] averageDescriptor = new double[descriptorLength];
+            byte[][] rows = new byte[numDescriptors][descriptorLength];
 
             // Create indexer for accessing descriptor values
             try (UByteRawIndexer indexer = descriptors.createIndexer()) {
-                // Process each descriptor
                 for (int row = 0; row < numDescriptors; row++) {
-                    double[] currentDescriptor = new double[descriptorLength];
-
-                    // Extract descriptor values
                     for (int col = 0; col < descriptorLength; col++) {
-                        currentDescriptor[col] = indexer.get(row, col) & 0xFF; // Convert unsigned byte
-                    }
-
-                    // Normalize individual descriptor
-                    FeatureUtils.normalize(currentDescriptor);
-
-                    // Add to running average
-                    for (int col = 0; col < descriptorLength; col++) {
-                        averageDescriptor[col] += currentDescriptor[col];
+                        rows[row][col] = (byte) indexer.get(row, col);
                     }
                 }
             }
-
-            // Complete the averaging
-            for (int col = 0; col < descriptorLength; col++) {
-                averageDescriptor[col] /= numDescriptors;
-            }
-
-            // Final normalization
-            FeatureUtils.normalize(averageDescriptor);
-
-            log.debug("ORBExtractor: Processed {} descriptors from {}, final descriptor length: {}",
-                    numDescriptors, imagePath, descriptorLength);
-
-            return averageDescriptor;
+            return rows;
 
         } catch (Exception e) {
             log.error("Error extracting ORB features for {}", imagePath, e);
-            return new double[0];
+            return new byte[0][];
         }
     }
-}
\ No newline at end of file
+}
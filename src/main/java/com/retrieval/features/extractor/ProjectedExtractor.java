@@ -0,0 +1,81 @@
+package com.retrieval.features.extractor;
+
+import com.retrieval.features.pca.PcaProjection;
+import com.retrieval.utils.FeatureUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decorates any extractor with a dimensionality-reducing {@link PcaProjection}, so that the
+ * reduced vectors are what gets indexed and queried. Using the same decorated extractor
+ * for both keeps corpus and queries in the same projected space.
+ * <p>
+ * By default the projected vector is L2-normalized again, as the extractors in this
+ * package do with their own output, so cosine and Euclidean rankings stay equivalent.
+ */
+public class ProjectedExtractor implements Extractable {
+    private static final Logger log = LoggerFactory.getLogger(ProjectedExtractor.class);
+
+    private final Extractable delegate;
+    private final PcaProjection projection;
+    private final boolean normalize;
+
+    /**
+     * Creates a decorator that normalizes the projected vectors.
+     *
+     * @param delegate   The extractor producing full-dimensional vectors.
+     * @param projection The projection to apply to them.
+     */
+    public ProjectedExtractor(Extractable delegate, PcaProjection projection) {
+        this(delegate, projection, true);
+    }
+
+    /**
+     * @param delegate   The extractor producing full-dimensional vectors.
+     * @param projection The projection to apply to them.
+     * @param normalize  Whether to L2-normalize the projected vectors.
+     */
+    public ProjectedExtractor(Extractable delegate, PcaProjection projection, boolean normalize) {
+        if (delegate == null || projection == null) {
+            throw new IllegalArgumentException("Delegate extractor and projection cannot be null");
+        }
+        this.delegate = delegate;
+        this.projection = projection;
+        this.normalize = normalize;
+    }
+
+    @Override
+    public double[] extract(String imagePath) {
+        double[] vector = delegate.extract(imagePath);
+        if (vector.length == 0) {
+            return vector;
+        }
+        double[] projected = projection.project(vector);
+        if (normalize) {
+            FeatureUtils.normalize(projected);
+        }
+        log.debug("ProjectedExtractor: Reduced {} from {} to {} dimensions",
+                imagePath, vector.length, projected.length);
+        return projected;
+    }
+
+    @Override
+    public float[] extractFloat(String imagePath) {
+        float[] vector = delegate.extractFloat(imagePath);
+        if (vector.length == 0) {
+            return vector;
+        }
+        float[] projected = projection.project(vector);
+        if (normalize) {
+            FeatureUtils.normalize(projected);
+        }
+        return projected;
+    }
+
+    /**
+     * @return The projection applied to the delegate's vectors.
+     */
+    public PcaProjection getProjection() {
+        return projection;
+    }
+}
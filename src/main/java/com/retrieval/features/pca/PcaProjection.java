@@ -0,0 +1,243 @@
+package com.retrieval.features.pca;
+
+import com.retrieval.models.ImageFeature;
+import com.retrieval.utils.FeatureUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A trained PCA projection: subtracts the corpus mean from a vector and projects it onto
+ * the leading principal components, reducing it from {@link #getInputDimensions()} to
+ * {@link #getOutputDimensions()} dimensions.
+ * <p>
+ * The same projection must be applied to the corpus before indexing and to every query,
+ * so it can be saved next to the index with {@link #save(Path)} and restored with
+ * {@link #load(Path)}. Instances are immutable and thread-safe.
+ *
+ * @see PcaTrainer
+ */
+public class PcaProjection {
+    private static final int MAGIC = 0x50434131; // "PCA1"
+    private static final int FORMAT_VERSION = 1;
+
+    private final int inputDimensions;
+    private final int outputDimensions;
+    private final double[] mean;
+    private final double[] components; // Row-major outputDimensions x inputDimensions, orthonormal rows
+    private final double[] eigenvalues; // Variance along each component, in descending order
+    private final double totalVariance;
+
+    /**
+     * @param mean          The corpus mean, of length {@code d}.
+     * @param components    The principal components as a row-major {@code k x d} matrix.
+     * @param eigenvalues   The variance captured by each component, of length {@code k}.
+     * @param totalVariance The total variance of the corpus (trace of its covariance).
+     * @throws IllegalArgumentException if the array lengths are inconsistent.
+     */
+    public PcaProjection(double[] mean, double[] components, double[] eigenvalues, double totalVariance) {
+        if (mean == null || mean.length == 0 || eigenvalues == null || eigenvalues.length == 0 || components == null) {
+            throw new IllegalArgumentException("Mean, components and eigenvalues cannot be null or empty");
+        }
+        if (components.length != mean.length * eigenvalues.length) {
+            throw new IllegalArgumentException(
+                    String.format("Components must be a %d x %d matrix, got %d values",
+                            eigenvalues.length, mean.length, components.length));
+        }
+        this.inputDimensions = mean.length;
+        this.outputDimensions = eigenvalues.length;
+        this.mean = mean.clone();
+        this.components = components.clone();
+        this.eigenvalues = eigenvalues.clone();
+        this.totalVariance = totalVariance;
+    }
+
+    /**
+     * Projects a vector onto the principal components.
+     *
+     * @param vector A vector of {@link #getInputDimensions()} components.
+     * @return A new vector of {@link #getOutputDimensions()} components.
+     * @throws IllegalArgumentException if the vector is null or has the wrong length
+     */
+    public double[] project(double[] vector) {
+        checkInput(vector == null ? -1 : vector.length);
+        double[] centered = new double[inputDimensions];
+        for (int i = 0; i < inputDimensions; i++) {
+            centered[i] = vector[i] - mean[i];
+        }
+        return projectCentered(centered);
+    }
+
+    /**
+     * Single-precision variant of {@link #project(double[])}; the projection itself is
+     * accumulated in double precision.
+     */
+    public float[] project(float[] vector) {
+        checkInput(vector == null ? -1 : vector.length);
+        double[] centered = new double[inputDimensions];
+        for (int i = 0; i < inputDimensions; i++) {
+            centered[i] = vector[i] - mean[i];
+        }
+        return FeatureUtils.toFloatArray(projectCentered(centered));
+    }
+
+    /**
+     * Projects the feature vector of an image, keeping its id.
+     *
+     * @param feature The feature to project.
+     * @return A new ImageFeature holding the projected vector.
+     */
+    public ImageFeature project(ImageFeature feature) {
+        if (feature == null) {
+            throw new IllegalArgumentException("Feature cannot be null");
+        }
+        return new ImageFeature(feature.getImageId(), project(feature.getFeatureVector()));
+    }
+
+    /**
+     * Projects a list of features in parallel, e.g. before passing them to
+     * {@code buildIndex}.
+     *
+     * @param features The features to project.
+     * @return The projected features, in the same order.
+     */
+    public List<ImageFeature> projectAll(List<ImageFeature> features) {
+        if (features == null) {
+            throw new IllegalArgumentException("Feature list cannot be null");
+        }
+        return features.parallelStream()
+                .map(this::project)
+                .collect(Collectors.toList());
+    }
+
+    private double[] projectCentered(double[] centered) {
+        double[] result = new double[outputDimensions];
+        for (int c = 0; c < outputDimensions; c++) {
+            int row = c * inputDimensions;
+            double sum = 0.0;
+            for (int i = 0; i < inputDimensions; i++) {
+                sum += components[row + i] * centered[i];
+            }
+            result[c] = sum;
+        }
+        return result;
+    }
+
+    private void checkInput(int length) {
+        if (length != inputDimensions) {
+            throw new IllegalArgumentException(
+                    String.format("Vector dimensions must match: %d vs %d", Math.max(length, 0), inputDimensions));
+        }
+    }
+
+    /**
+     * @return The dimensionality of the vectors this projection accepts.
+     */
+    public int getInputDimensions() {
+        return inputDimensions;
+    }
+
+    /**
+     * @return The dimensionality of the projected vectors.
+     */
+    public int getOutputDimensions() {
+        return outputDimensions;
+    }
+
+    /**
+     * @return A copy of the corpus mean subtracted before projecting.
+     */
+    public double[] getMean() {
+        return mean.clone();
+    }
+
+    /**
+     * @return A copy of the variance captured by each component, in descending order.
+     */
+    public double[] getEigenvalues() {
+        return eigenvalues.clone();
+    }
+
+    /**
+     * @return The fraction of the corpus variance retained by the projection, in [0, 1].
+     */
+    public double getExplainedVarianceRatio() {
+        if (totalVariance <= 0.0) {
+            return 1.0;
+        }
+        return Math.min(1.0, Arrays.stream(eigenvalues).sum() / totalVariance);
+    }
+
+    /**
+     * Writes the projection to a file in a compact binary format.
+     *
+     * @param path The file to write; it is replaced if it exists.
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(inputDimensions);
+            out.writeInt(outputDimensions);
+            out.writeDouble(totalVariance);
+            for (double value : mean) {
+                out.writeDouble(value);
+            }
+            for (double value : eigenvalues) {
+                out.writeDouble(value);
+            }
+            for (double value : components) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    /**
+     * Reads a projection written by {@link #save(Path)}.
+     *
+     * @param path The file to read.
+     * @return The restored projection.
+     * @throws IOException if the file cannot be read or is not a saved projection
+     */
+    public static PcaProjection load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a PCA projection file: " + path);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported PCA projection format version " + version + " in " + path);
+            }
+            int inputDimensions = in.readInt();
+            int outputDimensions = in.readInt();
+            if (inputDimensions <= 0 || outputDimensions <= 0 || outputDimensions > inputDimensions) {
+                throw new IOException(String.format("Corrupt PCA projection header in %s: %d -> %d dimensions",
+                        path, inputDimensions, outputDimensions));
+            }
+            double totalVariance = in.readDouble();
+            double[] mean = readDoubles(in, inputDimensions);
+            double[] eigenvalues = readDoubles(in, outputDimensions);
+            double[] components = readDoubles(in, outputDimensions * inputDimensions);
+            return new PcaProjection(mean, components, eigenvalues, totalVariance);
+        }
+    }
+
+    private static double[] readDoubles(DataInputStream in, int count) throws IOException {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PcaProjection{%d -> %d dimensions, explainedVariance=%.4f}",
+                inputDimensions, outputDimensions, getExplainedVarianceRatio());
+    }
+}
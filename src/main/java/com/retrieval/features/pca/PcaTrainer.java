@@ -0,0 +1,329 @@
+package com.retrieval.features.pca;
+
+import com.retrieval.utils.CorpusStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Learns a {@link PcaProjection} from the covariance of a corpus.
+ * <p>
+ * The leading eigenvectors of the covariance matrix are found by subspace iteration: a
+ * block of {@code k + p} orthonormal vectors is repeatedly multiplied by the covariance
+ * and re-orthonormalized, and the Ritz values of the block are obtained from a small
+ * Jacobi eigendecomposition at each step until the top {@code k} stop changing. Only
+ * {@code k + p} columns are ever multiplied, so training 128 components from 2048-d
+ * embeddings costs a few hundred matrix-block products rather than a full {@code O(d^3)}
+ * eigendecomposition, and the products are parallelized over the rows of the covariance.
+ */
+public class PcaTrainer {
+    private static final Logger log = LoggerFactory.getLogger(PcaTrainer.class);
+
+    public static final int DEFAULT_MAX_ITERATIONS = 200;
+    public static final double DEFAULT_TOLERANCE = 1e-9;
+
+    private static final int MIN_OVERSAMPLING = 10;
+    private static final int MAX_JACOBI_SWEEPS = 64;
+    private static final long RANDOM_SEED = 42L;
+
+    private final int components;
+    private final int maxIterations;
+    private final double tolerance;
+
+    /**
+     * Creates a trainer with default convergence settings.
+     *
+     * @param components The number of principal components to keep.
+     */
+    public PcaTrainer(int components) {
+        this(components, DEFAULT_MAX_ITERATIONS, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * @param components    The number of principal components to keep.
+     * @param maxIterations The maximum number of subspace iterations.
+     * @param tolerance     The relative change in each kept eigenvalue below which the
+     *                      iteration is considered converged.
+     * @throws IllegalArgumentException if any parameter is not positive.
+     */
+    public PcaTrainer(int components, int maxIterations, double tolerance) {
+        if (components <= 0 || maxIterations <= 0 || !(tolerance > 0.0)) {
+            throw new IllegalArgumentException("Components, iterations and tolerance must be positive");
+        }
+        this.components = components;
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Computes corpus statistics over the given vectors in parallel and fits the projection.
+     *
+     * @param vectors The training vectors.
+     * @return The trained projection.
+     */
+    public PcaProjection fit(List<double[]> vectors) {
+        return fit(CorpusStatistics.compute(vectors));
+    }
+
+    /**
+     * Fits the projection to previously accumulated statistics, which allows training on
+     * a corpus that is streamed rather than held in memory.
+     *
+     * @param statistics The corpus statistics; must contain at least one vector.
+     * @return The trained projection.
+     * @throws IllegalArgumentException if the statistics are empty or have fewer
+     *                                  dimensions than the requested components.
+     */
+    public PcaProjection fit(CorpusStatistics statistics) {
+        if (statistics == null || statistics.getCount() == 0) {
+            throw new IllegalArgumentException("Statistics cannot be null or empty");
+        }
+        int dimensions = statistics.getDimensions();
+        if (components > dimensions) {
+            throw new IllegalArgumentException(
+                    String.format("Cannot keep %d components of %d-dimensional vectors", components, dimensions));
+        }
+
+        long startTime = System.currentTimeMillis();
+        double[] covariance = statistics.getCovariance();
+        double totalVariance = Arrays.stream(statistics.getVariance()).sum();
+        int blockSize = Math.min(dimensions, components + Math.max(MIN_OVERSAMPLING, components / 2));
+
+        Random random = new Random(RANDOM_SEED);
+        double[][] basis = new double[blockSize][dimensions];
+        for (double[] vector : basis) {
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = random.nextGaussian();
+            }
+        }
+        orthonormalize(basis, random);
+
+        double[] previous = null;
+        double[][] ritzVectors = null;
+        double[] ritzValues = null;
+        int iteration = 0;
+        boolean converged = false;
+        while (iteration < maxIterations && !converged) {
+            iteration++;
+            double[][] product = multiply(covariance, dimensions, basis);
+
+            // Rayleigh-Ritz: eigendecompose the covariance restricted to the current subspace
+            double[][] restricted = new double[blockSize][blockSize];
+            for (int a = 0; a < blockSize; a++) {
+                for (int b = a; b < blockSize; b++) {
+                    double value = 0.5 * (dot(basis[a], product[b]) + dot(basis[b], product[a]));
+                    restricted[a][b] = value;
+                    restricted[b][a] = value;
+                }
+            }
+            double[][] eigenvectors = new double[blockSize][blockSize];
+            double[] eigenvalues = jacobiEigen(restricted, eigenvectors);
+            Integer[] order = IntStream.range(0, blockSize).boxed()
+                    .sorted((a, b) -> Double.compare(eigenvalues[b], eigenvalues[a]))
+                    .toArray(Integer[]::new);
+
+            ritzValues = new double[components];
+            for (int c = 0; c < components; c++) {
+                ritzValues[c] = Math.max(0.0, eigenvalues[order[c]]);
+            }
+            converged = previous != null && hasConverged(previous, ritzValues, totalVariance);
+            previous = ritzValues;
+
+            if (converged || iteration == maxIterations) {
+                ritzVectors = new double[components][dimensions];
+                for (int c = 0; c < components; c++) {
+                    int column = order[c];
+                    for (int a = 0; a < blockSize; a++) {
+                        double weight = eigenvectors[a][column];
+                        for (int i = 0; i < dimensions; i++) {
+                            ritzVectors[c][i] += weight * basis[a][i];
+                        }
+                    }
+                }
+            } else {
+                basis = product;
+                orthonormalize(basis, random);
+            }
+        }
+
+        double[] flattened = new double[components * dimensions];
+        for (int c = 0; c < components; c++) {
+            fixSign(ritzVectors[c]);
+            System.arraycopy(ritzVectors[c], 0, flattened, c * dimensions, dimensions);
+        }
+        PcaProjection projection = new PcaProjection(statistics.getMean(), flattened, ritzValues, totalVariance);
+
+        if (converged) {
+            log.info("Trained PCA {} -> {} on {} vectors in {} iterations ({} ms), explained variance {}",
+                    dimensions, components, statistics.getCount(), iteration,
+                    System.currentTimeMillis() - startTime,
+                    String.format("%.4f", projection.getExplainedVarianceRatio()));
+        } else {
+            log.warn("PCA did not converge within {} iterations; explained variance {}",
+                    maxIterations, String.format("%.4f", projection.getExplainedVarianceRatio()));
+        }
+        return projection;
+    }
+
+    private boolean hasConverged(double[] previous, double[] current, double totalVariance) {
+        // Eigenvalues that are negligible relative to the whole corpus need not settle exactly
+        double floor = tolerance * totalVariance;
+        for (int c = 0; c < current.length; c++) {
+            if (Math.abs(current[c] - previous[c]) > tolerance * current[c] + floor) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Multiplies the symmetric row-major covariance by each basis vector, in parallel over
+     * the rows of the covariance.
+     */
+    private static double[][] multiply(double[] covariance, int dimensions, double[][] basis) {
+        double[][] product = new double[basis.length][dimensions];
+        IntStream.range(0, dimensions).parallel().forEach(row -> {
+            int offset = row * dimensions;
+            for (int v = 0; v < basis.length; v++) {
+                double[] vector = basis[v];
+                double sum = 0.0;
+                for (int i = 0; i < dimensions; i++) {
+                    sum += covariance[offset + i] * vector[i];
+                }
+                product[v][row] = sum;
+            }
+        });
+        return product;
+    }
+
+    /**
+     * Orthonormalizes the vectors in place with two passes of modified Gram-Schmidt.
+     * Vectors that collapse because the covariance is rank-deficient are replaced by
+     * random directions orthogonal to the others.
+     */
+    private static void orthonormalize(double[][] vectors, Random random) {
+        for (int v = 0; v < vectors.length; v++) {
+            double[] vector = vectors[v];
+            double originalNorm = Math.sqrt(dot(vector, vector));
+            for (int pass = 0; pass < 2; pass++) {
+                for (int u = 0; u < v; u++) {
+                    double projection = dot(vectors[u], vector);
+                    for (int i = 0; i < vector.length; i++) {
+                        vector[i] -= projection * vectors[u][i];
+                    }
+                }
+            }
+            double norm = Math.sqrt(dot(vector, vector));
+            if (norm <= 1e-10 * originalNorm || norm == 0.0) {
+                for (int i = 0; i < vector.length; i++) {
+                    vector[i] = random.nextGaussian();
+                }
+                v--; // Orthogonalize the replacement against the previous vectors
+                continue;
+            }
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= norm;
+            }
+        }
+    }
+
+    /**
+     * Cyclic Jacobi eigendecomposition of a small symmetric matrix, which is destroyed.
+     *
+     * @param matrix       The symmetric matrix.
+     * @param eigenvectors Receives the eigenvectors as columns.
+     * @return The eigenvalues, in the order of the eigenvector columns.
+     */
+    private static double[] jacobiEigen(double[][] matrix, double[][] eigenvectors) {
+        int n = matrix.length;
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(eigenvectors[i], 0.0);
+            eigenvectors[i][i] = 1.0;
+        }
+
+        for (int sweep = 0; sweep < MAX_JACOBI_SWEEPS; sweep++) {
+            double offDiagonal = 0.0;
+            double diagonal = 0.0;
+            for (int p = 0; p < n; p++) {
+                diagonal += matrix[p][p] * matrix[p][p];
+                for (int q = p + 1; q < n; q++) {
+                    offDiagonal += matrix[p][q] * matrix[p][q];
+                }
+            }
+            if (offDiagonal <= 1e-30 * diagonal || offDiagonal == 0.0) {
+                break;
+            }
+
+            for (int p = 0; p < n - 1; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    double apq = matrix[p][q];
+                    if (apq == 0.0) {
+                        continue;
+                    }
+                    double theta = (matrix[q][q] - matrix[p][p]) / (2.0 * apq);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1.0));
+                    if (theta == 0.0) {
+                        t = 1.0;
+                    }
+                    double c = 1.0 / Math.sqrt(t * t + 1.0);
+                    double s = t * c;
+
+                    for (int k = 0; k < n; k++) {
+                        double akp = matrix[k][p];
+                        double akq = matrix[k][q];
+                        matrix[k][p] = c * akp - s * akq;
+                        matrix[k][q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double apk = matrix[p][k];
+                        double aqk = matrix[q][k];
+                        matrix[p][k] = c * apk - s * aqk;
+                        matrix[q][k] = s * apk + c * aqk;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double vkp = eigenvectors[k][p];
+                        double vkq = eigenvectors[k][q];
+                        eigenvectors[k][p] = c * vkp - s * vkq;
+                        eigenvectors[k][q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+
+        double[] eigenvalues = new double[n];
+        for (int i = 0; i < n; i++) {
+            eigenvalues[i] = matrix[i][i];
+        }
+        return eigenvalues;
+    }
+
+    /**
+     * Flips a component so that its largest-magnitude entry is positive, making the
+     * projection deterministic for a given corpus.
+     */
+    private static void fixSign(double[] vector) {
+        int largest = 0;
+        for (int i = 1; i < vector.length; i++) {
+            if (Math.abs(vector[i]) > Math.abs(vector[largest])) {
+                largest = i;
+            }
+        }
+        if (vector[largest] < 0) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = -vector[i];
+            }
+        }
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -1,47 +1,69 @@
 package com.retrieval.indexing.BallTree;
 
-import com.retrieval.models.ImageFeature;
-import com.retrieval.utils.FeatureUtils;
+import com.retrieval.indexing.storage.VectorStore;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.DistanceMetrics;
+import com.retrieval.utils.PreparedQuery;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
  * Improved Ball Tree builder with better splitting strategies and error handling.
+ * The tree is built over the ordinals of a {@link VectorStore}; leaves reference
+ * vectors by ordinal. Node radii are measured with the builder's {@link DistanceMetric},
+ * which must satisfy the triangle inequality for the radii to be usable as search bounds.
  */
 public class BallTreeBuilder {
     private static final Logger log = LoggerFactory.getLogger(BallTreeBuilder.class);
-    private static final int DEFAULT_LEAF_SIZE = 50;
+    public static final int DEFAULT_LEAF_SIZE = 50;
     private static final int MIN_SPLIT_SIZE = 2;
     private static final Random random = new Random();
 
     private final int leafSize;
+    private final DistanceMetric metric;
 
     public BallTreeBuilder() {
         this(DEFAULT_LEAF_SIZE);
     }
 
     public BallTreeBuilder(int leafSize) {
+        this(leafSize, DistanceMetrics.EUCLIDEAN);
+    }
+
+    public BallTreeBuilder(int leafSize, DistanceMetric metric) {
         if (leafSize <= 0) {
             throw new IllegalArgumentException("Leaf size must be positive");
         }
+        if (metric == null || !metric.isMetricSpace()) {
+            throw new IllegalArgumentException("Ball Tree requires a metric that satisfies the triangle inequality");
+        }
         this.leafSize = leafSize;
+        this.metric = metric;
     }
 
-    public BallTreeNode buildBallTree(List<ImageFeature> features) {
-        if (features == null || features.isEmpty()) {
+    /**
+     * Builds a Ball Tree over every vector in the store.
+     *
+     * @param store The vectors to index.
+     * @return The root node, or null if the store is null or empty.
+     */
+    public BallTreeNode buildBallTree(VectorStore store) {
+        if (store == null || store.size() == 0) {
             log.warn("Attempted to build Ball Tree with null or empty feature list.");
             return null;
         }
 
         log.info("Starting Ball Tree construction with {} features, leaf size = {}.",
-                features.size(), leafSize);
+                store.size(), leafSize);
 
-        BallTreeNode root = buildRecursive(new ArrayList<>(features), 0);
+        int[] ordinals = new int[store.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = i;
+        }
+        BallTreeNode root = buildRecursive(store, ordinals, 0);
         log.info("Ball Tree construction complete.");
         return root;
     }
@@ -49,34 +71,34 @@ public class BallTreeBuilder {
     /**
      * Recursively builds the Ball Tree with improved splitting strategy.
      */
-    private BallTreeNode buildRecursive(List<ImageFeature> currentFeatures, int depth) {
-        if (currentFeatures.isEmpty()) {
+    private BallTreeNode buildRecursive(VectorStore store, int[] currentOrdinals, int depth) {
+        if (currentOrdinals.length == 0) {
             return null;
         }
 
         // Calculate centroid and radius for the current ball
-        double[] centroid = calculateCentroid(currentFeatures);
-        double radius = calculateRadius(currentFeatures, centroid);
+        double[] centroid = calculateCentroid(store, currentOrdinals);
+        double radius = calculateRadius(store, currentOrdinals, centroid);
 
         // Create leaf node if we're at the leaf size threshold
-        if (currentFeatures.size() <= leafSize) {
-            return new LeafNode(centroid, radius, currentFeatures);
+        if (currentOrdinals.length <= leafSize) {
+            return new LeafNode(centroid, radius, currentOrdinals);
         }
 
         // Find the best split using farthest point heuristic
-        SplitResult splitResult = findBestSplit(currentFeatures);
+        SplitResult splitResult = findBestSplit(store, currentOrdinals);
 
-        if (splitResult == null || splitResult.leftSubset.isEmpty() || splitResult.rightSubset.isEmpty()) {
+        if (splitResult == null || splitResult.leftSubset.length == 0 || splitResult.rightSubset.length == 0) {
             // Fallback: if we can't split effectively, create a leaf
             log.debug("Cannot split {} features at depth {}, creating leaf",
-                    currentFeatures.size(), depth);
-            return new LeafNode(centroid, radius, currentFeatures);
+                    currentOrdinals.length, depth);
+            return new LeafNode(centroid, radius, currentOrdinals);
         }
 
         // Create internal node with children
         InternalNode node = new InternalNode(centroid, radius);
-        node.setLeftChild(buildRecursive(splitResult.leftSubset, depth + 1));
-        node.setRightChild(buildRecursive(splitResult.rightSubset, depth + 1));
+        node.setLeftChild(buildRecursive(store, splitResult.leftSubset, depth + 1));
+        node.setRightChild(buildRecursive(store, splitResult.rightSubset, depth + 1));
 
         return node;
     }
@@ -84,110 +106,110 @@ public class BallTreeBuilder {
     /**
      * Improved splitting strategy using farthest point heuristic.
      */
-    private SplitResult findBestSplit(List<ImageFeature> features) {
-        if (features.size() < MIN_SPLIT_SIZE) {
+    private SplitResult findBestSplit(VectorStore store, int[] ordinals) {
+        if (ordinals.length < MIN_SPLIT_SIZE) {
             return null;
         }
 
         // Step 1: Pick a random starting point
-        ImageFeature p1Feature = features.get(random.nextInt(features.size()));
-        double[] p1 = p1Feature.getFeatureVector();
+        PreparedQuery p1 = PreparedQuery.of(store.getVector(ordinals[random.nextInt(ordinals.length)]));
 
         // Step 2: Find the point farthest from p1
-        double maxDist1 = -1.0;
-        double[] p2 = null;
-        for (ImageFeature feature : features) {
-            double dist = FeatureUtils.euclideanDistance(p1, feature.getFeatureVector());
-            if (dist > maxDist1) {
-                maxDist1 = dist;
-                p2 = feature.getFeatureVector();
-            }
-        }
+        int p2Ordinal = farthestFrom(store, ordinals, p1);
+        PreparedQuery p2 = p2Ordinal >= 0 ? PreparedQuery.of(store.getVector(p2Ordinal)) : null;
 
         // Step 3: Find the point farthest from p2 (this becomes our new p1)
         if (p2 != null) {
-            double maxDist2 = -1.0;
-            double[] newP1 = null;
-            for (ImageFeature feature : features) {
-                double dist = FeatureUtils.euclideanDistance(p2, feature.getFeatureVector());
-                if (dist > maxDist2) {
-                    maxDist2 = dist;
-                    newP1 = feature.getFeatureVector();
-                }
-            }
-            if (newP1 != null) {
-                p1 = newP1;
+            int newP1Ordinal = farthestFrom(store, ordinals, p2);
+            if (newP1Ordinal >= 0) {
+                p1 = PreparedQuery.of(store.getVector(newP1Ordinal));
             }
         }
 
         // Step 4: Split based on distance to p1 vs p2
-        List<ImageFeature> leftSubset = new ArrayList<>();
-        List<ImageFeature> rightSubset = new ArrayList<>();
+        int[] leftSubset = new int[ordinals.length];
+        int[] rightSubset = new int[ordinals.length];
+        int leftCount = 0;
+        int rightCount = 0;
 
-        for (ImageFeature feature : features) {
-            double[] vector = feature.getFeatureVector();
-            double distToP1 = FeatureUtils.euclideanDistance(vector, p1);
-            double distToP2 = p2 != null ? FeatureUtils.euclideanDistance(vector, p2) : Double.MAX_VALUE;
+        for (int ordinal : ordinals) {
+            // Surrogate distances preserve the comparison and skip the square root
+            double distToP1 = store.surrogateDistance(metric, p1, ordinal);
+            double distToP2 = p2 != null ? store.surrogateDistance(metric, p2, ordinal) : Double.MAX_VALUE;
 
             if (distToP1 <= distToP2) {
-                leftSubset.add(feature);
+                leftSubset[leftCount++] = ordinal;
             } else {
-                rightSubset.add(feature);
+                rightSubset[rightCount++] = ordinal;
             }
         }
 
         // Handle degenerate cases where all points are equidistant
-        if (leftSubset.isEmpty() || rightSubset.isEmpty()) {
-            return balancedSplit(features);
+        if (leftCount == 0 || rightCount == 0) {
+            return balancedSplit(ordinals);
         }
 
-        return new SplitResult(leftSubset, rightSubset);
+        return new SplitResult(Arrays.copyOf(leftSubset, leftCount), Arrays.copyOf(rightSubset, rightCount));
+    }
+
+    /**
+     * Returns the ordinal farthest from the given point, or -1 if there is none.
+     */
+    private int farthestFrom(VectorStore store, int[] ordinals, PreparedQuery point) {
+        double maxDist = Double.NEGATIVE_INFINITY;
+        int farthest = -1;
+        for (int ordinal : ordinals) {
+            double dist = store.surrogateDistance(metric, point, ordinal);
+            if (dist > maxDist) {
+                maxDist = dist;
+                farthest = ordinal;
+            }
+        }
+        return farthest;
     }
 
     /**
      * Fallback balanced split when farthest point heuristic fails.
      */
-    private SplitResult balancedSplit(List<ImageFeature> features) {
-        if (features.size() < MIN_SPLIT_SIZE) {
+    private SplitResult balancedSplit(int[] ordinals) {
+        if (ordinals.length < MIN_SPLIT_SIZE) {
             return null;
         }
 
         // Shuffle to avoid bias, then split in half
-        List<ImageFeature> shuffled = new ArrayList<>(features);
-        Collections.shuffle(shuffled, random);
-
-        int midPoint = shuffled.size() / 2;
-        List<ImageFeature> leftSubset = shuffled.subList(0, midPoint);
-        List<ImageFeature> rightSubset = shuffled.subList(midPoint, shuffled.size());
+        int[] shuffled = Arrays.copyOf(ordinals, ordinals.length);
+        for (int i = shuffled.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = tmp;
+        }
 
-        return new SplitResult(new ArrayList<>(leftSubset), new ArrayList<>(rightSubset));
+        int midPoint = shuffled.length / 2;
+        return new SplitResult(Arrays.copyOfRange(shuffled, 0, midPoint),
+                Arrays.copyOfRange(shuffled, midPoint, shuffled.length));
     }
 
     /**
      * Calculates the centroid with improved error handling.
      */
-    private double[] calculateCentroid(List<ImageFeature> features) {
-        if (features.isEmpty()) {
+    private double[] calculateCentroid(VectorStore store, int[] ordinals) {
+        if (ordinals.length == 0) {
             throw new IllegalArgumentException("Cannot calculate centroid for an empty list of features.");
         }
 
-        int dimensions = features.get(0).getDimensions();
+        int dimensions = store.getDimensions();
         double[] centroid = new double[dimensions];
 
-        for (ImageFeature feature : features) {
-            double[] vector = feature.getFeatureVector();
-            if (vector.length != dimensions) {
-                throw new IllegalArgumentException(
-                        String.format("Inconsistent feature vector dimensions. Expected %d, got %d.",
-                                dimensions, vector.length));
-            }
+        for (int ordinal : ordinals) {
+            double[] vector = store.getVector(ordinal);
             for (int i = 0; i < dimensions; i++) {
                 centroid[i] += vector[i];
             }
         }
 
         for (int i = 0; i < dimensions; i++) {
-            centroid[i] /= features.size();
+            centroid[i] /= ordinals.length;
         }
 
         return centroid;
@@ -196,25 +218,25 @@ public class BallTreeBuilder {
     /**
      * Calculates the radius with validation.
      */
-    private double calculateRadius(List<ImageFeature> features, double[] centroid) {
-        double maxRadius = 0.0;
-        for (ImageFeature feature : features) {
-            double distance = FeatureUtils.euclideanDistance(feature.getFeatureVector(), centroid);
-            maxRadius = Math.max(maxRadius, distance);
+    private double calculateRadius(VectorStore store, int[] ordinals, double[] centroid) {
+        PreparedQuery center = PreparedQuery.of(centroid);
+        double maxSurrogate = Double.NEGATIVE_INFINITY;
+        for (int ordinal : ordinals) {
+            maxSurrogate = Math.max(maxSurrogate, store.surrogateDistance(metric, center, ordinal));
         }
-        return maxRadius;
+        return Math.max(0.0, metric.toDistance(maxSurrogate));
     }
 
     /**
      * Helper class to hold split results.
      */
     private static class SplitResult {
-        final List<ImageFeature> leftSubset;
-        final List<ImageFeature> rightSubset;
+        final int[] leftSubset;
+        final int[] rightSubset;
 
-        SplitResult(List<ImageFeature> leftSubset, List<ImageFeature> rightSubset) {
+        SplitResult(int[] leftSubset, int[] rightSubset) {
             this.leftSubset = leftSubset;
             this.rightSubset = rightSubset;
         }
     }
-}
\ No newline at end of file
+}
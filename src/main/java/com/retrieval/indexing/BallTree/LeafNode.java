@@ -1,44 +1,45 @@
 package com.retrieval.indexing.BallTree;
 
-import com.retrieval.models.ImageFeature;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import com.retrieval.indexing.storage.VectorStore;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.PreparedQuery;
+
+import java.util.Arrays;
 
 /**
  * Represents leaf node in a Ball Tree.
- * Leaf nodes directly contain the actual ImageFeatures.
+ * Leaf nodes directly contain the ordinals of their features in the index's {@link VectorStore}.
  */
 public class LeafNode extends BallTreeNode {
-    private final List<ImageFeature> features;
+    private final int[] ordinals;
 
     /**
      * Constructs a leaf BallTreeNode.
      *
      * @param centroid The centroid of the ball.
      * @param radius   The radius of the ball.
-     * @param features The list of ImageFeatures contained within this leaf node.
-     * @throws IllegalArgumentException if features is null or empty
+     * @param ordinals The store ordinals of the features contained within this leaf node.
+     * @throws IllegalArgumentException if ordinals is null or empty
      */
-    public LeafNode(double[] centroid, double radius, List<ImageFeature> features) {
+    public LeafNode(double[] centroid, double radius, int[] ordinals) {
         super(centroid, radius);
 
-        if (features == null || features.isEmpty()) {
+        if (ordinals == null || ordinals.length == 0) {
             throw new IllegalArgumentException("Leaf node must contain at least one feature");
         }
 
         // Create defensive copy to prevent external modification
-        this.features = Collections.unmodifiableList(new ArrayList<>(features));
+        this.ordinals = Arrays.copyOf(ordinals, ordinals.length);
     }
 
     /**
-     * Gets an immutable view of the ImageFeatures stored in this node.
-     * The returned list cannot be modified, ensuring data integrity.
+     * Gets the store ordinals of the features in this node.
+     * The returned array is shared and must not be modified.
      *
-     * @return An immutable list of ImageFeatures.
+     * @return The ordinals of the features in this leaf.
      */
-    public List<ImageFeature> getFeatures() {
-        return features; // Already immutable from constructor
+    public int[] getOrdinals() {
+        return ordinals;
     }
 
     @Override
@@ -48,61 +49,58 @@ public class LeafNode extends BallTreeNode {
 
     @Override
     public int getFeatureCount() {
-        return features.size();
+        return ordinals.length;
     }
 
     /**
-     * Checks if this leaf contains a specific ImageFeature.
+     * Checks if this leaf contains a specific feature.
      *
-     * @param feature The feature to search for
+     * @param ordinal The store ordinal of the feature to search for
      * @return true if the feature is contained in this leaf
      */
-    public boolean containsFeature(ImageFeature feature) {
-        return features.contains(feature);
+    public boolean containsOrdinal(int ordinal) {
+        for (int candidate : ordinals) {
+            if (candidate == ordinal) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Gets the feature at the specified index.
+     * Gets the ordinal of the feature at the specified index.
      *
-     * @param index The index of the feature to retrieve
-     * @return The ImageFeature at the specified index
+     * @param index The index of the feature within this leaf
+     * @return The store ordinal at the specified index
      * @throws IndexOutOfBoundsException if index is out of range
      */
-    public ImageFeature getFeature(int index) {
-        return features.get(index);
+    public int getOrdinal(int index) {
+        return ordinals[index];
     }
 
     /**
      * Gets basic statistics about the features in this leaf.
      *
+     * @param store  The store the ordinals of this leaf refer to
+     * @param metric The metric the tree was built with
      * @return A string with statistics about this leaf
      */
-    public String getStatistics() {
-        if (features.isEmpty()) {
-            return "Empty leaf";
-        }
-
-        int dimensions = features.get(0).getDimensions();
+    public String getStatistics(VectorStore store, DistanceMetric metric) {
+        PreparedQuery center = PreparedQuery.of(centroid);
         double minRadius = Double.MAX_VALUE;
         double maxRadius = Double.MIN_VALUE;
         double avgRadius = 0.0;
 
-        for (ImageFeature feature : features) {
-            double distance = 0.0;
-            double[] featureVector = feature.getFeatureVector();
-            for (int i = 0; i < dimensions; i++) {
-                double diff = featureVector[i] - centroid[i];
-                distance += diff * diff;
-            }
-            distance = Math.sqrt(distance);
+        for (int ordinal : ordinals) {
+            double distance = store.distance(metric, center, ordinal);
 
             minRadius = Math.min(minRadius, distance);
             maxRadius = Math.max(maxRadius, distance);
             avgRadius += distance;
         }
-        avgRadius /= features.size();
+        avgRadius /= ordinals.length;
 
         return String.format("LeafNode{features=%d, radius=%.3f, distances=[%.3f-%.3f], avg=%.3f}",
-                features.size(), radius, minRadius, maxRadius, avgRadius);
+                ordinals.length, radius, minRadius, maxRadius, avgRadius);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,167 @@
+package com.retrieval.indexing.KDTree;
+
+/**
+ * An immutable K-D tree over the ordinals of a {@link com.retrieval.indexing.storage.VectorStore},
+ * held in primitive arrays rather than as linked node objects. Internal nodes only route:
+ * each splits on an axis at a value, with values at most the split value in its left
+ * subtree and at least it in its right. The vectors themselves sit in leaves, each a
+ * contiguous block of up to a configured number of ordinals that a search scans in one
+ * loop.
+ * <p>
+ * Nodes are numbered in pre-order, so a node's left child directly follows it and a
+ * descent along left children reads consecutive slots. Each node's axis and child indices,
+ * or a leaf's block bounds, share one three-int record.
+ * <p>
+ * Trees are built by {@link KDTreeBuilder}. Instances are safe to search from many
+ * threads at once.
+ */
+public final class FlatKDTree {
+    /**
+     * The index of a missing node, e.g. the root of an empty tree.
+     */
+    public static final int NONE = -1;
+
+    // Offsets within a node's record; a leaf stores its block in the child slots
+    private static final int AXIS = 0;
+    private static final int LEFT = 1;
+    private static final int RIGHT = 2;
+    private static final int START = LEFT;
+    private static final int END = RIGHT;
+    private static final int RECORD = 3;
+    // The axis recorded for a leaf
+    private static final int LEAF = -1;
+
+    private final int[] ordinals;
+    private final int nodeCount;
+    private final int height;
+    private final int[] records;
+    private final double[] splitValues;
+
+    /**
+     * Allocates a tree for the builder to fill in.
+     *
+     * @param ordinals  The indexed ordinals, ordered so that every leaf's block is contiguous.
+     * @param nodeCount The number of nodes, internal and leaf.
+     * @param height    The number of levels.
+     */
+    FlatKDTree(int[] ordinals, int nodeCount, int height) {
+        this.ordinals = ordinals;
+        this.nodeCount = nodeCount;
+        this.height = height;
+        this.records = new int[nodeCount * RECORD];
+        this.splitValues = new double[nodeCount];
+    }
+
+    /**
+     * Sets every field of an internal node; called once per node while building.
+     */
+    void setInternal(int node, int axis, double splitValue, int left, int right) {
+        int record = node * RECORD;
+        records[record + AXIS] = axis;
+        records[record + LEFT] = left;
+        records[record + RIGHT] = right;
+        splitValues[node] = splitValue;
+    }
+
+    /**
+     * Makes a node the leaf holding {@code ordinals[start..end)}; called once per leaf while building.
+     */
+    void setLeaf(int node, int start, int end) {
+        int record = node * RECORD;
+        records[record + AXIS] = LEAF;
+        records[record + START] = start;
+        records[record + END] = end;
+    }
+
+    /**
+     * @return The number of indexed vectors.
+     */
+    public int size() {
+        return ordinals.length;
+    }
+
+    /**
+     * @return The number of nodes, internal and leaf.
+     */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return The index of the root node, or {@link #NONE} if the tree is empty.
+     */
+    public int root() {
+        return nodeCount == 0 ? NONE : 0;
+    }
+
+    /**
+     * @return The number of levels, counting the leaves.
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * @param node A node index.
+     * @return Whether the node is a leaf.
+     */
+    public boolean isLeaf(int node) {
+        return records[node * RECORD + AXIS] == LEAF;
+    }
+
+    /**
+     * @param node The index of an internal node.
+     * @return The dimension the node splits on.
+     */
+    public int axis(int node) {
+        return records[node * RECORD + AXIS];
+    }
+
+    /**
+     * @param node The index of an internal node.
+     * @return The value on the node's axis that separates its subtrees.
+     */
+    public double splitValue(int node) {
+        return splitValues[node];
+    }
+
+    /**
+     * @param node The index of an internal node.
+     * @return The index of the left child.
+     */
+    public int left(int node) {
+        return records[node * RECORD + LEFT];
+    }
+
+    /**
+     * @param node The index of an internal node.
+     * @return The index of the right child.
+     */
+    public int right(int node) {
+        return records[node * RECORD + RIGHT];
+    }
+
+    /**
+     * @param node The index of a leaf.
+     * @return The position of the leaf's first vector, see {@link #ordinalAt(int)}.
+     */
+    public int leafStart(int node) {
+        return records[node * RECORD + START];
+    }
+
+    /**
+     * @param node The index of a leaf.
+     * @return The position after the leaf's last vector.
+     */
+    public int leafEnd(int node) {
+        return records[node * RECORD + END];
+    }
+
+    /**
+     * @param position A position within a leaf's block.
+     * @return The ordinal of the vector at that position.
+     */
+    public int ordinalAt(int position) {
+        return ordinals[position];
+    }
+}
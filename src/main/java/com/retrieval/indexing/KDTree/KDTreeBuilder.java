@@ -1,31 +1,352 @@
 package com.retrieval.indexing.KDTree;
 
-import com.retrieval.models.ImageFeature;
-import java.util.*;
+import com.retrieval.indexing.storage.VectorStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Builds a {@link FlatKDTree} over the ordinals of a {@link VectorStore}. Each node splits its points
+ * at their median along the node's axis, found by quickselect over primitive arrays of
+ * ordinals and axis values rather than by sorting, so every level of the tree costs linear
+ * time. The two subtrees of a large node are built in parallel as fork/join tasks.
+ * Splitting stops at nodes of at most the leaf size, which become leaves holding their
+ * points as one block.
+ * <p>
+ * Each node splits on the dimension along which its points vary most, so that a tree
+ * only about 20 levels deep over high-dimensional embeddings still splits on informative
+ * dimensions rather than on the first 20. Variances are estimated on a small sample of a
+ * node's points. Every few levels, large nodes rank all dimensions and keep the
+ * {@value #SHORTLIST_SIZE} most variable; the nodes below them only re-rank that shortlist,
+ * so ranking costs about one pass over the vectors in total.
+ * The axis can also be drawn at random from the few most variable dimensions, which
+ * decorrelates the trees of a forest.
+ */
 public class KDTreeBuilder {
-    private KDNode root;
+    private static final Logger log = LoggerFactory.getLogger(KDTreeBuilder.class);
+
+    /**
+     * The number of highest-variance dimensions a node passes down for its descendants to
+     * choose from, and so the largest number of candidate axes.
+     */
+    public static final int SHORTLIST_SIZE = 16;
+
+    /**
+     * The default largest number of vectors in a leaf.
+     */
+    public static final int DEFAULT_LEAF_SIZE = 8;
+
+    // Subtrees smaller than this are built on the current thread; forking them costs more than it saves
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+    // Points sampled to rank all dimensions at a node; enough to tell high-variance dimensions apart
+    private static final int SAMPLE_SIZE = 128;
+    // Points sampled to re-rank a shortlist, which only needs to order a few dimensions
+    private static final int SHORTLIST_SAMPLE_SIZE = 16;
+    // Levels between two rankings of every dimension; the levels in between re-rank the shortlist
+    private static final int FULL_RANK_INTERVAL = 4;
+
+    private final ForkJoinPool pool;
+    private final int candidateAxes;
+    private final long seed;
+    private final int leafSize;
+
+    /**
+     * Creates a builder that builds large trees on the common pool and splits every node
+     * on its highest-variance dimension.
+     */
+    public KDTreeBuilder() {
+        this(ForkJoinPool.commonPool());
+    }
 
-    public KDNode getKDTreeRoot(List<ImageFeature> features) {
-        if (features == null || features.isEmpty()) {
+    /**
+     * @param pool The pool that builds subtrees in parallel.
+     * @throws IllegalArgumentException if pool is null
+     */
+    public KDTreeBuilder(ForkJoinPool pool) {
+        this(pool, 1, 0L);
+    }
+
+    /**
+     * @param pool          The pool that builds subtrees in parallel.
+     * @param candidateAxes The number of highest-variance dimensions among which each node
+     *                      draws its split axis at random; 1 always splits on the highest.
+     * @param seed          Seeds the draws; the same seed over the same store builds the same tree.
+     * @throws IllegalArgumentException if pool is null or candidateAxes is not between 1 and {@value #SHORTLIST_SIZE}
+     */
+    public KDTreeBuilder(ForkJoinPool pool, int candidateAxes, long seed) {
+        this(pool, candidateAxes, seed, DEFAULT_LEAF_SIZE);
+    }
+
+    /**
+     * @param pool          The pool that builds subtrees in parallel.
+     * @param candidateAxes The number of highest-variance dimensions among which each node
+     *                      draws its split axis at random; 1 always splits on the highest.
+     * @param seed          Seeds the draws; the same seed over the same store builds the same tree.
+     * @param leafSize      The largest number of vectors in a leaf.
+     * @throws IllegalArgumentException if pool is null, candidateAxes is not between 1 and
+     *                                  {@value #SHORTLIST_SIZE}, or leafSize is not positive
+     */
+    public KDTreeBuilder(ForkJoinPool pool, int candidateAxes, long seed, int leafSize) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool cannot be null");
+        }
+        if (candidateAxes < 1 || candidateAxes > SHORTLIST_SIZE) {
+            throw new IllegalArgumentException("Candidate axes must be between 1 and " + SHORTLIST_SIZE);
+        }
+        if (leafSize <= 0) {
+            throw new IllegalArgumentException("Leaf size must be positive");
+        }
+        this.pool = pool;
+        this.candidateAxes = candidateAxes;
+        this.seed = seed;
+        this.leafSize = leafSize;
+    }
+
+    /**
+     * Builds a K-D tree over every vector in the store.
+     *
+     * @param store The vectors to index.
+     * @return The tree, or null if the store is null or empty.
+     */
+    public FlatKDTree build(VectorStore store) {
+        if (store == null || store.size() == 0) {
             return null;
         }
-        this.root = buildRecursive(new ArrayList<>(features), 0);
-        return this.root;
+        int[] ordinals = new int[store.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = i;
+        }
+        return build(store, ordinals);
     }
 
-    private KDNode buildRecursive(List<ImageFeature> points, int depth) {
-        if (points.isEmpty()) return null;
-        int dimensions = points.get(0).getDimensions();
-        int axis = depth % dimensions;
+    /**
+     * Builds a K-D tree over some of the vectors in the store, e.g. the recent inserts
+     * merged into one level of a log-structured index.
+     *
+     * @param store    The vectors to index.
+     * @param ordinals The ordinals to index; the tree takes ownership of the array and reorders it.
+     * @return The tree, or null if the store is null or there are no ordinals.
+     */
+    public FlatKDTree build(VectorStore store, int[] ordinals) {
+        if (store == null || ordinals == null || ordinals.length == 0) {
+            return null;
+        }
+        int size = ordinals.length;
+        // Axis values of the points being partitioned, kept in step with the ordinals;
+        // subtrees own disjoint ranges of both arrays, so parallel builds never share a slot
+        double[] keys = new double[size];
+        // Every subtree of a given size has the same shape, and a median split only produces
+        // two sizes per level, so the node counts that place right subtrees are few
+        Map<Integer, Integer> nodeCounts = new HashMap<>();
+        FlatKDTree tree = new FlatKDTree(ordinals, countNodes(size, nodeCounts), height(size));
+
+        long start = System.nanoTime();
+        if (size < PARALLEL_THRESHOLD) {
+            build(store, tree, nodeCounts, ordinals, keys, 0, size, 0, 0, null);
+        } else {
+            pool.invoke(ForkJoinTask.adapt(() -> build(store, tree, nodeCounts, ordinals, keys, 0, size, 0, 0, null)));
+        }
+        log.debug("Built K-D tree over {} vectors in {} ms", size, (System.nanoTime() - start) / 1_000_000);
+        return tree;
+    }
 
-        points.sort(Comparator.comparingDouble(p -> p.getFeatureVector()[axis]));
-        int medianIndex = points.size() / 2;
+    /**
+     * @return The number of nodes of a subtree over {@code size} vectors, recording it and
+     * the counts of all smaller subtrees below it in {@code nodeCounts}.
+     */
+    private int countNodes(int size, Map<Integer, Integer> nodeCounts) {
+        Integer known = nodeCounts.get(size);
+        if (known != null) {
+            return known;
+        }
+        int count = size <= leafSize
+                ? 1
+                : 1 + countNodes(size / 2, nodeCounts) + countNodes(size - size / 2, nodeCounts);
+        nodeCounts.put(size, count);
+        return count;
+    }
 
-        KDNode node = new KDNode(points.get(medianIndex), axis);
-        node.setLeft(buildRecursive(points.subList(0, medianIndex), depth + 1));
-        node.setRight(buildRecursive(points.subList(medianIndex + 1, points.size()), depth + 1));
+    /**
+     * @return The number of levels of a subtree over {@code size} vectors; the larger half
+     * of each split is the deeper.
+     */
+    private int height(int size) {
+        int height = 1;
+        while (size > leafSize) {
+            size -= size / 2;
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * Builds the subtree over {@code ordinals[from..to)}, reordering that range in place.
+     * The subtree takes the pre-order node indices starting at {@code node}, so parallel
+     * builds write disjoint parts of the tree.
+     *
+     * @param nodeCounts The node count of every subtree size, read concurrently.
+     * @param shortlist  The parent's highest-variance dimensions, or null at the root.
+     */
+    private void build(VectorStore store, FlatKDTree tree, Map<Integer, Integer> nodeCounts, int[] ordinals,
+                       double[] keys, int from, int to, int node, int depth, int[] shortlist) {
+        if (to - from <= leafSize) {
+            tree.setLeaf(node, from, to);
+            return;
+        }
+        // Nodes of at most three points are at the bottom of the tree; their parent's ranking will do
+        int[] ranked = to - from <= 3 && shortlist != null
+                ? shortlist
+                : rankAxes(store, ordinals, from, to, depth, shortlist);
+        int axis = ranked[drawAxis(from, depth, ranked.length)];
+        for (int i = from; i < to; i++) {
+            keys[i] = store.valueAt(ordinals[i], axis);
+        }
+        int median = from + (to - from) / 2;
+        select(ordinals, keys, from, to - 1, median);
+
+        // The median point goes right, so both halves hold at least one point.
+        // Pre-order: the left subtree follows the node, the right subtree follows the left
+        int left = node + 1;
+        int right = left + nodeCounts.get(median - from);
+        tree.setInternal(node, axis, keys[median], left, right);
+        if (to - from >= PARALLEL_THRESHOLD) {
+            ForkJoinTask<?> leftTask = ForkJoinTask.adapt(
+                    () -> build(store, tree, nodeCounts, ordinals, keys, from, median, left, depth + 1, ranked)).fork();
+            build(store, tree, nodeCounts, ordinals, keys, median, to, right, depth + 1, ranked);
+            leftTask.join();
+        } else {
+            build(store, tree, nodeCounts, ordinals, keys, from, median, left, depth + 1, ranked);
+            build(store, tree, nodeCounts, ordinals, keys, median, to, right, depth + 1, ranked);
+        }
+    }
+
+    /**
+     * Returns up to {@value #SHORTLIST_SIZE} dimensions in descending order of the variance
+     * of the node's points along them, ties broken by dimension order. The root and every
+     * {@value #FULL_RANK_INTERVAL}th level of large nodes consider every dimension, on an
+     * evenly spaced sample of about {@value #SAMPLE_SIZE} points; other nodes re-rank their
+     * parent's shortlist on about {@value #SHORTLIST_SAMPLE_SIZE} points.
+     */
+    private static int[] rankAxes(VectorStore store, int[] ordinals, int from, int to, int depth, int[] shortlist) {
+        int size = to - from;
+        int[] candidates = shortlist;
+        if (shortlist == null || (size > SAMPLE_SIZE && depth % FULL_RANK_INTERVAL == 0)) {
+            candidates = new int[store.getDimensions()];
+            for (int d = 0; d < candidates.length; d++) {
+                candidates[d] = d;
+            }
+        }
+        int step = Math.max(1, size / (candidates == shortlist ? SHORTLIST_SAMPLE_SIZE : SAMPLE_SIZE));
+
+        double[] mean = new double[candidates.length];
+        double[] m2 = new double[candidates.length];
+        int count = 0;
+        // Welford's update, one dimension at a time
+        for (int i = from; i < to; i += step) {
+            int ordinal = ordinals[i];
+            count++;
+            for (int c = 0; c < candidates.length; c++) {
+                double value = store.valueAt(ordinal, candidates[c]);
+                double delta = value - mean[c];
+                mean[c] += delta / count;
+                m2[c] += delta * (value - mean[c]);
+            }
+        }
+
+        // Insertion into a short sorted prefix; cheaper than sorting thousands of dimensions
+        int length = Math.min(SHORTLIST_SIZE, candidates.length);
+        int[] ranked = new int[length];
+        double[] rankedSpread = new double[length];
+        int filled = 0;
+        for (int c = 0; c < candidates.length; c++) {
+            double spread = m2[c];
+            if (filled == length && !(spread > rankedSpread[length - 1])) {
+                continue;
+            }
+            int position = filled < length ? filled++ : length - 1;
+            while (position > 0 && spread > rankedSpread[position - 1]) {
+                ranked[position] = ranked[position - 1];
+                rankedSpread[position] = rankedSpread[position - 1];
+                position--;
+            }
+            ranked[position] = candidates[c];
+            rankedSpread[position] = spread;
+        }
+        return ranked;
+    }
+
+    /**
+     * Picks the position of a node's split axis in its ranking: always the first with a
+     * single candidate, otherwise one of the first {@code candidateAxes} drawn from a hash
+     * of the seed and the node's position, so parallel builds stay deterministic.
+     */
+    private int drawAxis(int from, int depth, int ranked) {
+        int choices = Math.min(candidateAxes, ranked);
+        if (choices == 1) {
+            return 0;
+        }
+        // (from, depth) identifies the node; the seed is mixed on its own, since adding
+        // consecutive seeds to the node hash would give one tree's child its neighbour's draw
+        long z = mix(seed) ^ mix(from * 0x9E3779B97F4A7C15L + depth);
+        return (int) Math.floorMod(z, (long) choices);
+    }
+
+    /**
+     * The SplitMix64 finalizer.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Rearranges {@code [lo..hi]} so that position {@code k} holds the value it would hold
+     * if the range were sorted by key, with no greater key before it and no smaller key
+     * after it. Partitions three ways around a median-of-three pivot, so ranges with many
+     * equal keys, e.g. sparse or quantized dimensions, still take linear time.
+     */
+    private static void select(int[] ordinals, double[] keys, int lo, int hi, int k) {
+        while (lo < hi) {
+            double pivot = medianOfThree(keys[lo], keys[lo + (hi - lo) / 2], keys[hi]);
+            // Invariant: [lo, lt) < pivot, [lt, i) == pivot, (gt, hi] > pivot
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt) {
+                double key = keys[i];
+                if (key < pivot) {
+                    swap(ordinals, keys, lt++, i++);
+                } else if (key > pivot) {
+                    swap(ordinals, keys, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            if (k < lt) {
+                hi = lt - 1;
+            } else if (k > gt) {
+                lo = gt + 1;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
 
-        return node;
+    private static void swap(int[] ordinals, double[] keys, int i, int j) {
+        int ordinal = ordinals[i];
+        ordinals[i] = ordinals[j];
+        ordinals[j] = ordinal;
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
     }
 }
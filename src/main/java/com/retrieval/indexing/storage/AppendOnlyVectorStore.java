@@ -0,0 +1,412 @@
+package com.retrieval.indexing.storage;
+
+import com.retrieval.models.ImageFeature;
+import com.retrieval.models.VectorPrecision;
+import com.retrieval.utils.DimensionOrder;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.PreparedBatch;
+import com.retrieval.utils.PreparedQuery;
+import com.retrieval.utils.Tombstones;
+
+import java.util.List;
+
+/**
+ * Common implementation of the heap stores whose vectors are only ever appended
+ * ({@link DoubleVectorStore}, {@link FloatVectorStore}). Subclasses supply the row
+ * representation {@code R}; this class keeps the norms, the ordinal-to-id table and the
+ * published size.
+ * <p>
+ * Writes must still be serialized by the owning index, but readers need no lock: each
+ * append writes the row, norm and id and only then publishes the new size through a
+ * volatile field, so {@link #snapshot()} can capture a consistent prefix of the store at
+ * any time. Deleted vectors are marked in a {@link Tombstones} bitset that readers
+ * consult without locking. {@link #clear()}, {@link #replaceAll(List)} and
+ * {@link #compact()} swap in a new generation atomically, leaving existing snapshots untouched.
+ *
+ * @param <R> The contiguous row store holding the vectors.
+ */
+abstract class AppendOnlyVectorStore<R> implements VectorStore {
+
+    /**
+     * The contents between two calls to {@link #clear()}.
+     */
+    private static final class Generation<R> {
+        // Written before the first size is published, and never changed afterwards
+        private R rows;
+        private int dimensions;
+        private final DoubleRows norms = new DoubleRows(1);
+        private final IdTable ids = new IdTable();
+        private final Tombstones deleted = new Tombstones();
+        private volatile int size = 0;
+        private volatile boolean unitNormalized = true;
+    }
+
+    private volatile Generation<R> current = new Generation<>();
+
+    /**
+     * @return An empty row store for vectors of the given dimensionality.
+     */
+    abstract R createRows(int dimensions);
+
+    /**
+     * Appends a vector to the rows.
+     *
+     * @return The L2 norm of the vector as stored.
+     */
+    abstract double appendRow(R rows, double[] vector);
+
+    /**
+     * @see #appendRow(Object, double[])
+     */
+    abstract double appendRow(R rows, float[] vector);
+
+    abstract double[] copyRow(R rows, int ordinal);
+
+    abstract double valueAt(R rows, int ordinal, int dimension);
+
+    abstract double surrogateDistance(R rows, DistanceMetric metric, PreparedQuery query, int ordinal, double norm);
+
+    /**
+     * @see DistanceMetric#boundedSurrogate
+     */
+    abstract double boundedSurrogate(R rows, DistanceMetric metric, PreparedQuery query, int ordinal, double norm,
+                                     DimensionOrder order, double bound);
+
+    private QueryScorer boundedScorer(Generation<R> generation, int size, boolean unitNormalized,
+                                      DistanceMetric metric, PreparedQuery query, DimensionOrder order) {
+        if (size > 0 && (query.getDimensions() != generation.dimensions || order.getDimensions() != generation.dimensions)) {
+            throw new IllegalArgumentException(
+                    String.format("Vector dimensions must match: %d and %d vs %d",
+                            query.getDimensions(), order.getDimensions(), generation.dimensions));
+        }
+        R rows = generation.rows;
+        DoubleRows norms = generation.norms;
+        return new QueryScorer() {
+            @Override
+            public double surrogate(int ordinal) {
+                return surrogateDistance(rows, metric, query, ordinal, unitNormalized ? 1.0 : norms.get(ordinal, 0));
+            }
+
+            @Override
+            public double surrogate(int ordinal, double bound) {
+                return boundedSurrogate(rows, metric, query, ordinal, unitNormalized ? 1.0 : norms.get(ordinal, 0),
+                        order, bound);
+            }
+        };
+    }
+
+    /**
+     * @see DistanceMetric#surrogates
+     */
+    abstract void surrogates(R rows, DistanceMetric metric, PreparedBatch batch, int ordinal, double norm,
+                             double[] out, int outOffset, int outStride);
+
+    private BatchScorer batchScorer(Generation<R> generation, boolean unitNormalized, DistanceMetric metric,
+                                    PreparedBatch batch) {
+        if (generation.size > 0 && batch.getDimensions() != generation.dimensions) {
+            throw new IllegalArgumentException(
+                    String.format("Vector dimensions must match: %d vs %d",
+                            batch.getDimensions(), generation.dimensions));
+        }
+        R rows = generation.rows;
+        DoubleRows norms = generation.norms;
+        return (ordinal, out, outOffset, outStride) -> surrogates(rows, metric, batch, ordinal,
+                unitNormalized ? 1.0 : norms.get(ordinal, 0), out, outOffset, outStride);
+    }
+
+    @Override
+    public int size() {
+        return current.size;
+    }
+
+    @Override
+    public int getDimensions() {
+        Generation<R> generation = current;
+        return generation.size == 0 ? 0 : generation.dimensions;
+    }
+
+    @Override
+    public int add(ImageFeature feature) {
+        if (feature == null) {
+            throw new IllegalArgumentException("Feature cannot be null");
+        }
+        return append(current, feature.getImageId(), feature.getFeatureVector());
+    }
+
+    @Override
+    public int add(String imageId, float[] vector) {
+        Generation<R> generation = current;
+        int dimensions = StoreChecks.checkDimensions(vector, generation.dimensions, generation.size);
+        return publish(generation, imageId, appendRow(rows(generation, dimensions), vector));
+    }
+
+    private int append(Generation<R> generation, String imageId, double[] vector) {
+        int dimensions = StoreChecks.checkDimensions(vector, generation.dimensions, generation.size);
+        return publish(generation, imageId, appendRow(rows(generation, dimensions), vector));
+    }
+
+    private R rows(Generation<R> generation, int dimensions) {
+        if (generation.rows == null) {
+            generation.dimensions = dimensions;
+            generation.rows = createRows(dimensions);
+        }
+        return generation.rows;
+    }
+
+    private int publish(Generation<R> generation, String imageId, double norm) {
+        generation.norms.append(norm);
+        int ordinal = generation.ids.append(imageId);
+        if (Math.abs(norm - 1.0) > StoreChecks.UNIT_NORM_TOLERANCE) {
+            generation.unitNormalized = false;
+        }
+        generation.size = ordinal + 1;
+        return ordinal;
+    }
+
+    /**
+     * Builds the new contents in a fresh generation and publishes it in one step, so
+     * concurrent snapshots see either the old or the new contents in full.
+     */
+    @Override
+    public void replaceAll(List<ImageFeature> features) {
+        Generation<R> generation = new Generation<>();
+        for (ImageFeature feature : features) {
+            if (feature == null) {
+                throw new IllegalArgumentException("Feature cannot be null");
+            }
+            append(generation, feature.getImageId(), feature.getFeatureVector());
+        }
+        current = generation;
+    }
+
+    /**
+     * Copies the live vectors into a new generation and publishes it in one step; the
+     * rows are copied one at a time, so at most one extra copy of the live data is held.
+     */
+    @Override
+    public void compact() {
+        Generation<R> old = current;
+        if (old.deleted.isEmpty()) {
+            return;
+        }
+        Generation<R> generation = new Generation<>();
+        for (int ordinal = 0; ordinal < old.size; ordinal++) {
+            if (!old.deleted.contains(ordinal)) {
+                append(generation, old.ids.get(ordinal), copyRow(old.rows, ordinal));
+            }
+        }
+        current = generation;
+    }
+
+    @Override
+    public boolean delete(int ordinal) {
+        Generation<R> generation = current;
+        if (ordinal < 0 || ordinal >= generation.size) {
+            throw new IndexOutOfBoundsException("Ordinal " + ordinal + " out of range for size " + generation.size);
+        }
+        return generation.deleted.add(ordinal);
+    }
+
+    @Override
+    public boolean isDeleted(int ordinal) {
+        return current.deleted.contains(ordinal);
+    }
+
+    @Override
+    public int deletedCount() {
+        return current.deleted.count();
+    }
+
+    @Override
+    public String getImageId(int ordinal) {
+        return current.ids.get(ordinal);
+    }
+
+    @Override
+    public ImageFeature getFeature(int ordinal) {
+        Generation<R> generation = current;
+        return new ImageFeature(generation.ids.get(ordinal), copyRow(generation.rows, ordinal));
+    }
+
+    @Override
+    public double[] getVector(int ordinal) {
+        return copyRow(current.rows, ordinal);
+    }
+
+    @Override
+    public double valueAt(int ordinal, int dimension) {
+        return valueAt(current.rows, ordinal, dimension);
+    }
+
+    @Override
+    public double getNorm(int ordinal) {
+        return current.norms.get(ordinal, 0);
+    }
+
+    @Override
+    public boolean isUnitNormalized() {
+        return current.unitNormalized;
+    }
+
+    @Override
+    public double surrogateDistance(DistanceMetric metric, PreparedQuery query, int ordinal) {
+        Generation<R> generation = current;
+        double norm = generation.unitNormalized ? 1.0 : generation.norms.get(ordinal, 0);
+        return surrogateDistance(generation.rows, metric, query, ordinal, norm);
+    }
+
+    @Override
+    public QueryScorer boundedScorer(DistanceMetric metric, PreparedQuery query, DimensionOrder order) {
+        Generation<R> generation = current;
+        return boundedScorer(generation, generation.size, generation.unitNormalized, metric, query, order);
+    }
+
+    @Override
+    public BatchScorer batchScorer(DistanceMetric metric, PreparedBatch batch) {
+        Generation<R> generation = current;
+        return batchScorer(generation, generation.unitNormalized, metric, batch);
+    }
+
+    @Override
+    public VectorStore snapshot() {
+        Generation<R> generation = current;
+        // Read the size before anything it publishes
+        int size = generation.size;
+        return new Snapshot(generation, size, generation.unitNormalized);
+    }
+
+    @Override
+    public void clear() {
+        current = new Generation<>();
+    }
+
+    /**
+     * A read-only view of the first {@code size} vectors of a generation.
+     */
+    private final class Snapshot implements VectorStore {
+        private final Generation<R> generation;
+        private final R rows;
+        private final int size;
+        private final boolean unitNormalized;
+
+        private Snapshot(Generation<R> generation, int size, boolean unitNormalized) {
+            this.generation = generation;
+            this.rows = size == 0 ? null : generation.rows;
+            this.size = size;
+            this.unitNormalized = unitNormalized;
+        }
+
+        @Override
+        public VectorPrecision getPrecision() {
+            return AppendOnlyVectorStore.this.getPrecision();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int getDimensions() {
+            return size == 0 ? 0 : generation.dimensions;
+        }
+
+        @Override
+        public int add(ImageFeature feature) {
+            throw new UnsupportedOperationException("Snapshots are read-only");
+        }
+
+        @Override
+        public int add(String imageId, float[] vector) {
+            throw new UnsupportedOperationException("Snapshots are read-only");
+        }
+
+        @Override
+        public String getImageId(int ordinal) {
+            checkOrdinal(ordinal);
+            return generation.ids.get(ordinal);
+        }
+
+        @Override
+        public ImageFeature getFeature(int ordinal) {
+            checkOrdinal(ordinal);
+            return new ImageFeature(generation.ids.get(ordinal), copyRow(rows, ordinal));
+        }
+
+        @Override
+        public double[] getVector(int ordinal) {
+            checkOrdinal(ordinal);
+            return copyRow(rows, ordinal);
+        }
+
+        @Override
+        public double valueAt(int ordinal, int dimension) {
+            return AppendOnlyVectorStore.this.valueAt(rows, ordinal, dimension);
+        }
+
+        @Override
+        public double getNorm(int ordinal) {
+            return generation.norms.get(ordinal, 0);
+        }
+
+        @Override
+        public boolean isUnitNormalized() {
+            return unitNormalized;
+        }
+
+        @Override
+        public double surrogateDistance(DistanceMetric metric, PreparedQuery query, int ordinal) {
+            double norm = unitNormalized ? 1.0 : generation.norms.get(ordinal, 0);
+            return AppendOnlyVectorStore.this.surrogateDistance(rows, metric, query, ordinal, norm);
+        }
+
+        @Override
+        public QueryScorer boundedScorer(DistanceMetric metric, PreparedQuery query, DimensionOrder order) {
+            return AppendOnlyVectorStore.this.boundedScorer(generation, size, unitNormalized, metric, query, order);
+        }
+
+        @Override
+        public BatchScorer batchScorer(DistanceMetric metric, PreparedBatch batch) {
+            return AppendOnlyVectorStore.this.batchScorer(generation, unitNormalized, metric, batch);
+        }
+
+        @Override
+        public boolean delete(int ordinal) {
+            throw new UnsupportedOperationException("Snapshots are read-only");
+        }
+
+        @Override
+        public boolean isDeleted(int ordinal) {
+            return generation.deleted.contains(ordinal);
+        }
+
+        /**
+         * May include deletions made after the snapshot was taken.
+         */
+        @Override
+        public int deletedCount() {
+            return generation.deleted.count();
+        }
+
+        @Override
+        public void compact() {
+            throw new UnsupportedOperationException("Snapshots are read-only");
+        }
+
+        @Override
+        public VectorStore snapshot() {
+            return this;
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Snapshots are read-only");
+        }
+
+        private void checkOrdinal(int ordinal) {
+            if (ordinal < 0 || ordinal >= size) {
+                throw new IndexOutOfBoundsException("Ordinal " + ordinal + " out of range for size " + size);
+            }
+        }
+    }
+}
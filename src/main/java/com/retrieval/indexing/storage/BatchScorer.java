@@ -0,0 +1,22 @@
+package com.retrieval.indexing.storage;
+
+/**
+ * Scores stored vectors against every query of a batch under one distance metric,
+ * obtained once per batch from {@link VectorStore#batchScorer}.
+ * <p>
+ * A scorer is only valid while the store is not modified.
+ */
+@FunctionalInterface
+public interface BatchScorer {
+
+    /**
+     * Computes the surrogate distances between every query of the batch and one stored
+     * vector, writing the distance to query {@code i} at {@code out[outOffset + i * outStride]}.
+     *
+     * @param ordinal   The ordinal of a stored vector.
+     * @param out       Receives the surrogate distances.
+     * @param outOffset The position of the first query's distance in {@code out}.
+     * @param outStride The distance between consecutive queries' positions in {@code out}.
+     */
+    void surrogates(int ordinal, double[] out, int outOffset, int outStride);
+}
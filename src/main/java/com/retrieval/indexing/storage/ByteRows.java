@@ -0,0 +1,93 @@
+package com.retrieval.indexing.storage;
+
+import java.util.Arrays;
+
+/**
+ * Equal-length int8 rows stored contiguously in the segments described by
+ * {@link SegmentLayout}. Row {@code r} occupies {@code segment(r)[offset(r) .. offset(r) + dimensions)}.
+ * <p>
+ * Rows are never moved once written to a full segment, and the table of segments is
+ * replaced rather than modified when a segment is added or grown. A single writer may
+ * therefore append while other threads read rows that were published to them through a
+ * happens-before edge, such as a volatile size written after the append.
+ */
+final class ByteRows {
+    private final SegmentLayout layout;
+    private volatile byte[][] segments = new byte[0][];
+    private int size = 0;
+
+    /**
+     * @param dimensions The number of components per row.
+     */
+    ByteRows(int dimensions) {
+        this.layout = new SegmentLayout(dimensions, Byte.BYTES);
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param row The row; must have {@code dimensions} components.
+     * @return The ordinal of the row.
+     */
+    int append(byte[] row) {
+        int ordinal = reserve();
+        System.arraycopy(row, 0, segments[layout.segment(ordinal)], layout.offset(ordinal), layout.dimensions());
+        return ordinal;
+    }
+
+    /**
+     * Makes room for one more row and returns its ordinal.
+     */
+    private int reserve() {
+        int ordinal = size;
+        int segment = layout.segment(ordinal);
+        byte[][] table = segments;
+        byte[] current = segment < table.length ? table[segment] : new byte[0];
+        int length = layout.requiredLength(ordinal, current.length);
+        if (length != current.length) {
+            // Copy on write: readers holding the old table still see every row they may read
+            byte[][] replacement = Arrays.copyOf(table, Math.max(table.length, segment + 1));
+            replacement[segment] = Arrays.copyOf(current, length);
+            segments = replacement;
+        }
+        size++;
+        return ordinal;
+    }
+
+    /**
+     * @return The segment array holding the row.
+     */
+    byte[] segment(int row) {
+        return segments[layout.segment(row)];
+    }
+
+    /**
+     * @return The index of the row's first component within {@link #segment(int)}.
+     */
+    int offset(int row) {
+        return layout.offset(row);
+    }
+
+    /**
+     * @return A single component of a row.
+     */
+    byte get(int row, int dimension) {
+        return segments[layout.segment(row)][layout.offset(row) + dimension];
+    }
+
+    /**
+     * @return A new array holding a copy of the row.
+     */
+    byte[] copyRow(int row) {
+        int offset = layout.offset(row);
+        return Arrays.copyOfRange(segments[layout.segment(row)], offset, offset + layout.dimensions());
+    }
+
+    int size() {
+        return size;
+    }
+
+    int dimensions() {
+        return layout.dimensions();
+    }
+}
@@ -0,0 +1,121 @@
+package com.retrieval.indexing.storage;
+
+import java.util.Arrays;
+
+/**
+ * Equal-length double-precision rows stored contiguously in the segments described by
+ * {@link SegmentLayout}. Row {@code r} occupies {@code segment(r)[offset(r) .. offset(r) + dimensions)}.
+ * <p>
+ * Rows are never moved once written to a full segment, and the table of segments is
+ * replaced rather than modified when a segment is added or grown. A single writer may
+ * therefore append while other threads read rows that were published to them through a
+ * happens-before edge, such as a volatile size written after the append.
+ */
+final class DoubleRows {
+    private final SegmentLayout layout;
+    private volatile double[][] segments = new double[0][];
+    private int size = 0;
+
+    /**
+     * @param dimensions The number of components per row.
+     */
+    DoubleRows(int dimensions) {
+        this.layout = new SegmentLayout(dimensions, Double.BYTES);
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param row The row; must have {@code dimensions} components.
+     * @return The ordinal of the row.
+     */
+    int append(double[] row) {
+        int ordinal = reserve();
+        System.arraycopy(row, 0, segments[layout.segment(ordinal)], layout.offset(ordinal), layout.dimensions());
+        return ordinal;
+    }
+
+    /**
+     * Appends a row of a single component, e.g. to a column of per-vector norms.
+     *
+     * @param value The component.
+     * @return The ordinal of the row.
+     */
+    int append(double value) {
+        int ordinal = reserve();
+        segments[layout.segment(ordinal)][layout.offset(ordinal)] = value;
+        return ordinal;
+    }
+
+    /**
+     * Appends a single-precision row, widening it.
+     *
+     * @param row The row; must have {@code dimensions} components.
+     * @return The ordinal of the row.
+     */
+    int append(float[] row) {
+        int ordinal = reserve();
+        double[] segment = segments[layout.segment(ordinal)];
+        int offset = layout.offset(ordinal);
+        for (int i = 0; i < row.length; i++) {
+            segment[offset + i] = row[i];
+        }
+        return ordinal;
+    }
+
+    /**
+     * Makes room for one more row and returns its ordinal.
+     */
+    private int reserve() {
+        int ordinal = size;
+        int segment = layout.segment(ordinal);
+        double[][] table = segments;
+        double[] current = segment < table.length ? table[segment] : new double[0];
+        int length = layout.requiredLength(ordinal, current.length);
+        if (length != current.length) {
+            // Copy on write: readers holding the old table still see every row they may read
+            double[][] replacement = Arrays.copyOf(table, Math.max(table.length, segment + 1));
+            replacement[segment] = Arrays.copyOf(current, length);
+            segments = replacement;
+        }
+        size++;
+        return ordinal;
+    }
+
+    /**
+     * @return The segment array holding the row.
+     */
+    double[] segment(int row) {
+        return segments[layout.segment(row)];
+    }
+
+    /**
+     * @return The index of the row's first component within {@link #segment(int)}.
+     */
+    int offset(int row) {
+        return layout.offset(row);
+    }
+
+    /**
+     * @return A single component of a row.
+     */
+    double get(int row, int dimension) {
+        return segments[layout.segment(row)][layout.offset(row) + dimension];
+    }
+
+    /**
+     * @return A new array holding a copy of the row.
+     */
+    double[] copyRow(int row) {
+        int offset = layout.offset(row);
+        return Arrays.copyOfRange(segments[layout.segment(row)], offset, offset + layout.dimensions());
+    }
+
+    int size() {
+        return size;
+    }
+
+    int dimensions() {
+        return layout.dimensions();
+    }
+}
@@ -0,0 +1,70 @@
+package com.retrieval.indexing.storage;
+
+import com.retrieval.models.ImageFeature;
+import com.retrieval.models.VectorPrecision;
+import com.retrieval.utils.DimensionOrder;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.FeatureUtils;
+import com.retrieval.utils.PreparedBatch;
+import com.retrieval.utils.PreparedQuery;
+
+/**
+ * Stores vectors in double precision, copied into contiguous row-major segments with a
+ * parallel ordinal-to-id table, so that a scan over consecutive ordinals reads memory
+ * sequentially instead of following a reference to each vector. The original
+ * {@link ImageFeature} objects are not retained: {@link #getFeature(int)} materializes a
+ * new feature from the stored values.
+ * <p>
+ * The store is append-only and supports lock-free {@link #snapshot() snapshots}.
+ */
+public class DoubleVectorStore extends AppendOnlyVectorStore<DoubleRows> {
+
+    @Override
+    public VectorPrecision getPrecision() {
+        return VectorPrecision.FLOAT64;
+    }
+
+    @Override
+    DoubleRows createRows(int dimensions) {
+        return new DoubleRows(dimensions);
+    }
+
+    @Override
+    double appendRow(DoubleRows rows, double[] vector) {
+        rows.append(vector);
+        return FeatureUtils.l2Norm(vector);
+    }
+
+    @Override
+    double appendRow(DoubleRows rows, float[] vector) {
+        rows.append(vector);
+        return FeatureUtils.l2Norm(vector);
+    }
+
+    @Override
+    double[] copyRow(DoubleRows rows, int ordinal) {
+        return rows.copyRow(ordinal);
+    }
+
+    @Override
+    double valueAt(DoubleRows rows, int ordinal, int dimension) {
+        return rows.get(ordinal, dimension);
+    }
+
+    @Override
+    double surrogateDistance(DoubleRows rows, DistanceMetric metric, PreparedQuery query, int ordinal, double norm) {
+        return metric.surrogate(query, rows.segment(ordinal), rows.offset(ordinal), norm);
+    }
+
+    @Override
+    double boundedSurrogate(DoubleRows rows, DistanceMetric metric, PreparedQuery query, int ordinal, double norm,
+                            DimensionOrder order, double bound) {
+        return metric.boundedSurrogate(query, rows.segment(ordinal), rows.offset(ordinal), norm, order, bound);
+    }
+
+    @Override
+    void surrogates(DoubleRows rows, DistanceMetric metric, PreparedBatch batch, int ordinal, double norm,
+                    double[] out, int outOffset, int outStride) {
+        metric.surrogates(batch, rows.segment(ordinal), rows.offset(ordinal), norm, out, outOffset, outStride);
+    }
+}
@@ -0,0 +1,93 @@
+package com.retrieval.indexing.storage;
+
+import java.util.Arrays;
+
+/**
+ * Equal-length single-precision rows stored contiguously in the segments described by
+ * {@link SegmentLayout}. Row {@code r} occupies {@code segment(r)[offset(r) .. offset(r) + dimensions)}.
+ * <p>
+ * Rows are never moved once written to a full segment, and the table of segments is
+ * replaced rather than modified when a segment is added or grown. A single writer may
+ * therefore append while other threads read rows that were published to them through a
+ * happens-before edge, such as a volatile size written after the append.
+ */
+final class FloatRows {
+    private final SegmentLayout layout;
+    private volatile float[][] segments = new float[0][];
+    private int size = 0;
+
+    /**
+     * @param dimensions The number of components per row.
+     */
+    FloatRows(int dimensions) {
+        this.layout = new SegmentLayout(dimensions, Float.BYTES);
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param row The row; must have {@code dimensions} components.
+     * @return The ordinal of the row.
+     */
+    int append(float[] row) {
+        int ordinal = reserve();
+        System.arraycopy(row, 0, segments[layout.segment(ordinal)], layout.offset(ordinal), layout.dimensions());
+        return ordinal;
+    }
+
+    /**
+     * Makes room for one more row and returns its ordinal.
+     */
+    private int reserve() {
+        int ordinal = size;
+        int segment = layout.segment(ordinal);
+        float[][] table = segments;
+        float[] current = segment < table.length ? table[segment] : new float[0];
+        int length = layout.requiredLength(ordinal, current.length);
+        if (length != current.length) {
+            // Copy on write: readers holding the old table still see every row they may read
+            float[][] replacement = Arrays.copyOf(table, Math.max(table.length, segment + 1));
+            replacement[segment] = Arrays.copyOf(current, length);
+            segments = replacement;
+        }
+        size++;
+        return ordinal;
+    }
+
+    /**
+     * @return The segment array holding the row.
+     */
+    float[] segment(int row) {
+        return segments[layout.segment(row)];
+    }
+
+    /**
+     * @return The index of the row's first component within {@link #segment(int)}.
+     */
+    int offset(int row) {
+        return layout.offset(row);
+    }
+
+    /**
+     * @return A single component of a row.
+     */
+    float get(int row, int dimension) {
+        return segments[layout.segment(row)][layout.offset(row) + dimension];
+    }
+
+    /**
+     * @return A new array holding a copy of the row.
+     */
+    float[] copyRow(int row) {
+        int offset = layout.offset(row);
+        return Arrays.copyOfRange(segments[layout.segment(row)], offset, offset + layout.dimensions());
+    }
+
+    int size() {
+        return size;
+    }
+
+    int dimensions() {
+        return layout.dimensions();
+    }
+}
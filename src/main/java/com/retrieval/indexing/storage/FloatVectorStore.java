@@ -0,0 +1,68 @@
+package com.retrieval.indexing.storage;
+
+import com.retrieval.models.ImageFeature;
+import com.retrieval.models.VectorPrecision;
+import com.retrieval.utils.DimensionOrder;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.FeatureUtils;
+import com.retrieval.utils.PreparedBatch;
+import com.retrieval.utils.PreparedQuery;
+
+/**
+ * Stores vectors as single-precision floats, halving the memory of each vector, in the
+ * same contiguous row-major segments as {@link DoubleVectorStore}. The original
+ * {@link ImageFeature} objects are not retained: {@link #getFeature(int)} materializes a
+ * new feature from the stored floats. Distances are accumulated in double precision.
+ * <p>
+ * The store is append-only and supports lock-free {@link #snapshot() snapshots}.
+ */
+public class FloatVectorStore extends AppendOnlyVectorStore<FloatRows> {
+
+    @Override
+    public VectorPrecision getPrecision() {
+        return VectorPrecision.FLOAT32;
+    }
+
+    @Override
+    FloatRows createRows(int dimensions) {
+        return new FloatRows(dimensions);
+    }
+
+    @Override
+    double appendRow(FloatRows rows, double[] vector) {
+        return appendRow(rows, FeatureUtils.toFloatArray(vector));
+    }
+
+    @Override
+    double appendRow(FloatRows rows, float[] vector) {
+        rows.append(vector);
+        return FeatureUtils.l2Norm(vector);
+    }
+
+    @Override
+    double[] copyRow(FloatRows rows, int ordinal) {
+        return FeatureUtils.toDoubleArray(rows.copyRow(ordinal));
+    }
+
+    @Override
+    double valueAt(FloatRows rows, int ordinal, int dimension) {
+        return rows.get(ordinal, dimension);
+    }
+
+    @Override
+    double surrogateDistance(FloatRows rows, DistanceMetric metric, PreparedQuery query, int ordinal, double norm) {
+        return metric.surrogate(query, rows.segment(ordinal), rows.offset(ordinal), norm);
+    }
+
+    @Override
+    double boundedSurrogate(FloatRows rows, DistanceMetric metric, PreparedQuery query, int ordinal, double norm,
+                            DimensionOrder order, double bound) {
+        return metric.boundedSurrogate(query, rows.segment(ordinal), rows.offset(ordinal), norm, order, bound);
+    }
+
+    @Override
+    void surrogates(FloatRows rows, DistanceMetric metric, PreparedBatch batch, int ordinal, double norm,
+                    double[] out, int outOffset, int outStride) {
+        metric.surrogates(batch, rows.segment(ordinal), rows.offset(ordinal), norm, out, outOffset, outStride);
+    }
+}
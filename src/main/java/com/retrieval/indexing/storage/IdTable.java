@@ -0,0 +1,45 @@
+package com.retrieval.indexing.storage;
+
+import java.util.Arrays;
+
+/**
+ * Append-only ordinal-to-id table stored in fixed-size chunks, with the same publication
+ * rules as the row stores: chunks are never moved, and the chunk table is replaced rather
+ * than modified, so a single writer may append while other threads read ids that were
+ * published to them.
+ */
+final class IdTable {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private volatile String[][] chunks = new String[0][];
+    private int size = 0;
+
+    /**
+     * @param id The id to append.
+     * @return The ordinal of the id.
+     */
+    int append(String id) {
+        int ordinal = size;
+        int chunk = ordinal >>> CHUNK_SHIFT;
+        String[][] table = chunks;
+        if (chunk == table.length) {
+            String[][] replacement = Arrays.copyOf(table, chunk + 1);
+            replacement[chunk] = new String[1 << CHUNK_SHIFT];
+            replacement[chunk][0] = id;
+            chunks = replacement;
+        } else {
+            table[chunk][ordinal & CHUNK_MASK] = id;
+        }
+        size++;
+        return ordinal;
+    }
+
+    /**
+     * @param ordinal The ordinal of a published id.
+     * @return The id.
+     */
+    String get(int ordinal) {
+        return chunks[ordinal >>> CHUNK_SHIFT][ordinal & CHUNK_MASK];
+    }
+}
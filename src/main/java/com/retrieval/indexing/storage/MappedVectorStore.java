@@ -0,0 +1,311 @@
+package com.retrieval.indexing.storage;
+
+import com.retrieval.models.ImageFeature;
+import com.retrieval.models.VectorPrecision;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.PreparedBatch;
+import com.retrieval.utils.PreparedQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A read-only store over a vector file written by {@link MappedVectorStoreWriter}, memory-mapped
+ * with {@link FileChannel#map} so that vectors, norms and image ids all live outside the Java
+ * heap. The operating system's page cache decides which parts of the file are resident, and
+ * several JVMs on the same host that open the same file share those pages.
+ * <p>
+ * The file is mapped in chunks of at most {@value #CHUNK_BYTES} bytes, each holding a
+ * power-of-two number of whole rows. Distances are computed by copying one row at a time
+ * into a per-thread buffer, so the existing metric kernels apply unchanged.
+ * <p>
+ * A search can scan the store in place, e.g. {@code new DeepMetricSearch(MappedVectorStore.open(path), metric)}.
+ * Because the store is read-only, {@code buildIndex}, {@code insert} and {@code clear} on
+ * such a search throw {@link UnsupportedOperationException}; new vectors are added by
+ * writing a new file. Only {@link VectorPrecision#FLOAT32} and {@link VectorPrecision#FLOAT64}
+ * files are supported.
+ * <p>
+ * File layout, little-endian: a {@value #HEADER_BYTES}-byte header, the row-major vectors,
+ * one {@code double} norm per vector, {@code size + 1} {@code long} offsets into the id
+ * section, and the UTF-8 bytes of the image ids.
+ */
+public class MappedVectorStore implements VectorStore {
+    private static final Logger log = LoggerFactory.getLogger(MappedVectorStore.class);
+
+    static final int MAGIC = 0x56535431; // "VST1"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int FLAG_UNIT_NORMALIZED = 1;
+
+    // Upper bound on the size of a single mapping; also keeps element indexes within int range
+    static final int CHUNK_BYTES = 1 << 30;
+
+    private final VectorPrecision precision;
+    private final int dimensions;
+    private final int size;
+    private final boolean unitNormalized;
+    private final SegmentLayout layout;
+    private final FloatBuffer[] floatChunks;
+    private final DoubleBuffer[] doubleChunks;
+    private final DoubleBuffer[] normChunks;
+    private final ByteBuffer[] idOffsetChunks;
+    private final ByteBuffer[] idChunks;
+    private final ThreadLocal<float[]> floatScratch;
+    private final ThreadLocal<double[]> doubleScratch;
+
+    private MappedVectorStore(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a vector store file: " + path);
+        }
+        int version = header.getInt(4);
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported vector store format version " + version + " in " + path);
+        }
+        this.precision = precisionFromCode(header.getInt(8), path);
+        this.dimensions = header.getInt(12);
+        this.size = header.getInt(16);
+        this.unitNormalized = (header.getInt(20) & FLAG_UNIT_NORMALIZED) != 0;
+        long normsOffset = header.getLong(24);
+        long idOffsetsOffset = header.getLong(32);
+        long idBytesOffset = header.getLong(40);
+        long fileLength = header.getLong(48);
+        if (dimensions <= 0 || size < 0 || fileLength != channel.size()) {
+            throw new IOException("Corrupt or truncated vector store file: " + path);
+        }
+
+        int bytesPerComponent = precision.getBytesPerComponent();
+        this.layout = new SegmentLayout(dimensions, bytesPerComponent, CHUNK_BYTES);
+        long rowBytes = (long) dimensions * bytesPerComponent;
+        long chunkBytes = layout.rowsPerSegment() * rowBytes;
+        ByteBuffer[] vectorChunks = map(channel, HEADER_BYTES, size * rowBytes, chunkBytes);
+        if (precision == VectorPrecision.FLOAT32) {
+            this.floatChunks = new FloatBuffer[vectorChunks.length];
+            for (int i = 0; i < vectorChunks.length; i++) {
+                floatChunks[i] = vectorChunks[i].asFloatBuffer();
+            }
+            this.doubleChunks = null;
+        } else {
+            this.doubleChunks = new DoubleBuffer[vectorChunks.length];
+            for (int i = 0; i < vectorChunks.length; i++) {
+                doubleChunks[i] = vectorChunks[i].asDoubleBuffer();
+            }
+            this.floatChunks = null;
+        }
+
+        ByteBuffer[] norms = map(channel, normsOffset, (long) size * Double.BYTES, CHUNK_BYTES);
+        this.normChunks = new DoubleBuffer[norms.length];
+        for (int i = 0; i < norms.length; i++) {
+            normChunks[i] = norms[i].asDoubleBuffer();
+        }
+        this.idOffsetChunks = map(channel, idOffsetsOffset, (size + 1L) * Long.BYTES, CHUNK_BYTES);
+        this.idChunks = map(channel, idBytesOffset, fileLength - idBytesOffset, CHUNK_BYTES);
+
+        this.floatScratch = ThreadLocal.withInitial(() -> new float[dimensions]);
+        this.doubleScratch = ThreadLocal.withInitial(() -> new double[dimensions]);
+    }
+
+    /**
+     * Maps a vector file read-only. The file must not be modified while it is mapped.
+     *
+     * @param path The file written by {@link MappedVectorStoreWriter}.
+     * @return The store.
+     * @throws IOException if the file cannot be read or is not a valid vector file
+     */
+    public static MappedVectorStore open(Path path) throws IOException {
+        // Mappings remain valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedVectorStore store = new MappedVectorStore(channel, path);
+            log.info("Mapped {} {} vectors of {} dimensions from {}",
+                    store.size, store.precision, store.dimensions, path);
+            return store;
+        }
+    }
+
+    /**
+     * Maps a region of the file as consecutive little-endian chunks of {@code chunkBytes}.
+     */
+    private static ByteBuffer[] map(FileChannel channel, long position, long length, long chunkBytes)
+            throws IOException {
+        int count = (int) ((length + chunkBytes - 1) / chunkBytes);
+        ByteBuffer[] chunks = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long offset = i * chunkBytes;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + offset, Math.min(chunkBytes, length - offset))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return chunks;
+    }
+
+    static int precisionCode(VectorPrecision precision) {
+        return switch (precision) {
+            case FLOAT32 -> 1;
+            case FLOAT64 -> 2;
+            default -> throw new IllegalArgumentException("Mapped vector stores support FLOAT32 and FLOAT64, not " + precision);
+        };
+    }
+
+    private static VectorPrecision precisionFromCode(int code, Path path) throws IOException {
+        return switch (code) {
+            case 1 -> VectorPrecision.FLOAT32;
+            case 2 -> VectorPrecision.FLOAT64;
+            default -> throw new IOException("Unknown vector precision " + code + " in " + path);
+        };
+    }
+
+    @Override
+    public VectorPrecision getPrecision() {
+        return precision;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getDimensions() {
+        return size == 0 ? 0 : dimensions;
+    }
+
+    @Override
+    public int add(ImageFeature feature) {
+        throw new UnsupportedOperationException("Mapped vector stores are read-only");
+    }
+
+    @Override
+    public int add(String imageId, float[] vector) {
+        throw new UnsupportedOperationException("Mapped vector stores are read-only");
+    }
+
+    @Override
+    public void addAll(List<ImageFeature> features) {
+        throw new UnsupportedOperationException("Mapped vector stores are read-only");
+    }
+
+    @Override
+    public String getImageId(int ordinal) {
+        checkOrdinal(ordinal);
+        long start = idOffset(ordinal);
+        byte[] bytes = new byte[(int) (idOffset(ordinal + 1) - start)];
+        int copied = 0;
+        while (copied < bytes.length) {
+            long position = start + copied;
+            ByteBuffer chunk = idChunks[(int) (position / CHUNK_BYTES)];
+            int offset = (int) (position % CHUNK_BYTES);
+            int length = Math.min(bytes.length - copied, chunk.limit() - offset);
+            chunk.get(offset, bytes, copied, length);
+            copied += length;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long idOffset(int index) {
+        long position = (long) index * Long.BYTES;
+        return idOffsetChunks[(int) (position / CHUNK_BYTES)].getLong((int) (position % CHUNK_BYTES));
+    }
+
+    @Override
+    public ImageFeature getFeature(int ordinal) {
+        return new ImageFeature(getImageId(ordinal), getVector(ordinal));
+    }
+
+    @Override
+    public double[] getVector(int ordinal) {
+        checkOrdinal(ordinal);
+        double[] vector = new double[dimensions];
+        if (floatChunks != null) {
+            float[] row = readRow(ordinal, new float[dimensions]);
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = row[i];
+            }
+        } else {
+            readRow(ordinal, vector);
+        }
+        return vector;
+    }
+
+    @Override
+    public double valueAt(int ordinal, int dimension) {
+        int offset = layout.offset(ordinal) + dimension;
+        return floatChunks != null
+                ? floatChunks[layout.segment(ordinal)].get(offset)
+                : doubleChunks[layout.segment(ordinal)].get(offset);
+    }
+
+    @Override
+    public double getNorm(int ordinal) {
+        long index = ordinal;
+        int perChunk = CHUNK_BYTES / Double.BYTES;
+        return normChunks[(int) (index / perChunk)].get((int) (index % perChunk));
+    }
+
+    @Override
+    public boolean isUnitNormalized() {
+        return unitNormalized;
+    }
+
+    @Override
+    public double surrogateDistance(DistanceMetric metric, PreparedQuery query, int ordinal) {
+        double norm = unitNormalized ? 1.0 : getNorm(ordinal);
+        if (floatChunks != null) {
+            return metric.surrogate(query, readRow(ordinal, floatScratch.get()), 0, norm);
+        }
+        return metric.surrogate(query, readRow(ordinal, doubleScratch.get()), 0, norm);
+    }
+
+    @Override
+    public BatchScorer batchScorer(DistanceMetric metric, PreparedBatch batch) {
+        if (size > 0 && batch.getDimensions() != dimensions) {
+            throw new IllegalArgumentException(
+                    String.format("Vector dimensions must match: %d vs %d", batch.getDimensions(), dimensions));
+        }
+        return (ordinal, out, outOffset, outStride) -> {
+            double norm = unitNormalized ? 1.0 : getNorm(ordinal);
+            if (floatChunks != null) {
+                metric.surrogates(batch, readRow(ordinal, floatScratch.get()), 0, norm, out, outOffset, outStride);
+            } else {
+                metric.surrogates(batch, readRow(ordinal, doubleScratch.get()), 0, norm, out, outOffset, outStride);
+            }
+        };
+    }
+
+    private float[] readRow(int ordinal, float[] row) {
+        floatChunks[layout.segment(ordinal)].get(layout.offset(ordinal), row, 0, dimensions);
+        return row;
+    }
+
+    private double[] readRow(int ordinal, double[] row) {
+        doubleChunks[layout.segment(ordinal)].get(layout.offset(ordinal), row, 0, dimensions);
+        return row;
+    }
+
+    /**
+     * The store is immutable, so it is its own snapshot.
+     */
+    @Override
+    public VectorStore snapshot() {
+        return this;
+    }
+
+    private void checkOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("Ordinal " + ordinal + " out of range for size " + size);
+        }
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Mapped vector stores are read-only");
+    }
+}
@@ -0,0 +1,287 @@
+package com.retrieval.indexing.storage;
+
+import com.retrieval.models.ImageFeature;
+import com.retrieval.models.VectorPrecision;
+import com.retrieval.utils.FeatureUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the file read by {@link MappedVectorStore}, streaming vectors to disk as they are
+ * added so that a corpus larger than the heap can be written. Norms and image ids are
+ * spilled to temporary files next to the target and appended when the writer is closed;
+ * the header is written last, so a file from an interrupted write is rejected on open.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class MappedVectorStoreWriter implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MappedVectorStoreWriter.class);
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final Path path;
+    private final VectorPrecision precision;
+    private final int dimensions;
+    private final FileChannel channel;
+    private final Spill norms;
+    private final Spill idOffsets;
+    private final Spill ids;
+    private final ByteBuffer rows;
+    private int size = 0;
+    private long idBytes = 0;
+    private boolean unitNormalized = true;
+    private boolean closed = false;
+
+    /**
+     * Creates the file, replacing any existing one.
+     *
+     * @param path       The file to write.
+     * @param precision  {@link VectorPrecision#FLOAT32} or {@link VectorPrecision#FLOAT64}.
+     * @param dimensions The dimensionality of the vectors.
+     * @throws IOException if the file cannot be created
+     * @throws IllegalArgumentException if the precision is not supported or dimensions is not positive
+     */
+    public MappedVectorStoreWriter(Path path, VectorPrecision precision, int dimensions) throws IOException {
+        if (path == null || precision == null) {
+            throw new IllegalArgumentException("Path and precision cannot be null");
+        }
+        MappedVectorStore.precisionCode(precision);
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("Dimensions must be positive");
+        }
+        long rowBytes = (long) dimensions * precision.getBytesPerComponent();
+        if (rowBytes > MappedVectorStore.CHUNK_BYTES) {
+            throw new IllegalArgumentException("Vectors of " + dimensions + " dimensions exceed the mapping size");
+        }
+        this.path = path;
+        this.precision = precision;
+        this.dimensions = dimensions;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.channel.position(MappedVectorStore.HEADER_BYTES);
+        this.rows = ByteBuffer.allocate((int) Math.max(rowBytes, BUFFER_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        this.norms = new Spill(path, ".norms");
+        this.idOffsets = new Spill(path, ".offsets");
+        this.ids = new Spill(path, ".ids");
+        idOffsets.buffer().putLong(0L);
+    }
+
+    /**
+     * Writes every vector of an existing store to a new file.
+     *
+     * @param path      The file to write.
+     * @param source    The store to copy, in ordinal order.
+     * @param precision The precision of the written vectors.
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, VectorStore source, VectorPrecision precision) throws IOException {
+        if (source == null || source.size() == 0) {
+            throw new IllegalArgumentException("Source store cannot be null or empty");
+        }
+        try (MappedVectorStoreWriter writer = new MappedVectorStoreWriter(path, precision, source.getDimensions())) {
+            for (int ordinal = 0; ordinal < source.size(); ordinal++) {
+                writer.add(source.getImageId(ordinal), source.getVector(ordinal));
+            }
+        }
+    }
+
+    /**
+     * Appends a feature.
+     *
+     * @param feature The feature to add.
+     * @return The ordinal the vector will have in the mapped store.
+     * @throws IOException if the file cannot be written
+     */
+    public int add(ImageFeature feature) throws IOException {
+        if (feature == null) {
+            throw new IllegalArgumentException("Feature cannot be null");
+        }
+        return add(feature.getImageId(), feature.getFeatureVector());
+    }
+
+    /**
+     * Appends a double-precision vector.
+     *
+     * @param imageId The image identifier.
+     * @param vector  The feature vector.
+     * @return The ordinal the vector will have in the mapped store.
+     * @throws IOException if the file cannot be written
+     */
+    public int add(String imageId, double[] vector) throws IOException {
+        StoreChecks.checkDimensions(vector, dimensions, 1);
+        ensureRowSpace();
+        if (precision == VectorPrecision.FLOAT32) {
+            for (double value : vector) {
+                rows.putFloat((float) value);
+            }
+            return appendMetadata(imageId, FeatureUtils.l2Norm(FeatureUtils.toFloatArray(vector)));
+        }
+        for (double value : vector) {
+            rows.putDouble(value);
+        }
+        return appendMetadata(imageId, FeatureUtils.l2Norm(vector));
+    }
+
+    /**
+     * Appends a single-precision vector.
+     *
+     * @param imageId The image identifier.
+     * @param vector  The feature vector.
+     * @return The ordinal the vector will have in the mapped store.
+     * @throws IOException if the file cannot be written
+     */
+    public int add(String imageId, float[] vector) throws IOException {
+        StoreChecks.checkDimensions(vector, dimensions, 1);
+        ensureRowSpace();
+        if (precision == VectorPrecision.FLOAT32) {
+            for (float value : vector) {
+                rows.putFloat(value);
+            }
+        } else {
+            for (float value : vector) {
+                rows.putDouble(value);
+            }
+        }
+        return appendMetadata(imageId, FeatureUtils.l2Norm(vector));
+    }
+
+    private void ensureRowSpace() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        if (size == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Vector store is full");
+        }
+        if (rows.remaining() < dimensions * precision.getBytesPerComponent()) {
+            drain(rows, channel);
+        }
+    }
+
+    private int appendMetadata(String imageId, double norm) throws IOException {
+        byte[] id = (imageId == null ? "" : imageId).getBytes(StandardCharsets.UTF_8);
+        ids.write(id);
+        idBytes += id.length;
+        idOffsets.reserve(Long.BYTES).putLong(idBytes);
+        norms.reserve(Double.BYTES).putDouble(norm);
+        if (Math.abs(norm - 1.0) > StoreChecks.UNIT_NORM_TOLERANCE) {
+            unitNormalized = false;
+        }
+        return size++;
+    }
+
+    /**
+     * Appends the norms and ids, writes the header and forces the file to disk.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            drain(rows, channel);
+            long normsOffset = channel.position();
+            norms.appendTo(channel);
+            long idOffsetsOffset = channel.position();
+            idOffsets.appendTo(channel);
+            long idBytesOffset = channel.position();
+            ids.appendTo(channel);
+            long fileLength = channel.position();
+
+            ByteBuffer header = ByteBuffer.allocate(MappedVectorStore.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MappedVectorStore.MAGIC)
+                    .putInt(MappedVectorStore.FORMAT_VERSION)
+                    .putInt(MappedVectorStore.precisionCode(precision))
+                    .putInt(dimensions)
+                    .putInt(size)
+                    .putInt(unitNormalized ? MappedVectorStore.FLAG_UNIT_NORMALIZED : 0)
+                    .putLong(normsOffset)
+                    .putLong(idOffsetsOffset)
+                    .putLong(idBytesOffset)
+                    .putLong(fileLength);
+            header.clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            log.info("Wrote {} {} vectors of {} dimensions to {}", size, precision, dimensions, path);
+        } finally {
+            channel.close();
+            norms.delete();
+            idOffsets.delete();
+            ids.delete();
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel target) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * A buffered temporary file holding one section until it is appended to the target.
+     */
+    private static final class Spill {
+        private final Path file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        Spill(Path target, String suffix) throws IOException {
+            this.file = target.resolveSibling(target.getFileName() + suffix + ".tmp");
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        ByteBuffer reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain(buffer, channel);
+            }
+            return buffer;
+        }
+
+        void write(byte[] bytes) throws IOException {
+            int written = 0;
+            while (written < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    drain(buffer, channel);
+                }
+                int length = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, length);
+                written += length;
+            }
+        }
+
+        void appendTo(FileChannel target) throws IOException {
+            drain(buffer, channel);
+            long length = channel.size();
+            long transferred = 0;
+            while (transferred < length) {
+                transferred += channel.transferTo(transferred, length - transferred, target);
+            }
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package com.retrieval.indexing.storage;
+
+import com.retrieval.models.ImageFeature;
+import com.retrieval.models.VectorPrecision;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.DistanceMetrics;
+import com.retrieval.utils.FeatureUtils;
+import com.retrieval.utils.PreparedQuery;
+import com.retrieval.utils.Tombstones;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Stores vectors as int8 codes from per-dimension scalar quantization, one byte per
+ * component. The quantizer is trained on a random sample of the first batch passed to
+ * {@link #addAll(List)}, or on the first {@code sampleSize} vectors added one at a time;
+ * until then vectors are held as floats and compared exactly.
+ * <p>
+ * {@link #scorer} ranks Euclidean, cosine and inner-product distances with an integer
+ * dot product between the codes and a quantized query, so results are approximate. When
+ * the store is created with {@code keepOriginals}, single-precision copies of the vectors
+ * are retained and {@link #rerankScorer} recomputes exact distances for the final
+ * candidates, at the cost of 4 extra bytes per component.
+ * <p>
+ * {@link #getVector(int)}, {@link #valueAt(int, int)} and {@link #surrogateDistance} use
+ * the decoded vectors, so tree builders see the same points the scorer ranks.
+ */
+public class QuantizedVectorStore implements VectorStore {
+    private static final Logger log = LoggerFactory.getLogger(QuantizedVectorStore.class);
+
+    /**
+     * Default number of vectors the per-dimension ranges are learned from.
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 10_000;
+
+    /**
+     * Default factor by which searches over-fetch approximate candidates for reranking.
+     */
+    public static final int DEFAULT_RERANK_FACTOR = 4;
+
+    private final int sampleSize;
+    private final boolean keepOriginals;
+    private final int rerankFactor;
+
+    private final List<String> imageIds = new ArrayList<>();
+    private ByteRows codes; // Contiguous int8 codes, once the quantizer is trained
+    private final ArrayList<float[]> originals = new ArrayList<>();
+    private double[] norms = new double[16];
+    private double[] originalNorms = new double[16];
+    private boolean unitNormalized = true;
+    private int dimensions = 0;
+    private ScalarQuantizer quantizer;
+    private Tombstones deleted = new Tombstones();
+
+    /**
+     * Creates a store with the default sample size that does not keep the original vectors.
+     */
+    public QuantizedVectorStore() {
+        this(DEFAULT_SAMPLE_SIZE, false, DEFAULT_RERANK_FACTOR);
+    }
+
+    /**
+     * @param sampleSize    The number of vectors the quantizer is trained on.
+     * @param keepOriginals Whether to keep single-precision copies for exact reranking.
+     * @param rerankFactor  How many times k approximate candidates a search should collect
+     *                      before reranking; ignored unless keepOriginals is set.
+     */
+    public QuantizedVectorStore(int sampleSize, boolean keepOriginals, int rerankFactor) {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("Sample size must be positive");
+        }
+        if (rerankFactor < 1) {
+            throw new IllegalArgumentException("Rerank factor must be at least 1");
+        }
+        this.sampleSize = sampleSize;
+        this.keepOriginals = keepOriginals;
+        this.rerankFactor = rerankFactor;
+    }
+
+    @Override
+    public VectorPrecision getPrecision() {
+        return VectorPrecision.INT8;
+    }
+
+    @Override
+    public int size() {
+        return imageIds.size();
+    }
+
+    @Override
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return true once the quantizer has been trained and vectors are held as codes.
+     */
+    public boolean isTrained() {
+        return quantizer != null;
+    }
+
+    @Override
+    public int add(ImageFeature feature) {
+        if (feature == null) {
+            throw new IllegalArgumentException("Feature cannot be null");
+        }
+        dimensions = StoreChecks.checkDimensions(feature.getFeatureVector(), dimensions, size());
+        int ordinal = append(feature.getImageId(), FeatureUtils.toFloatArray(feature.getFeatureVector()));
+        if (quantizer == null && size() >= sampleSize) {
+            train(originals);
+        }
+        return ordinal;
+    }
+
+    @Override
+    public int add(String imageId, float[] vector) {
+        dimensions = StoreChecks.checkDimensions(vector, dimensions, size());
+        int ordinal = append(imageId, vector.clone());
+        if (quantizer == null && size() >= sampleSize) {
+            train(originals);
+        }
+        return ordinal;
+    }
+
+    /**
+     * Adds a batch of features. If the quantizer has not been trained yet, it is trained
+     * on a random sample of everything added so far, so that the first batch determines
+     * the ranges rather than its first {@code sampleSize} vectors.
+     */
+    @Override
+    public void addAll(List<ImageFeature> features) {
+        for (ImageFeature feature : features) {
+            if (feature == null) {
+                throw new IllegalArgumentException("Feature cannot be null");
+            }
+            dimensions = StoreChecks.checkDimensions(feature.getFeatureVector(), dimensions, size());
+            append(feature.getImageId(), FeatureUtils.toFloatArray(feature.getFeatureVector()));
+        }
+        if (quantizer == null && size() > 0) {
+            List<float[]> sample = originals;
+            if (sample.size() > sampleSize) {
+                sample = new ArrayList<>(originals);
+                Collections.shuffle(sample, new Random(sample.size()));
+                sample = sample.subList(0, sampleSize);
+            }
+            train(sample);
+        }
+    }
+
+    private int append(String imageId, float[] vector) {
+        imageIds.add(imageId);
+        int ordinal = imageIds.size() - 1;
+        double norm = FeatureUtils.l2Norm(vector);
+        if (quantizer == null || keepOriginals) {
+            originals.add(vector);
+            originalNorms = StoreChecks.append(originalNorms, ordinal, norm);
+        }
+        if (quantizer == null) {
+            recordNorm(ordinal, norm);
+        } else {
+            codes.append(quantizer.encode(vector));
+            recordNorm(ordinal, FeatureUtils.l2Norm(decode(ordinal)));
+        }
+        return ordinal;
+    }
+
+    /**
+     * Learns the ranges from the sample and re-encodes every vector added so far.
+     */
+    private void train(List<float[]> sample) {
+        int sampled = sample.size();
+        quantizer = ScalarQuantizer.train(sample, dimensions);
+        codes = new ByteRows(dimensions);
+        unitNormalized = true;
+        for (int ordinal = 0; ordinal < originals.size(); ordinal++) {
+            codes.append(quantizer.encode(originals.get(ordinal)));
+            recordNorm(ordinal, FeatureUtils.l2Norm(decode(ordinal)));
+        }
+        if (!keepOriginals) {
+            originals.clear();
+            originals.trimToSize();
+        }
+        log.info("Trained int8 quantizer on {} of {} vectors ({} dimensions)",
+                sampled, size(), dimensions);
+    }
+
+    @Override
+    public String getImageId(int ordinal) {
+        return imageIds.get(ordinal);
+    }
+
+    /**
+     * Returns the original vector when it is retained, otherwise the decoded one.
+     */
+    @Override
+    public ImageFeature getFeature(int ordinal) {
+        double[] vector = quantizer == null || keepOriginals
+                ? FeatureUtils.toDoubleArray(originals.get(ordinal))
+                : decode(ordinal);
+        return new ImageFeature(imageIds.get(ordinal), vector);
+    }
+
+    @Override
+    public double[] getVector(int ordinal) {
+        return quantizer == null
+                ? FeatureUtils.toDoubleArray(originals.get(ordinal))
+                : decode(ordinal);
+    }
+
+    private double[] decode(int ordinal) {
+        return quantizer.decode(codes.segment(ordinal), codes.offset(ordinal));
+    }
+
+    @Override
+    public double valueAt(int ordinal, int dimension) {
+        return quantizer == null
+                ? originals.get(ordinal)[dimension]
+                : quantizer.decode(codes.segment(ordinal), codes.offset(ordinal), dimension);
+    }
+
+    @Override
+    public double getNorm(int ordinal) {
+        return norms[ordinal];
+    }
+
+    @Override
+    public boolean isUnitNormalized() {
+        return unitNormalized;
+    }
+
+    /**
+     * Computes the surrogate distance to the decoded vector in floating point. This is
+     * exact with respect to the stored representation but slower than {@link #scorer}.
+     */
+    @Override
+    public double surrogateDistance(DistanceMetric metric, PreparedQuery query, int ordinal) {
+        if (quantizer == null) {
+            return metric.surrogate(query, originals.get(ordinal), 0, norms[ordinal]);
+        }
+        return metric.surrogate(query, decode(ordinal), 0, norms[ordinal]);
+    }
+
+    @Override
+    public QueryScorer scorer(DistanceMetric metric, PreparedQuery query) {
+        checkQuery(query);
+        if (quantizer == null) {
+            return ordinal -> surrogateDistance(metric, query, ordinal);
+        }
+        double[] storedNorms = norms;
+        if (metric == DistanceMetrics.EUCLIDEAN) {
+            double querySquare = query.getNorm() * query.getNorm();
+            ScalarQuantizer.QuantizedQuery quantized = quantizer.prepare(query.getVector());
+            return ordinal -> {
+                double norm = storedNorms[ordinal];
+                return querySquare + norm * norm - 2.0 * dot(quantized, ordinal);
+            };
+        }
+        if (metric == DistanceMetrics.INNER_PRODUCT) {
+            ScalarQuantizer.QuantizedQuery quantized = quantizer.prepare(query.getVector());
+            return ordinal -> -dot(quantized, ordinal);
+        }
+        if (metric == DistanceMetrics.COSINE) {
+            if (!query.hasDirection()) {
+                return ordinal -> 0.0;
+            }
+            ScalarQuantizer.QuantizedQuery quantized = quantizer.prepare(query.getNormalized());
+            return ordinal -> {
+                double norm = storedNorms[ordinal];
+                return norm < PreparedQuery.MIN_NORM ? 0.0 : -dot(quantized, ordinal) / norm;
+            };
+        }
+        // Metrics that are not derived from dot products are evaluated on the decoded vectors
+        return ordinal -> surrogateDistance(metric, query, ordinal);
+    }
+
+    private double dot(ScalarQuantizer.QuantizedQuery quantized, int ordinal) {
+        return quantized.offset() + quantized.alpha()
+                * FeatureUtils.dotProduct(quantized.codes(), 0, codes.segment(ordinal), codes.offset(ordinal), dimensions);
+    }
+
+    @Override
+    public QueryScorer rerankScorer(DistanceMetric metric, PreparedQuery query) {
+        if (quantizer == null || !keepOriginals) {
+            return null;
+        }
+        double[] exactNorms = originalNorms;
+        return ordinal -> metric.surrogate(query, originals.get(ordinal), 0, exactNorms[ordinal]);
+    }
+
+    @Override
+    public int candidatePoolSize(int k) {
+        if (quantizer == null || !keepOriginals) {
+            return k;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (long) k * rerankFactor);
+    }
+
+    private void recordNorm(int ordinal, double norm) {
+        norms = StoreChecks.append(norms, ordinal, norm);
+        if (Math.abs(norm - 1.0) > StoreChecks.UNIT_NORM_TOLERANCE) {
+            unitNormalized = false;
+        }
+    }
+
+    @Override
+    public boolean delete(int ordinal) {
+        if (ordinal < 0 || ordinal >= size()) {
+            throw new IndexOutOfBoundsException("Ordinal " + ordinal + " out of range for size " + size());
+        }
+        return deleted.add(ordinal);
+    }
+
+    @Override
+    public boolean isDeleted(int ordinal) {
+        return deleted.contains(ordinal);
+    }
+
+    @Override
+    public int deletedCount() {
+        return deleted.count();
+    }
+
+    /**
+     * Drops deleted vectors while keeping the trained quantizer, so the remaining codes
+     * are moved rather than re-encoded from decoded values.
+     */
+    @Override
+    public void compact() {
+        if (deleted.isEmpty()) {
+            return;
+        }
+        int live = 0;
+        ByteRows compactedCodes = quantizer == null ? null : new ByteRows(dimensions);
+        for (int ordinal = 0; ordinal < size(); ordinal++) {
+            if (deleted.contains(ordinal)) {
+                continue;
+            }
+            imageIds.set(live, imageIds.get(ordinal));
+            norms[live] = norms[ordinal];
+            if (!originals.isEmpty()) {
+                originals.set(live, originals.get(ordinal));
+                originalNorms[live] = originalNorms[ordinal];
+            }
+            if (compactedCodes != null) {
+                compactedCodes.append(codes.copyRow(ordinal));
+            }
+            live++;
+        }
+        imageIds.subList(live, imageIds.size()).clear();
+        if (!originals.isEmpty()) {
+            originals.subList(live, originals.size()).clear();
+        }
+        codes = compactedCodes;
+        deleted = new Tombstones();
+        unitNormalized = true;
+        for (int ordinal = 0; ordinal < live; ordinal++) {
+            if (Math.abs(norms[ordinal] - 1.0) > StoreChecks.UNIT_NORM_TOLERANCE) {
+                unitNormalized = false;
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        imageIds.clear();
+        deleted = new Tombstones();
+        codes = null;
+        originals.clear();
+        dimensions = 0;
+        unitNormalized = true;
+        quantizer = null;
+    }
+}
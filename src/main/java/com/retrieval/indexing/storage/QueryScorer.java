@@ -0,0 +1,35 @@
+package com.retrieval.indexing.storage;
+
+/**
+ * Scores stored vectors against one query under one distance metric. A scorer is
+ * obtained once per query from {@link VectorStore#scorer}, so stores can do any
+ * per-query preparation (such as quantizing the query) up front rather than on
+ * every comparison.
+ * <p>
+ * A scorer is only valid while the store is not modified.
+ */
+@FunctionalInterface
+public interface QueryScorer {
+
+    /**
+     * @param ordinal The ordinal of a stored vector.
+     * @return The surrogate distance between the query and the vector, see
+     * {@link com.retrieval.utils.DistanceMetric}.
+     */
+    double surrogate(int ordinal);
+
+    /**
+     * Computes the surrogate distance, but may stop as soon as it is known to exceed
+     * {@code bound}, see {@link com.retrieval.utils.DistanceMetric#boundedSurrogate}.
+     * Scorers obtained from {@link VectorStore#boundedScorer} implement this; the default
+     * computes the full distance.
+     *
+     * @param ordinal The ordinal of a stored vector.
+     * @param bound   The surrogate distance a candidate must not exceed to be of interest,
+     *                e.g. the current k-th best.
+     * @return The surrogate distance, or a value greater than {@code bound}.
+     */
+    default double surrogate(int ordinal, double bound) {
+        return surrogate(ordinal);
+    }
+}
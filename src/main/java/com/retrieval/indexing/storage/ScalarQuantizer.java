@@ -0,0 +1,127 @@
+package com.retrieval.indexing.storage;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-dimension scalar quantization to signed bytes.
+ * <p>
+ * Each dimension {@code d} is mapped linearly from {@code [min_d, max_d]}, as observed in a
+ * training sample, onto the 256 codes {@code -128..127}; values outside the range are clamped.
+ * A code {@code c} decodes to {@code min_d + scale_d * (c + 128)}.
+ * <p>
+ * Dot products with a query {@code q} are computed in integer arithmetic by folding the
+ * per-dimension scale into the query and quantizing the result with a single scale
+ * {@code alpha}:
+ * <pre>
+ *   q . decode(c) = sum_d q_d (min_d + 128 scale_d) + sum_d (q_d scale_d) c_d
+ *                 ~ offset + alpha * sum_d w_d c_d
+ * </pre>
+ * where {@code w} is the int8 quantization of {@code q_d * scale_d}. Instances are immutable.
+ */
+final class ScalarQuantizer {
+    private static final int LEVELS = 255;
+    private static final int CODE_OFFSET = 128;
+
+    private final double[] min;
+    private final double[] scale;
+
+    private ScalarQuantizer(double[] min, double[] scale) {
+        this.min = min;
+        this.scale = scale;
+    }
+
+    /**
+     * Learns the per-dimension ranges from a sample of vectors.
+     *
+     * @param sample     The training vectors; must not be empty.
+     * @param dimensions The dimensionality of the vectors.
+     * @return The trained quantizer.
+     */
+    static ScalarQuantizer train(List<float[]> sample, int dimensions) {
+        if (sample.isEmpty()) {
+            throw new IllegalArgumentException("Cannot train a quantizer on an empty sample");
+        }
+        double[] min = new double[dimensions];
+        double[] max = new double[dimensions];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        for (float[] vector : sample) {
+            for (int d = 0; d < dimensions; d++) {
+                min[d] = Math.min(min[d], vector[d]);
+                max[d] = Math.max(max[d], vector[d]);
+            }
+        }
+        double[] scale = new double[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            // A constant dimension decodes exactly to min regardless of the scale
+            scale[d] = max[d] > min[d] ? (max[d] - min[d]) / LEVELS : 0.0;
+        }
+        return new ScalarQuantizer(min, scale);
+    }
+
+    /**
+     * @param vector The vector to encode.
+     * @return The codes of the vector, one byte per dimension.
+     */
+    byte[] encode(float[] vector) {
+        byte[] codes = new byte[min.length];
+        for (int d = 0; d < codes.length; d++) {
+            long level = scale[d] > 0.0 ? Math.round((vector[d] - min[d]) / scale[d]) : 0;
+            codes[d] = (byte) (Math.max(0, Math.min(LEVELS, level)) - CODE_OFFSET);
+        }
+        return codes;
+    }
+
+    /**
+     * @param codes     An array holding the codes of a vector.
+     * @param offset    The index of the vector's first code in {@code codes}.
+     * @param dimension The component index.
+     * @return The decoded component.
+     */
+    double decode(byte[] codes, int offset, int dimension) {
+        return min[dimension] + scale[dimension] * (codes[offset + dimension] + CODE_OFFSET);
+    }
+
+    /**
+     * @param codes  An array holding the codes of a vector.
+     * @param offset The index of the vector's first code in {@code codes}.
+     * @return The decoded vector.
+     */
+    double[] decode(byte[] codes, int offset) {
+        double[] vector = new double[min.length];
+        for (int d = 0; d < vector.length; d++) {
+            vector[d] = decode(codes, offset, d);
+        }
+        return vector;
+    }
+
+    /**
+     * Quantizes a query for integer dot products against encoded vectors.
+     *
+     * @param query The query vector.
+     * @return The quantized query.
+     */
+    QuantizedQuery prepare(double[] query) {
+        double offset = 0.0;
+        double maxWeight = 0.0;
+        double[] weights = new double[min.length];
+        for (int d = 0; d < weights.length; d++) {
+            offset += query[d] * (min[d] + CODE_OFFSET * scale[d]);
+            weights[d] = query[d] * scale[d];
+            maxWeight = Math.max(maxWeight, Math.abs(weights[d]));
+        }
+        double alpha = maxWeight > 0.0 ? maxWeight / 127.0 : 1.0;
+        byte[] codes = new byte[weights.length];
+        for (int d = 0; d < codes.length; d++) {
+            codes[d] = (byte) Math.round(weights[d] / alpha);
+        }
+        return new QuantizedQuery(codes, alpha, offset);
+    }
+
+    /**
+     * A query folded with the quantizer's scales: {@code q . decode(c) ~ offset + alpha * (codes . c)}.
+     */
+    record QuantizedQuery(byte[] codes, double alpha, double offset) {
+    }
+}
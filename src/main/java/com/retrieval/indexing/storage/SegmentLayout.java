@@ -0,0 +1,92 @@
+package com.retrieval.indexing.storage;
+
+/**
+ * Maps row ordinals onto fixed-size segments for the contiguous row stores
+ * ({@link DoubleRows}, {@link FloatRows}, {@link ByteRows}) and the mapped chunks of a
+ * {@link MappedVectorStore}.
+ * <p>
+ * Rows are stored back to back, row-major, in segments of about {@value #SEGMENT_BYTES}
+ * bytes. Each segment holds a power-of-two number of rows, so locating a row is a shift and
+ * a mask, and a scan over consecutive ordinals reads memory sequentially. Segments keep any
+ * single array well below the JVM's array size limit and mean that growing the store never
+ * copies more than one segment.
+ */
+final class SegmentLayout {
+    /**
+     * Target size of one full segment.
+     */
+    static final int SEGMENT_BYTES = 1 << 24;
+
+    // Initial capacity, in rows, of the first segment, which grows by doubling until full
+    private static final int INITIAL_ROWS = 16;
+
+    private final int dimensions;
+    private final int shift;
+    private final int mask;
+
+    /**
+     * @param dimensions        The number of components per row.
+     * @param bytesPerComponent The size of one component.
+     */
+    SegmentLayout(int dimensions, int bytesPerComponent) {
+        this(dimensions, bytesPerComponent, SEGMENT_BYTES);
+    }
+
+    /**
+     * @param dimensions        The number of components per row.
+     * @param bytesPerComponent The size of one component.
+     * @param segmentBytes      The maximum size of a full segment; a segment always holds
+     *                          at least one row.
+     */
+    SegmentLayout(int dimensions, int bytesPerComponent, long segmentBytes) {
+        long rows = Math.max(1L, segmentBytes / ((long) dimensions * bytesPerComponent));
+        this.dimensions = dimensions;
+        this.shift = 63 - Long.numberOfLeadingZeros(rows);
+        this.mask = (1 << shift) - 1;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return The number of rows in a full segment, a power of two.
+     */
+    int rowsPerSegment() {
+        return 1 << shift;
+    }
+
+    /**
+     * @return The index of the segment holding the row.
+     */
+    int segment(int row) {
+        return row >>> shift;
+    }
+
+    /**
+     * @return The index of the row's first component within its segment.
+     */
+    int offset(int row) {
+        return (row & mask) * dimensions;
+    }
+
+    /**
+     * Returns the length a segment must have to hold the given row: a full segment, or for
+     * the first segment, a doubled capacity while the store is still small.
+     *
+     * @param row           The row about to be written.
+     * @param currentLength The current length of the row's segment, 0 if not yet allocated.
+     * @return The required length, equal to {@code currentLength} if no growth is needed.
+     */
+    int requiredLength(int row, int currentLength) {
+        int needed = offset(row) + dimensions;
+        if (needed <= currentLength) {
+            return currentLength;
+        }
+        int full = rowsPerSegment() * dimensions;
+        if (segment(row) > 0) {
+            return full;
+        }
+        return Math.min(full, Math.max(needed, Math.max(INITIAL_ROWS * dimensions, currentLength * 2)));
+    }
+}
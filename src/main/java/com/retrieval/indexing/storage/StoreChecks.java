@@ -0,0 +1,63 @@
+package com.retrieval.indexing.storage;
+
+/**
+ * Argument validation shared by the {@link VectorStore} implementations.
+ */
+final class StoreChecks {
+
+    /**
+     * Tolerance used to decide whether a stored vector counts as unit length.
+     */
+    static final double UNIT_NORM_TOLERANCE = 1e-6;
+
+    private StoreChecks() {
+    }
+
+    /**
+     * Appends a value to a growable array, returning the (possibly reallocated) array.
+     */
+    static double[] append(double[] array, int size, double value) {
+        if (size == array.length) {
+            array = java.util.Arrays.copyOf(array, Math.max(16, array.length * 2));
+        }
+        array[size] = value;
+        return array;
+    }
+
+    /**
+     * Validates a vector about to be added to a store.
+     *
+     * @param vector     The vector being added.
+     * @param dimensions The dimensionality of the vectors already stored.
+     * @param size       The number of vectors already stored.
+     * @return The dimensionality the store has after the addition.
+     */
+    static int checkDimensions(double[] vector, int dimensions, int size) {
+        if (vector == null) {
+            throw new IllegalArgumentException("Feature vector cannot be null");
+        }
+        return checkLength(vector.length, dimensions, size);
+    }
+
+    /**
+     * @see #checkDimensions(double[], int, int)
+     */
+    static int checkDimensions(float[] vector, int dimensions, int size) {
+        if (vector == null) {
+            throw new IllegalArgumentException("Feature vector cannot be null");
+        }
+        return checkLength(vector.length, dimensions, size);
+    }
+
+    private static int checkLength(int length, int dimensions, int size) {
+        if (length == 0) {
+            throw new IllegalArgumentException("Feature vector cannot be empty");
+        }
+        if (size > 0 && length != dimensions) {
+            throw new IllegalArgumentException(
+                    String.format("Inconsistent feature vector dimensions. Expected %d, got %d.",
+                            dimensions, length));
+        }
+        return length;
+    }
+}
@@ -0,0 +1,333 @@
+package com.retrieval.indexing.storage;
+
+import com.retrieval.models.ImageFeature;
+import com.retrieval.models.VectorPrecision;
+import com.retrieval.utils.DimensionOrder;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.PreparedBatch;
+import com.retrieval.utils.PreparedQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordinal-addressed storage for the feature vectors of one index.
+ * Every vector added to the store is assigned the next ordinal (0, 1, 2, ...), and index
+ * structures refer to vectors by ordinal rather than by {@link ImageFeature} reference.
+ * This lets each index choose how its vectors are represented in memory without
+ * changing its search logic.
+ * <p>
+ * Implementations are not thread-safe; the owning index is responsible for synchronization.
+ * Stores that support {@link #snapshot()} additionally allow reads from snapshots while a
+ * single writer modifies the store.
+ */
+public interface VectorStore {
+
+    /**
+     * Creates an empty store for the given precision.
+     *
+     * @param precision The in-memory representation of the stored vectors.
+     * @return A new, empty store.
+     */
+    static VectorStore create(VectorPrecision precision) {
+        if (precision == null) {
+            throw new IllegalArgumentException("Precision cannot be null");
+        }
+        return switch (precision) {
+            case FLOAT64 -> new DoubleVectorStore();
+            case FLOAT32 -> new FloatVectorStore();
+            case INT8 -> new QuantizedVectorStore();
+        };
+    }
+
+    /**
+     * @return The representation used for the stored vectors.
+     */
+    VectorPrecision getPrecision();
+
+    /**
+     * @return The number of stored vectors.
+     */
+    int size();
+
+    /**
+     * @return The dimensionality of the stored vectors, or 0 if the store is empty.
+     */
+    int getDimensions();
+
+    /**
+     * Appends a feature to the store.
+     *
+     * @param feature The feature to add.
+     * @return The ordinal assigned to the feature.
+     * @throws IllegalArgumentException if the feature or its vector is null or empty,
+     *                                  or its dimensionality differs from the stored vectors.
+     */
+    int add(ImageFeature feature);
+
+    /**
+     * Appends a single-precision vector without going through a double-precision
+     * {@link ImageFeature}.
+     *
+     * @param imageId The image identifier.
+     * @param vector  The feature vector.
+     * @return The ordinal assigned to the vector.
+     * @throws IllegalArgumentException if the vector is null or empty, or its
+     *                                  dimensionality differs from the stored vectors.
+     */
+    int add(String imageId, float[] vector);
+
+    /**
+     * Appends a batch of features in order. Stores that learn an encoding from the data
+     * use the batch to train it.
+     *
+     * @param features The features to add.
+     * @throws IllegalArgumentException if a feature or its vector is null or empty,
+     *                                  or the dimensionalities differ.
+     */
+    default void addAll(List<ImageFeature> features) {
+        for (ImageFeature feature : features) {
+            add(feature);
+        }
+    }
+
+    /**
+     * Replaces the contents of the store with the given features, as {@link #clear()}
+     * followed by {@link #addAll(List)}. Stores that support {@link #snapshot()} publish
+     * the new contents atomically.
+     *
+     * @param features The features to store.
+     * @throws IllegalArgumentException if a feature or its vector is null or empty,
+     *                                  or the dimensionalities differ.
+     */
+    default void replaceAll(List<ImageFeature> features) {
+        clear();
+        addAll(features);
+    }
+
+    /**
+     * @param ordinal The ordinal of a stored vector.
+     * @return The image identifier stored with the vector.
+     */
+    String getImageId(int ordinal);
+
+    /**
+     * Returns the stored vector as an {@link ImageFeature}. Stores that do not keep the
+     * original feature object materialize a new one from the stored representation.
+     *
+     * @param ordinal The ordinal of a stored vector.
+     * @return The feature for the ordinal.
+     */
+    ImageFeature getFeature(int ordinal);
+
+    /**
+     * @param ordinal The ordinal of a stored vector.
+     * @return A new double-precision copy of the stored vector.
+     */
+    double[] getVector(int ordinal);
+
+    /**
+     * @param ordinal   The ordinal of a stored vector.
+     * @param dimension The component index.
+     * @return A single component of the stored vector.
+     */
+    double valueAt(int ordinal, int dimension);
+
+    /**
+     * @param ordinal The ordinal of a stored vector.
+     * @return The L2 norm of the stored vector, computed once when it was added.
+     */
+    double getNorm(int ordinal);
+
+    /**
+     * Reports whether every stored vector has unit length (within 1e-6), in which case
+     * cosine distances reduce to {@code 1 - dot product}. An empty store is unit-normalized.
+     *
+     * @return true if all stored vectors are L2-normalized
+     */
+    boolean isUnitNormalized();
+
+    /**
+     * Computes the rank-equivalent surrogate distance between a query and a stored vector.
+     * Cosine comparisons reuse the norm recorded when the vector was added, so they cost
+     * a single dot product.
+     *
+     * @param metric  The distance metric.
+     * @param query   The prepared query; its dimensionality must match the store's.
+     * @param ordinal The ordinal of a stored vector.
+     * @return The surrogate distance, see {@link DistanceMetric}.
+     */
+    double surrogateDistance(DistanceMetric metric, PreparedQuery query, int ordinal);
+
+    /**
+     * Returns a scorer for repeated comparisons of one query against stored vectors.
+     * Searches should obtain the scorer once per query and use it in their inner loops.
+     * The default implementation delegates to {@link #surrogateDistance}; stores with a
+     * compressed representation may rank approximately, see {@link #rerankScorer}.
+     *
+     * @param metric The distance metric.
+     * @param query  The prepared query.
+     * @return A scorer valid until the store is modified.
+     * @throws IllegalArgumentException if the query's dimensionality differs from the store's
+     */
+    default QueryScorer scorer(DistanceMetric metric, PreparedQuery query) {
+        checkQuery(query);
+        return ordinal -> surrogateDistance(metric, query, ordinal);
+    }
+
+    /**
+     * Returns a scorer whose {@link QueryScorer#surrogate(int, double)} abandons a
+     * candidate once its partial distance exceeds the bound, for metrics where
+     * {@link DistanceMetric#supportsEarlyAbandon()} holds. The default implementation
+     * returns {@link #scorer}, which always computes full distances.
+     *
+     * @param metric The distance metric.
+     * @param query  The prepared query.
+     * @param order  The order in which to visit the components of stored vectors.
+     * @return A scorer valid until the store is modified.
+     * @throws IllegalArgumentException if the query's or the order's dimensionality differs from the store's
+     */
+    default QueryScorer boundedScorer(DistanceMetric metric, PreparedQuery query, DimensionOrder order) {
+        return scorer(metric, query);
+    }
+
+    /**
+     * Returns a scorer that compares each stored vector against all queries of a batch.
+     * The default implementation combines one {@link #scorer} per query; stores holding
+     * float or double rows override it to compare several queries per load of a row,
+     * see {@link DistanceMetric#surrogates}.
+     *
+     * @param metric The distance metric.
+     * @param batch  The prepared queries.
+     * @return A scorer valid until the store is modified.
+     * @throws IllegalArgumentException if the queries' dimensionality differs from the store's
+     */
+    default BatchScorer batchScorer(DistanceMetric metric, PreparedBatch batch) {
+        QueryScorer[] scorers = new QueryScorer[batch.size()];
+        for (int i = 0; i < scorers.length; i++) {
+            scorers[i] = scorer(metric, batch.get(i));
+        }
+        return (ordinal, out, outOffset, outStride) -> {
+            for (int i = 0; i < scorers.length; i++) {
+                out[outOffset + i * outStride] = scorers[i].surrogate(ordinal);
+            }
+        };
+    }
+
+    /**
+     * Returns a scorer that computes exact surrogate distances, for reranking the final
+     * candidates of a search whose {@link #scorer} is approximate.
+     *
+     * @param metric The distance metric.
+     * @param query  The prepared query.
+     * @return An exact scorer, or null if {@link #scorer} is already exact or the store
+     * cannot compute exact distances.
+     */
+    default QueryScorer rerankScorer(DistanceMetric metric, PreparedQuery query) {
+        return null;
+    }
+
+    /**
+     * Returns how many candidates a search should collect with {@link #scorer} so that
+     * reranking them with {@link #rerankScorer} finds the true top {@code k} with high
+     * probability.
+     *
+     * @param k The number of results requested.
+     * @return The candidate pool size, at least {@code k}.
+     */
+    default int candidatePoolSize(int k) {
+        return k;
+    }
+
+    /**
+     * Computes the true distance between a query and a stored vector.
+     *
+     * @param metric  The distance metric.
+     * @param query   The prepared query; its dimensionality must match the store's.
+     * @param ordinal The ordinal of a stored vector.
+     * @return The distance under {@code metric}.
+     */
+    default double distance(DistanceMetric metric, PreparedQuery query, int ordinal) {
+        return metric.toDistance(surrogateDistance(metric, query, ordinal));
+    }
+
+    /**
+     * Validates that a query can be compared against the stored vectors. Distance methods
+     * do not repeat this check per call.
+     *
+     * @param query The prepared query.
+     * @throws IllegalArgumentException if the query's dimensionality differs from the store's
+     */
+    default void checkQuery(PreparedQuery query) {
+        if (size() > 0 && query.getDimensions() != getDimensions()) {
+            throw new IllegalArgumentException(
+                    String.format("Vector dimensions must match: %d vs %d",
+                            query.getDimensions(), getDimensions()));
+        }
+    }
+
+    /**
+     * Marks a vector as deleted. The vector keeps its ordinal and storage until
+     * {@link #compact()}, and searches skip it.
+     *
+     * @param ordinal The ordinal of a stored vector.
+     * @return true if the vector was not already deleted.
+     * @throws UnsupportedOperationException if the store does not support deletes
+     */
+    default boolean delete(int ordinal) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support deletes");
+    }
+
+    /**
+     * @param ordinal The ordinal of a stored vector.
+     * @return true if the vector has been deleted and not yet compacted away.
+     */
+    default boolean isDeleted(int ordinal) {
+        return false;
+    }
+
+    /**
+     * @return The number of deleted vectors still occupying space in the store.
+     */
+    default int deletedCount() {
+        return 0;
+    }
+
+    /**
+     * Reclaims the space of deleted vectors. The remaining vectors keep their relative
+     * order but are renumbered from 0, so indexes must rebuild any structure holding
+     * ordinals afterwards. The default implementation copies the live vectors through
+     * {@link #replaceAll(List)}.
+     */
+    default void compact() {
+        if (deletedCount() == 0) {
+            return;
+        }
+        List<ImageFeature> live = new ArrayList<>(size() - deletedCount());
+        for (int ordinal = 0; ordinal < size(); ordinal++) {
+            if (!isDeleted(ordinal)) {
+                live.add(getFeature(ordinal));
+            }
+        }
+        replaceAll(live);
+    }
+
+    /**
+     * Returns a read-only view of the vectors stored at the time of the call. The view is
+     * unaffected by later additions, {@link #clear()} or {@link #replaceAll(List)}, and may
+     * be read without synchronization while one thread modifies the store, so a search can
+     * scan it without holding a lock. Deletions made after the call may or may not be
+     * visible through the view.
+     *
+     * @return The view, or null if the store does not support concurrent readers and the
+     * owning index must exclude writers while reading.
+     */
+    default VectorStore snapshot() {
+        return null;
+    }
+
+    /**
+     * Removes all vectors, including deleted ones. Ordinals restart at 0.
+     */
+    void clear();
+}
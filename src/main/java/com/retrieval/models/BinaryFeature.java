@@ -0,0 +1,75 @@
+package com.retrieval.models;
+
+import java.util.Arrays;
+
+/**
+ * An image identifier with a binary descriptor packed into 64-bit words, such as the
+ * 256-bit ORB descriptor of {@code ORBExtractor.extractBinary}. Bit {@code i} of the
+ * descriptor is bit {@code i % 64} of word {@code i / 64}; unused high bits of the last
+ * word are zero.
+ */
+public class BinaryFeature {
+    private final String imageId;
+    private final long[] bits;
+    private final int bitLength;
+
+    /**
+     * @param imageId   The image identifier.
+     * @param bits      The packed descriptor. The array is not copied.
+     * @param bitLength The number of meaningful bits.
+     * @throws IllegalArgumentException if bits is null or empty, or bitLength does not fit it
+     */
+    public BinaryFeature(String imageId, long[] bits, int bitLength) {
+        if (bits == null || bits.length == 0) {
+            throw new IllegalArgumentException("Binary descriptor cannot be null or empty");
+        }
+        if (bitLength <= 0 || bitLength > bits.length * Long.SIZE) {
+            throw new IllegalArgumentException(
+                    String.format("Bit length %d does not fit %d words", bitLength, bits.length));
+        }
+        this.imageId = imageId;
+        this.bits = bits;
+        this.bitLength = bitLength;
+    }
+
+    /**
+     * Creates a feature whose bit length is the full capacity of the words.
+     *
+     * @param imageId The image identifier.
+     * @param bits    The packed descriptor. The array is not copied.
+     */
+    public BinaryFeature(String imageId, long[] bits) {
+        this(imageId, bits, bits == null ? 0 : bits.length * Long.SIZE);
+    }
+
+    public String getImageId() {
+        return imageId;
+    }
+
+    /**
+     * @return The packed descriptor. The array is shared and must not be modified.
+     */
+    public long[] getBits() {
+        return bits;
+    }
+
+    /**
+     * @return The number of meaningful bits.
+     */
+    public int getBitLength() {
+        return bitLength;
+    }
+
+    /**
+     * @return The number of 64-bit words holding the descriptor.
+     */
+    public int getWordCount() {
+        return bits.length;
+    }
+
+    @Override
+    public String toString() {
+        return "BinaryFeature{imageId='" + imageId + "', bitLength=" + bitLength
+                + ", bits=" + Arrays.toString(bits) + "}";
+    }
+}
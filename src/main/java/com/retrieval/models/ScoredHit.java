@@ -0,0 +1,73 @@
+package com.retrieval.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A search result together with the distance the index ranked it by, so that callers can
+ * apply thresholds or display scores without recomputing distances.
+ *
+ * @param <F> The feature type, {@link ImageFeature} or {@link BinaryFeature}.
+ */
+public class ScoredHit<F> {
+    private final int ordinal;
+    private final String imageId;
+    private final double distance;
+    private final F feature;
+
+    /**
+     * @param ordinal  The position of the result in the index's vector store.
+     * @param imageId  The image identifier.
+     * @param distance The distance from the query under the index's metric.
+     * @param feature  The indexed feature.
+     */
+    public ScoredHit(int ordinal, String imageId, double distance, F feature) {
+        this.ordinal = ordinal;
+        this.imageId = imageId;
+        this.distance = distance;
+        this.feature = feature;
+    }
+
+    /**
+     * @return The position of the result in the index's vector store; only meaningful
+     * until the index is next rebuilt or compacted.
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    public String getImageId() {
+        return imageId;
+    }
+
+    /**
+     * @return The distance from the query under the index's metric, e.g. the Euclidean
+     * distance rather than its square. Indexes over quantized vectors report the exact
+     * distance when they rerank, and the approximate one otherwise.
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    public F getFeature() {
+        return feature;
+    }
+
+    /**
+     * @param hits Scored results, best first.
+     * @param <F>  The feature type.
+     * @return The features of the results, in the same order.
+     */
+    public static <F> List<F> features(List<ScoredHit<F>> hits) {
+        List<F> features = new ArrayList<>(hits.size());
+        for (ScoredHit<F> hit : hits) {
+            features.add(hit.getFeature());
+        }
+        return features;
+    }
+
+    @Override
+    public String toString() {
+        return "ScoredHit{ordinal=" + ordinal + ", imageId='" + imageId + "', distance=" + distance + "}";
+    }
+}
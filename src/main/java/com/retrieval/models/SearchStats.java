@@ -0,0 +1,63 @@
+package com.retrieval.models;
+
+/**
+ * Work counters for a single query, filled in by an index when passed to its
+ * {@code queryScored} method. Counters accumulate, so one instance can also total several
+ * queries.
+ * <p>
+ * Not thread-safe; use one instance per thread.
+ */
+public class SearchStats {
+    private long distanceEvaluations;
+    private long nodesVisited;
+    private long candidatesExamined;
+
+    /**
+     * @return The number of distances computed, including distances to tree nodes'
+     * centroids and exact reranking; an abandoned partial distance counts as one.
+     */
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+
+    /**
+     * @return The number of tree nodes, or hash buckets, visited.
+     */
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    /**
+     * @return The number of indexed entries compared with the query.
+     */
+    public long getCandidatesExamined() {
+        return candidatesExamined;
+    }
+
+    public void addDistanceEvaluations(long count) {
+        distanceEvaluations += count;
+    }
+
+    public void addNodesVisited(long count) {
+        nodesVisited += count;
+    }
+
+    public void addCandidatesExamined(long count) {
+        candidatesExamined += count;
+    }
+
+    /**
+     * Sets all counters back to zero.
+     */
+    public void reset() {
+        distanceEvaluations = 0;
+        nodesVisited = 0;
+        candidatesExamined = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchStats{distanceEvaluations=" + distanceEvaluations + ", nodesVisited=" + nodesVisited
+                + ", candidatesExamined=" + candidatesExamined + "}";
+    }
+}
@@ -0,0 +1,40 @@
+package com.retrieval.models;
+
+/**
+ * The numeric representation an index uses to hold feature vectors.
+ * Queries are always accepted as {@code double[]}; the precision only affects how
+ * indexed vectors are kept in memory and read during distance computations.
+ */
+public enum VectorPrecision {
+    /**
+     * 64-bit IEEE doubles, the same representation as {@link ImageFeature}.
+     */
+    FLOAT64(Double.BYTES),
+
+    /**
+     * 32-bit IEEE floats. Halves the memory and bandwidth per vector; the rounding
+     * error (about 6e-8 relative per component) is far below the noise of CNN embeddings.
+     */
+    FLOAT32(Float.BYTES),
+
+    /**
+     * Signed bytes from per-dimension scalar quantization, an 8x reduction over
+     * {@link #FLOAT64}. Distances are approximate: each component is rounded to one of
+     * 256 levels between the minimum and maximum seen in a training sample, and values
+     * outside that range are clamped.
+     */
+    INT8(Byte.BYTES);
+
+    private final int bytesPerComponent;
+
+    VectorPrecision(int bytesPerComponent) {
+        this.bytesPerComponent = bytesPerComponent;
+    }
+
+    /**
+     * @return The number of bytes used to store one vector component.
+     */
+    public int getBytesPerComponent() {
+        return bytesPerComponent;
+    }
+}
@@ -6,6 +6,7 @@ import java.lang.annotation.*;
 @Target(ElementType.TYPE)
 public @interface SearchCapabilities {
     boolean insertable() default false;
+    boolean deletable() default false;
     boolean buildable() default true;
     boolean searchable() default true;
 }
@@ -0,0 +1,217 @@
+package com.retrieval.search.execution;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs queries and their partitioned scans on a dedicated {@link ForkJoinPool}, so that
+ * search traffic does not compete with other users of the common pool, and decides per
+ * scan whether to split it across workers.
+ * <p>
+ * A scan can use intra-query parallelism, split over several workers to cut the latency
+ * of one query, or inter-query parallelism, run on a single worker so that concurrent
+ * queries each keep a core and nothing is spent on forking and merging. In
+ * {@link Mode#ADAPTIVE} mode the executor divides its workers among the queries currently
+ * running or waiting: a lone query on a large index gets all of them, and once there are
+ * at least as many queries as workers every scan runs on one. Scans of fewer than
+ * {@code minParallelWork} multiply-adds always run on the calling thread.
+ * <p>
+ * Indexes use the executor once it is passed to their {@code setQueryExecutor} method.
+ * Their {@code query} methods still run on the caller's thread; {@link #submit(Supplier)}
+ * runs a query on the pool instead, which bounds the CPU used by search to the pool's
+ * parallelism however many callers there are.
+ * <p>
+ * Instances are thread-safe and may be shared by several indexes.
+ */
+public class QueryExecutor implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(QueryExecutor.class);
+
+    /**
+     * Default number of multiply-adds below which a scan is not split; about 10k vectors
+     * of 100 dimensions, which a single core scans in well under a millisecond.
+     */
+    public static final long DEFAULT_MIN_PARALLEL_WORK = 1L << 20;
+
+    /**
+     * How scans are spread over the pool's workers.
+     */
+    public enum Mode {
+        /**
+         * Share the workers among the queries running or waiting at the time.
+         */
+        ADAPTIVE,
+        /**
+         * Split every sufficiently large scan across all workers, for the lowest latency
+         * at low concurrency.
+         */
+        INTRA_QUERY,
+        /**
+         * Run every scan on a single worker, for the highest throughput at high concurrency.
+         */
+        INTER_QUERY
+    }
+
+    private static final AtomicInteger poolCount = new AtomicInteger();
+    private static final QueryExecutor COMMON =
+            new QueryExecutor(ForkJoinPool.commonPool(), Mode.INTRA_QUERY, DEFAULT_MIN_PARALLEL_WORK);
+
+    private final ForkJoinPool pool;
+    private final Mode mode;
+    private final long minParallelWork;
+    private final AtomicInteger activeQueries = new AtomicInteger();
+
+    /**
+     * Creates an adaptive executor with one worker per available processor.
+     */
+    public QueryExecutor() {
+        this(Runtime.getRuntime().availableProcessors(), Mode.ADAPTIVE, DEFAULT_MIN_PARALLEL_WORK);
+    }
+
+    /**
+     * @param parallelism     The number of worker threads.
+     * @param mode            How scans are spread over the workers.
+     * @param minParallelWork The number of multiply-adds below which a scan is never split.
+     * @throws IllegalArgumentException if parallelism is not positive, mode is null or minParallelWork is negative
+     */
+    public QueryExecutor(int parallelism, Mode mode, long minParallelWork) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        if (mode == null) {
+            throw new IllegalArgumentException("Mode cannot be null");
+        }
+        if (minParallelWork < 0) {
+            throw new IllegalArgumentException("Minimum parallel work cannot be negative");
+        }
+        int id = poolCount.incrementAndGet();
+        this.pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("query-" + id + "-worker-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        this.mode = mode;
+        this.minParallelWork = minParallelWork;
+        log.info("Query executor started with {} workers in {} mode", parallelism, mode);
+    }
+
+    private QueryExecutor(ForkJoinPool pool, Mode mode, long minParallelWork) {
+        this.pool = pool;
+        this.mode = mode;
+        this.minParallelWork = minParallelWork;
+    }
+
+    /**
+     * Returns the executor indexes use until they are given another one. It runs on the
+     * common pool and splits every large scan across all of its workers, regardless of
+     * load; closing it has no effect.
+     *
+     * @return The shared common-pool executor.
+     */
+    public static QueryExecutor common() {
+        return COMMON;
+    }
+
+    /**
+     * Runs a query on the calling thread, counting it towards the load that
+     * {@link Mode#ADAPTIVE} divides the workers by.
+     *
+     * @param query The query.
+     * @param <T>   The result type.
+     * @return The query's result.
+     */
+    public <T> T execute(Supplier<T> query) {
+        activeQueries.incrementAndGet();
+        try {
+            return query.get();
+        } finally {
+            activeQueries.decrementAndGet();
+        }
+    }
+
+    /**
+     * Runs a query on one of the pool's workers, e.g.
+     * {@code executor.submit(() -> index.query(vector, k))}. The query is not counted here:
+     * indexes using this executor count their own queries through {@link #execute(Supplier)},
+     * so counting the submission as well would halve each query's share under {@link Mode#ADAPTIVE}.
+     *
+     * @param query The query.
+     * @param <T>   The result type.
+     * @return A future completed with the query's result, or exceptionally with its failure.
+     * @throws java.util.concurrent.RejectedExecutionException if the executor has been closed
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> query) {
+        if (query == null) {
+            throw new IllegalArgumentException("Query cannot be null");
+        }
+        return CompletableFuture.supplyAsync(query, pool);
+    }
+
+    /**
+     * Decides how many workers a scan may occupy.
+     *
+     * @param work The size of the scan in multiply-adds, e.g. vectors times dimensions.
+     * @return The parallelism to pass to the scan; 1 means the calling thread scans alone.
+     */
+    public int scanParallelism(long work) {
+        if (work < minParallelWork) {
+            return 1;
+        }
+        int workers = pool.getParallelism();
+        return switch (mode) {
+            case INTRA_QUERY -> workers;
+            case INTER_QUERY -> 1;
+            case ADAPTIVE -> {
+                int load = activeQueries.get() + pool.getQueuedSubmissionCount();
+                yield Math.max(1, workers / Math.max(1, load));
+            }
+        };
+    }
+
+    /**
+     * @return The pool that runs submitted queries and partitioned scans.
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return How scans are spread over the workers.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return The number of queries currently running through {@link #execute(Supplier)}, including
+     * submitted index queries, which run through it on a worker.
+     */
+    public int getActiveQueries() {
+        return activeQueries.get();
+    }
+
+    /**
+     * Stops accepting queries and waits for running ones to finish.
+     */
+    @Override
+    public void close() {
+        if (this == COMMON) {
+            return;
+        }
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Queries still running after one minute; abandoning them");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
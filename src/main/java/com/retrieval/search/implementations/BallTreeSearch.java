@@ -4,17 +4,29 @@ import com.retrieval.indexing.BallTree.BallTreeBuilder;
 import com.retrieval.indexing.BallTree.BallTreeNode;
 import com.retrieval.indexing.BallTree.InternalNode;
 import com.retrieval.indexing.BallTree.LeafNode;
+import com.retrieval.indexing.storage.QueryScorer;
+import com.retrieval.indexing.storage.VectorStore;
 import com.retrieval.models.ImageFeature;
+import com.retrieval.models.ScoredHit;
+import com.retrieval.models.SearchStats;
+import com.retrieval.models.VectorPrecision;
 import com.retrieval.search.annotations.SearchCapabilities;
 import com.retrieval.search.interfaces.Buildable;
+import com.retrieval.search.interfaces.RangeSearchable;
 import com.retrieval.search.interfaces.Searchable;
-import com.retrieval.utils.FeatureUtils;
+import com.retrieval.utils.DimensionOrder;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.DistanceMetrics;
+import com.retrieval.utils.PreparedQuery;
+import com.retrieval.utils.RadiusHits;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.AbstractMap.SimpleEntry;
@@ -23,14 +35,62 @@ import java.util.AbstractMap.SimpleEntry;
  * Implements a search strategy using a Ball Tree for efficient approximate nearest neighbor (ANN) search.
  * Ball Trees are hierarchical data structures that partition data into nested hyperspheres,
  * allowing for faster distance-based queries by pruning branches that cannot contain
- * the nearest neighbors.
+ * the nearest neighbors. Leaves reference vectors held in a {@link VectorStore}
+ * whose precision is chosen per index.
+ * Pruning relies on the triangle inequality, so only metrics for which
+ * {@link DistanceMetric#isMetricSpace()} holds are accepted; the default is Euclidean.
  */
 @SearchCapabilities(insertable = false, buildable = true, searchable = true)
-public class BallTreeSearch implements Buildable, Searchable {
+public class BallTreeSearch implements Buildable, Searchable, RangeSearchable {
 
     private static final Logger log = LoggerFactory.getLogger(BallTreeSearch.class);
+    private final VectorStore store;
+    private final DistanceMetric metric;
     private BallTreeNode root;
     private int indexSize = 0;
+    private DimensionOrder dimensionOrder; // Null unless the metric supports early abandoning
+    private boolean earlyAbandon = false;
+
+    public BallTreeSearch() {
+        this(VectorPrecision.FLOAT64);
+    }
+
+    /**
+     * @param precision The in-memory representation of the indexed vectors.
+     */
+    public BallTreeSearch(VectorPrecision precision) {
+        this(precision, DistanceMetrics.EUCLIDEAN);
+    }
+
+    /**
+     * @param precision The in-memory representation of the indexed vectors.
+     * @param metric    The distance used to build and search the tree.
+     * @throws IllegalArgumentException if metric is null or does not satisfy the triangle inequality.
+     */
+    public BallTreeSearch(VectorPrecision precision, DistanceMetric metric) {
+        this(VectorStore.create(precision), metric);
+    }
+
+    /**
+     * Creates a search over a caller-configured store, e.g. a {@code QuantizedVectorStore}
+     * that keeps the original vectors for exact reranking. The store is cleared by
+     * {@link #buildIndex(List)} and must not be modified by other code.
+     *
+     * @param store  The store holding the indexed vectors.
+     * @param metric The distance used to build and search the tree.
+     * @throws IllegalArgumentException if store or metric is null, or metric does not satisfy
+     * the triangle inequality.
+     */
+    public BallTreeSearch(VectorStore store, DistanceMetric metric) {
+        if (store == null) {
+            throw new IllegalArgumentException("Vector store cannot be null.");
+        }
+        if (metric == null || !metric.isMetricSpace()) {
+            throw new IllegalArgumentException("Ball Tree requires a metric that satisfies the triangle inequality.");
+        }
+        this.store = store;
+        this.metric = metric;
+    }
 
     /**
      * Builds the Ball Tree index from a list of image features.
@@ -45,13 +105,18 @@ public class BallTreeSearch implements Buildable, Searchable {
             log.warn("Building Ball Tree index with null or empty feature list. Index will be empty.");
             this.root = null;
             this.indexSize = 0;
+            this.dimensionOrder = null;
+            this.store.clear();
             return;
         }
 
         log.info("Building Ball Tree index with {} features.", features.size());
-        BallTreeBuilder builder = new BallTreeBuilder();
-        this.root = builder.buildBallTree(features);
+        store.clear();
+        store.addAll(features);
+        BallTreeBuilder builder = new BallTreeBuilder(BallTreeBuilder.DEFAULT_LEAF_SIZE, metric);
+        this.root = builder.buildBallTree(store);
         this.indexSize = features.size();
+        this.dimensionOrder = metric.supportsEarlyAbandon() ? DimensionOrderSampler.sample(store) : null;
 
         if (this.root != null) {
             log.info("Ball Tree index built successfully with {} features.", this.indexSize);
@@ -65,16 +130,25 @@ public class BallTreeSearch implements Buildable, Searchable {
      * Performs a K-nearest neighbors (KNN) query on the Ball Tree.
      * It efficiently searches for the 'k' closest ImageFeatures to the given
      * query vector by traversing the tree and pruning branches that are
-     * unlikely to contain nearest neighbors. Uses Euclidean distance.
+     * unlikely to contain nearest neighbors. Uses the metric the tree was built with.
      *
      * @param queryVector The feature vector of the query image.
      * @param k           The number of similar images to retrieve.
-     * @return A list of the top K matching ImageFeature objects, sorted by increasing Euclidean distance.
+     * @return A list of the top K matching ImageFeature objects, sorted by increasing distance.
      * @throws IllegalArgumentException if queryVector is null or empty, or k is not positive.
      * @throws IllegalStateException    if the index has not been built.
      */
     @Override
     public List<ImageFeature> query(double[] queryVector, int k) {
+        return ScoredHit.features(queryScored(queryVector, k, null));
+    }
+
+    /**
+     * Counts visited nodes, including pruned ones, and the vectors compared in the leaves
+     * that were scanned; distance evaluations also include one per child centroid.
+     */
+    @Override
+    public List<ScoredHit<ImageFeature>> queryScored(double[] queryVector, int k, SearchStats stats) {
         if (queryVector == null || queryVector.length == 0) {
             throw new IllegalArgumentException("Query vector cannot be null or empty.");
         }
@@ -88,14 +162,25 @@ public class BallTreeSearch implements Buildable, Searchable {
         // Limit k to the actual number of indexed features
         k = Math.min(k, indexSize);
 
-        // PriorityQueue to store the k nearest neighbors found so far.
+        PreparedQuery preparedQuery = PreparedQuery.of(queryVector);
+        QueryScorer rerankScorer = store.rerankScorer(metric, preparedQuery);
+        DimensionOrder order = earlyAbandon && rerankScorer == null ? dimensionOrder : null;
+        QueryScorer scorer = order != null
+                ? store.boundedScorer(metric, preparedQuery, order)
+                : store.scorer(metric, preparedQuery);
+
+        // Approximate (quantized) leaves: collect extra candidates and rerank them exactly
+        int candidates = rerankScorer != null ? Math.min(store.candidatePoolSize(k), indexSize) : k;
+
+        // PriorityQueue to store the nearest candidates found so far, keyed by surrogate distance.
         // Uses max-heap (reverse order) to keep the largest distance at the top for easy removal.
-        PriorityQueue<SimpleEntry<ImageFeature, Double>> topKResults = new PriorityQueue<>(
-                k,
+        PriorityQueue<SimpleEntry<Integer, Double>> topKResults = new PriorityQueue<>(
+                candidates,
                 (entry1, entry2) -> Double.compare(entry2.getValue(), entry1.getValue()) // Fixed: proper comparator syntax
         );
 
-        // PriorityQueue for nodes to visit during traversal, ordered by minimum possible distance.
+        // PriorityQueue for nodes to visit during traversal, ordered by minimum possible distance
+        // expressed on the surrogate scale so it compares directly with the results.
         PriorityQueue<SimpleEntry<BallTreeNode, Double>> nodeQueue = new PriorityQueue<>(
                 Comparator.comparingDouble(SimpleEntry::getValue)
         );
@@ -104,6 +189,8 @@ public class BallTreeSearch implements Buildable, Searchable {
 
         int nodesVisited = 0;
         int leavesProcessed = 0;
+        long candidatesExamined = 0;
+        long centroidDistances = 0;
 
         while (!nodeQueue.isEmpty()) {
             SimpleEntry<BallTreeNode, Double> currentEntry = nodeQueue.poll();
@@ -111,25 +198,30 @@ public class BallTreeSearch implements Buildable, Searchable {
             double minDistanceToNode = currentEntry.getValue();
             nodesVisited++;
 
-            // Pruning: if we have k results and the minimum possible distance to this node
+            // Pruning: if we have enough candidates and the minimum possible distance to this node
             // is greater than or equal to the worst result so far, skip this branch
-            if (topKResults.size() >= k && minDistanceToNode >= topKResults.peek().getValue()) {
+            if (topKResults.size() >= candidates && minDistanceToNode >= topKResults.peek().getValue()) {
                 continue;
             }
 
             if (currentNode instanceof LeafNode leafNode) {
                 leavesProcessed++;
+                candidatesExamined += leafNode.getOrdinals().length;
                 // Process all features in this leaf node
-                for (ImageFeature feature : leafNode.getFeatures()) {
-                    double distance = FeatureUtils.euclideanDistance(queryVector, feature.getFeatureVector());
+                for (int ordinal : leafNode.getOrdinals()) {
+                    // A bounded scorer stops summing once the distance exceeds the worst result
+                    double bound = topKResults.size() < candidates
+                            ? Double.POSITIVE_INFINITY
+                            : topKResults.peek().getValue();
+                    double distance = scorer.surrogate(ordinal, bound);
 
-                    if (topKResults.size() < k) {
+                    if (topKResults.size() < candidates) {
                         // We don't have k results yet, so add this one
-                        topKResults.offer(new SimpleEntry<>(feature, distance));
+                        topKResults.offer(new SimpleEntry<>(ordinal, distance));
                     } else if (distance < topKResults.peek().getValue()) {
                         // This result is better than our worst current result
                         topKResults.poll(); // Remove the worst
-                        topKResults.offer(new SimpleEntry<>(feature, distance)); // Add the new one
+                        topKResults.offer(new SimpleEntry<>(ordinal, distance)); // Add the new one
                     }
                 }
             } else if (currentNode instanceof InternalNode internalNode) {
@@ -138,21 +230,19 @@ public class BallTreeSearch implements Buildable, Searchable {
                 BallTreeNode rightChild = internalNode.getRightChild();
 
                 if (leftChild != null) {
-                    double distToLeftCentroid = FeatureUtils.euclideanDistance(queryVector, leftChild.getCentroid());
-                    double minPossibleDistToLeft = Math.max(0.0, distToLeftCentroid - leftChild.getRadius());
-                    nodeQueue.offer(new SimpleEntry<>(leftChild, minPossibleDistToLeft));
+                    nodeQueue.offer(new SimpleEntry<>(leftChild, minPossibleSurrogate(queryVector, leftChild)));
+                    centroidDistances++;
                 }
 
                 if (rightChild != null) {
-                    double distToRightCentroid = FeatureUtils.euclideanDistance(queryVector, rightChild.getCentroid());
-                    double minPossibleDistToRight = Math.max(0.0, distToRightCentroid - rightChild.getRadius());
-                    nodeQueue.offer(new SimpleEntry<>(rightChild, minPossibleDistToRight));
+                    nodeQueue.offer(new SimpleEntry<>(rightChild, minPossibleSurrogate(queryVector, rightChild)));
+                    centroidDistances++;
                 }
             }
         }
 
         // Convert the priority queue to a sorted list (ascending order by distance)
-        List<SimpleEntry<ImageFeature, Double>> resultPairs = new ArrayList<>();
+        List<SimpleEntry<Integer, Double>> resultPairs = new ArrayList<>();
         while (!topKResults.isEmpty()) {
             resultPairs.add(topKResults.poll());
         }
@@ -160,10 +250,27 @@ public class BallTreeSearch implements Buildable, Searchable {
         // Reverse to get ascending order (since we used a max-heap)
         Collections.reverse(resultPairs);
 
-        // Extract just the ImageFeatures
-        List<ImageFeature> results = new ArrayList<>();
-        for (SimpleEntry<ImageFeature, Double> pair : resultPairs) {
-            results.add(pair.getKey());
+        int reranked = 0;
+        if (rerankScorer != null) {
+            reranked = resultPairs.size();
+            for (int i = 0; i < resultPairs.size(); i++) {
+                int ordinal = resultPairs.get(i).getKey();
+                resultPairs.set(i, new SimpleEntry<>(ordinal, rerankScorer.surrogate(ordinal)));
+            }
+            resultPairs.sort(Comparator.comparingDouble(SimpleEntry::getValue));
+            resultPairs = resultPairs.subList(0, Math.min(k, resultPairs.size()));
+        }
+
+        if (stats != null) {
+            stats.addNodesVisited(nodesVisited);
+            stats.addCandidatesExamined(candidatesExamined);
+            stats.addDistanceEvaluations(candidatesExamined + centroidDistances + reranked);
+        }
+
+        List<ScoredHit<ImageFeature>> results = new ArrayList<>(resultPairs.size());
+        for (SimpleEntry<Integer, Double> pair : resultPairs) {
+            ImageFeature feature = store.getFeature(pair.getKey());
+            results.add(new ScoredHit<>(pair.getKey(), feature.getImageId(), metric.toDistance(pair.getValue()), feature));
         }
 
         log.debug("Query completed: visited {} nodes, processed {} leaves, returned {} results",
@@ -172,6 +279,144 @@ public class BallTreeSearch implements Buildable, Searchable {
         return results;
     }
 
+    /**
+     * Descends only into balls that can hold a point within the radius, i.e. whose
+     * centroid is within the radius plus the ball's own radius, and scans their leaves.
+     * With early abandoning enabled, leaf distances stop summing once they exceed the
+     * radius. Quantized leaves are filtered on approximate distances and then checked
+     * exactly, so items close to the radius may be missed.
+     *
+     * @throws IllegalArgumentException if queryVector is null or empty, or radius is NaN.
+     * @throws IllegalStateException    if the index has not been built.
+     */
+    @Override
+    public List<ScoredHit<ImageFeature>> rangeQuery(double[] queryVector, double radius, SearchStats stats) {
+        if (queryVector == null || queryVector.length == 0) {
+            throw new IllegalArgumentException("Query vector cannot be null or empty.");
+        }
+        if (Double.isNaN(radius)) {
+            throw new IllegalArgumentException("Radius cannot be NaN.");
+        }
+        if (root == null) {
+            throw new IllegalStateException("Ball Tree index has not been built or is empty.");
+        }
+
+        PreparedQuery preparedQuery = PreparedQuery.of(queryVector);
+        QueryScorer rerankScorer = store.rerankScorer(metric, preparedQuery);
+        DimensionOrder order = earlyAbandon && rerankScorer == null ? dimensionOrder : null;
+        QueryScorer scorer = order != null
+                ? store.boundedScorer(metric, preparedQuery, order)
+                : store.scorer(metric, preparedQuery);
+        double bound = metric.toSurrogate(radius);
+
+        RadiusHits hits = new RadiusHits();
+        // Nodes are pruned before they are pushed, so the stack only holds balls that may match
+        Deque<BallTreeNode> pending = new ArrayDeque<>();
+        long nodesVisited = 0;
+        long candidatesExamined = 0;
+        long centroidDistances = 1;
+        if (minPossibleSurrogate(queryVector, root) <= bound) {
+            pending.push(root);
+        }
+
+        while (!pending.isEmpty()) {
+            BallTreeNode currentNode = pending.pop();
+            nodesVisited++;
+
+            if (currentNode instanceof LeafNode leafNode) {
+                candidatesExamined += leafNode.getOrdinals().length;
+                for (int ordinal : leafNode.getOrdinals()) {
+                    double distance = scorer.surrogate(ordinal, bound);
+                    if (distance <= bound) {
+                        hits.add(ordinal, distance);
+                    }
+                }
+            } else if (currentNode instanceof InternalNode internalNode) {
+                BallTreeNode leftChild = internalNode.getLeftChild();
+                BallTreeNode rightChild = internalNode.getRightChild();
+
+                if (leftChild != null) {
+                    centroidDistances++;
+                    if (minPossibleSurrogate(queryVector, leftChild) <= bound) {
+                        pending.push(leftChild);
+                    }
+                }
+
+                if (rightChild != null) {
+                    centroidDistances++;
+                    if (minPossibleSurrogate(queryVector, rightChild) <= bound) {
+                        pending.push(rightChild);
+                    }
+                }
+            }
+        }
+
+        long reranked = 0;
+        if (rerankScorer != null) {
+            RadiusHits exact = new RadiusHits(hits.size());
+            for (int i = 0; i < hits.size(); i++) {
+                double distance = rerankScorer.surrogate(hits.id(i));
+                if (distance <= bound) {
+                    exact.add(hits.id(i), distance);
+                }
+            }
+            reranked = hits.size();
+            hits = exact;
+        }
+
+        if (stats != null) {
+            stats.addNodesVisited(nodesVisited);
+            stats.addCandidatesExamined(candidatesExamined);
+            stats.addDistanceEvaluations(candidatesExamined + centroidDistances + reranked);
+        }
+
+        hits.sort();
+        List<ScoredHit<ImageFeature>> results = new ArrayList<>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            ImageFeature feature = store.getFeature(hits.id(i));
+            results.add(new ScoredHit<>(hits.id(i), feature.getImageId(), metric.toDistance(hits.score(i)), feature));
+        }
+
+        log.debug("Range query completed: visited {} nodes, examined {} candidates, returned {} results",
+                nodesVisited, candidatesExamined, results.size());
+
+        return results;
+    }
+
+    /**
+     * Lower bound on the distance from the query to any point inside a node's ball,
+     * converted to the surrogate scale.
+     */
+    private double minPossibleSurrogate(double[] queryVector, BallTreeNode node) {
+        double distToCentroid = metric.distance(queryVector, node.getCentroid());
+        return metric.toSurrogate(Math.max(0.0, distToCentroid - node.getRadius()));
+    }
+
+    /**
+     * @return The distance used to build and search the tree.
+     */
+    public DistanceMetric getMetric() {
+        return metric;
+    }
+
+    /**
+     * @return Whether leaf scans stop computing a candidate's distance once it exceeds the k-th best so far.
+     */
+    public boolean isEarlyAbandon() {
+        return earlyAbandon;
+    }
+
+    /**
+     * Enables or disables early abandoning in leaf scans for metrics that support it
+     * (Euclidean and Manhattan), as in {@link DeepMetricSearch#setEarlyAbandon(boolean)}.
+     * Disabled by default. Stores that rerank, e.g. quantized ones, always compute full distances.
+     *
+     * @param earlyAbandon Whether to abandon candidates early.
+     */
+    public void setEarlyAbandon(boolean earlyAbandon) {
+        this.earlyAbandon = earlyAbandon;
+    }
+
     /**
      * Gets the number of features in the index.
      * @return The number of indexed features
@@ -1,45 +1,251 @@
 package com.retrieval.search.implementations;
 
-import com.retrieval.indexing.KDTree.KDNode;
+import com.retrieval.indexing.KDTree.FlatKDTree;
 import com.retrieval.indexing.KDTree.KDTreeBuilder;
+import com.retrieval.indexing.storage.QueryScorer;
+import com.retrieval.indexing.storage.VectorStore;
 import com.retrieval.models.ImageFeature;
-import com.retrieval.utils.FeatureUtils;
+import com.retrieval.models.ScoredHit;
+import com.retrieval.models.SearchStats;
+import com.retrieval.models.VectorPrecision;
 import com.retrieval.search.annotations.SearchCapabilities;
 import com.retrieval.search.interfaces.Buildable;
+import com.retrieval.search.interfaces.Insertable;
+import com.retrieval.search.interfaces.RangeSearchable;
 import com.retrieval.search.interfaces.Searchable;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.DistanceMetrics;
+import com.retrieval.utils.IntMinHeap;
+import com.retrieval.utils.PreparedQuery;
+import com.retrieval.utils.RadiusHits;
+import com.retrieval.utils.TopK;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
 
 /**
  * This strategy builds a K-D tree index and searches using approximate nearest neighbor techniques.
- * Uses either cosine or euclidean distance similarity
+ * Uses cosine distance by default, or any other {@link DistanceMetric}
+ * Tree nodes reference vectors held in a {@link VectorStore} whose precision is chosen per index.
+ * <p>
+ * With more than one tree the index is a randomized K-D forest: the trees are built in
+ * parallel, each splitting on dimensions drawn at random from the
+ * {@value #RANDOM_CANDIDATE_AXES} of highest variance, and a query descends all of them
+ * through one priority queue under a single {@code maxChecks} budget. The trees partition
+ * the space differently, so a neighbour missed in one tree is often found early in another,
+ * and recall keeps improving with {@code maxChecks} where a single tree plateaus.
+ * <p>
+ * Trees are {@link FlatKDTree}s, and a query keeps its branch queue, results and the
+ * forest's record of compared vectors in primitive structures reused by each thread, so
+ * searching a tree allocates nothing per node.
+ * <p>
+ * Branches are explored in order of a lower bound on the distance of any vector in them,
+ * computed from the query's distance to the region the branch covers along every axis
+ * split on its path, and branches whose bound exceeds the current k-th best are skipped.
+ * The bound holds for Euclidean and Manhattan distances, and for cosine and inner-product
+ * distances over unit-length vectors; other combinations only use it to order branches.
+ * In {@linkplain #setExact(boolean) exact mode} the search ignores {@code maxChecks} and
+ * runs until no branch can improve the results.
+ * <p>
+ * {@link #insert(ImageFeature)} keeps the index as a few levels of trees whose sizes grow
+ * geometrically, rather than rebalancing one tree. Inserted vectors are scanned directly
+ * until {@value #INSERT_BUFFER_SIZE} have accumulated, then built into a new level together
+ * with the smaller levels, so each vector is rebuilt a logarithmic number of times and a
+ * query searches a logarithmic number of trees. Every change publishes a new immutable
+ * view of the trees; with the float and double stores queries search that view without
+ * the lock, so inserts neither block nor are blocked by queries.
  */
 
-@SearchCapabilities(insertable = false, buildable = true, searchable = true)
-public class BestBinFirstSearch implements Searchable, Buildable {
+@SearchCapabilities(insertable = true, buildable = true, searchable = true)
+public class BestBinFirstSearch implements Searchable, RangeSearchable, Buildable, Insertable {
     private static final Logger log = LoggerFactory.getLogger(BestBinFirstSearch.class);
 
-    private KDNode root;
+    // Split axes of forest trees are drawn from this many highest-variance dimensions, as in FLANN
+    private static final int RANDOM_CANDIDATE_AXES = 5;
+    // Inserted vectors scanned directly before they are built into a tree
+    private static final int INSERT_BUFFER_SIZE = 256;
+
     private final int maxChecks;
-    private final boolean useCosineSimilarity;
+    private final int numberOfTrees;
+    private final int leafSize;
+    private final DistanceMetric metric;
+    private final VectorStore store;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile IndexView view; // Replaced under the write lock; null until the first build or insert
+    private final ThreadLocal<SearchScratch> scratch = ThreadLocal.withInitial(SearchScratch::new);
+    private volatile boolean exact = false;
+
+    /**
+     * The trees and vectors a query searches, published as a whole so that a query never
+     * sees a tree without its vectors.
+     */
+    private static final class IndexView {
+        final VectorStore vectors;
+        // Whether vectors is a snapshot, which may be searched without the lock
+        final boolean concurrent;
+        // The trees of each level in turn, largest level first
+        final FlatKDTree[] trees;
+        // The first branch number of each tree's nodes, then the total
+        final int[] nodeBase;
+        // Vectors from this ordinal on are not yet in a tree
+        final int indexedCount;
+
+        IndexView(VectorStore vectors, boolean concurrent, FlatKDTree[] trees, int indexedCount) {
+            this.vectors = vectors;
+            this.concurrent = concurrent;
+            this.trees = trees;
+            this.indexedCount = indexedCount;
+            this.nodeBase = new int[trees.length + 1];
+            for (int i = 0; i < trees.length; i++) {
+                nodeBase[i + 1] = nodeBase[i] + trees[i].nodeCount();
+            }
+        }
+
+        int size() {
+            return vectors.size();
+        }
+
+        /**
+         * @return The index of the tree a branch number belongs to.
+         */
+        int treeOf(int branch) {
+            // Levels are never empty, so the bases strictly increase
+            int found = Arrays.binarySearch(nodeBase, 0, nodeBase.length - 1, branch);
+            return found >= 0 ? found : -found - 2;
+        }
+    }
+
+    /**
+     * How a query's distances from a tree region along the axes split on its path bound the
+     * surrogate distance of the vectors inside. Each axis contributes a term, and the bound
+     * is an increasing function of their sum.
+     */
+    private static final class RegionBound {
+        // Terms are the metric's surrogate of the axis distance when the surrogate is a sum
+        // over dimensions, otherwise squared axis distances
+        final DistanceMetric additiveMetric;
+        final double scale;
+        final double shift;
+        // Whether the bound is a true lower bound rather than only an ordering heuristic
+        final boolean prunes;
+
+        RegionBound(DistanceMetric additiveMetric, double scale, double shift, boolean prunes) {
+            this.additiveMetric = additiveMetric;
+            this.scale = scale;
+            this.shift = shift;
+            this.prunes = prunes;
+        }
+
+        double term(double axisDistance) {
+            return additiveMetric != null ? additiveMetric.toSurrogate(axisDistance) : axisDistance * axisDistance;
+        }
+
+        double of(double termSum) {
+            return scale * termSum + shift;
+        }
+    }
 
     /**
-     * Internal node class for the priority queue during search.
+     * Per-thread state of a query, kept between queries so that searching allocates nothing
+     * once the structures have grown to the size the index needs.
      */
-    private static class HeapNode implements Comparable<HeapNode> {
-        final KDNode node;
-        final double priority;
+    private static final class SearchScratch {
+        // Branches to explore, each a node index offset by the first branch number of its tree
+        final IntMinHeap branches = new IntMinHeap();
+        // checked[ordinal] == epoch marks a vector already compared by the current query
+        int[] checked = new int[0];
+        int epoch = 0;
+        // The query's distance from the current branch's region along each axis, non-zero on
+        // at most the axes listed in touched
+        double[] axisDistances = new double[0];
+        int[] touched = new int[0];
+        int touchedCount = 0;
 
-        HeapNode(KDNode node, double priority) {
-            this.node = node;
-            this.priority = priority;
+        /**
+         * Starts a query over {@code size} vectors of {@code dimensions} components,
+         * forgetting the vectors compared so far.
+         */
+        void begin(int size, int dimensions) {
+            branches.clear();
+            if (checked.length < size) {
+                checked = new int[size];
+            }
+            if (++epoch == 0) {
+                Arrays.fill(checked, 0);
+                epoch = 1;
+            }
+            if (axisDistances.length < dimensions) {
+                axisDistances = new double[dimensions];
+                touched = new int[dimensions];
+                touchedCount = 0;
+            }
         }
 
-        @Override
-        public int compareTo(HeapNode other) {
-            return Double.compare(this.priority, other.priority);
+        /**
+         * Walks from the root to {@code target}, recording the query's distance from the
+         * target's region along every axis split on the way.
+         *
+         * @return The sum of the bound's terms over those distances.
+         */
+        double enter(FlatKDTree tree, int target, double[] point, RegionBound bound) {
+            for (int i = 0; i < touchedCount; i++) {
+                axisDistances[touched[i]] = 0.0;
+            }
+            touchedCount = 0;
+            double termSum = 0.0;
+            int node = tree.root();
+            while (node != target) {
+                int axis = tree.axis(node);
+                double diff = point[axis] - tree.splitValue(node);
+                boolean toRight = target >= tree.right(node);
+                // Crossing to the side away from the query moves the region's edge to the split
+                if (toRight == diff < 0) {
+                    termSum += widen(axis, Math.abs(diff), bound);
+                }
+                node = toRight ? tree.right(node) : tree.left(node);
+            }
+            return termSum;
+        }
+
+        /**
+         * Raises the recorded distance along an axis to at least {@code axisDistance}.
+         *
+         * @return The resulting change in the sum of the bound's terms.
+         */
+        double widen(int axis, double axisDistance, RegionBound bound) {
+            double change = widening(axis, axisDistance, bound);
+            if (change > 0.0) {
+                if (axisDistances[axis] == 0.0) {
+                    touched[touchedCount++] = axis;
+                }
+                axisDistances[axis] = axisDistance;
+            }
+            return change;
+        }
+
+        /**
+         * @return The change {@link #widen} would make to the sum of the bound's terms,
+         * without recording it.
+         */
+        double widening(int axis, double axisDistance, RegionBound bound) {
+            double current = axisDistances[axis];
+            return axisDistance > current ? bound.term(axisDistance) - bound.term(current) : 0.0;
+        }
+
+        /**
+         * @return Whether this is the query's first visit to the vector, marking it visited.
+         */
+        boolean firstVisit(int ordinal) {
+            if (checked[ordinal] == epoch) {
+                return false;
+            }
+            checked[ordinal] = epoch;
+            return true;
         }
     }
 
@@ -52,90 +258,469 @@ public class BestBinFirstSearch implements Searchable, Buildable {
     }
 
     public BestBinFirstSearch(int maxChecks, boolean useCosineSimilarity) {
+        this(maxChecks, useCosineSimilarity, VectorPrecision.FLOAT64);
+    }
+
+    public BestBinFirstSearch(int maxChecks, boolean useCosineSimilarity, VectorPrecision precision) {
+        this(maxChecks, useCosineSimilarity ? DistanceMetrics.COSINE : DistanceMetrics.EUCLIDEAN, precision);
+    }
+
+    /**
+     * @param maxChecks The maximum number of vectors compared per query.
+     * @param metric    The distance used to rank results.
+     * @param precision The in-memory representation of the indexed vectors.
+     */
+    public BestBinFirstSearch(int maxChecks, DistanceMetric metric, VectorPrecision precision) {
+        this(maxChecks, metric, precision, 1);
+    }
+
+    /**
+     * @param maxChecks     The maximum number of distinct vectors compared per query, across all trees.
+     * @param metric        The distance used to rank results.
+     * @param precision     The in-memory representation of the indexed vectors.
+     * @param numberOfTrees The number of randomized trees; 1 builds a single tree that always
+     *                      splits on the highest-variance dimension.
+     * @throws IllegalArgumentException if maxChecks or numberOfTrees is not positive, or metric is null.
+     */
+    public BestBinFirstSearch(int maxChecks, DistanceMetric metric, VectorPrecision precision, int numberOfTrees) {
+        this(maxChecks, metric, precision, numberOfTrees, KDTreeBuilder.DEFAULT_LEAF_SIZE);
+    }
+
+    /**
+     * @param maxChecks     The maximum number of distinct vectors compared per query, across all trees.
+     * @param metric        The distance used to rank results.
+     * @param precision     The in-memory representation of the indexed vectors.
+     * @param numberOfTrees The number of randomized trees.
+     * @param leafSize      The largest number of vectors in a leaf; leaves are scanned whole.
+     * @throws IllegalArgumentException if maxChecks, numberOfTrees or leafSize is not positive, or metric is null.
+     */
+    public BestBinFirstSearch(int maxChecks, DistanceMetric metric, VectorPrecision precision, int numberOfTrees,
+                              int leafSize) {
         if (maxChecks <= 0) {
             throw new IllegalArgumentException("maxChecks must be positive");
         }
+        if (metric == null) {
+            throw new IllegalArgumentException("Distance metric cannot be null");
+        }
+        if (numberOfTrees <= 0) {
+            throw new IllegalArgumentException("Number of trees must be positive");
+        }
+        if (leafSize <= 0) {
+            throw new IllegalArgumentException("Leaf size must be positive");
+        }
         this.maxChecks = maxChecks;
-        this.useCosineSimilarity = useCosineSimilarity;
+        this.numberOfTrees = numberOfTrees;
+        this.leafSize = leafSize;
+        this.metric = metric;
+        this.store = VectorStore.create(precision);
     }
 
     @Override
     public void buildIndex(List<ImageFeature> features) {
         if (features == null || features.isEmpty()) {
             log.warn("Building index with null or empty feature list");
-            this.root = null;
+            lock.writeLock().lock();
+            try {
+                store.clear();
+                publish(new FlatKDTree[0], 0);
+            } finally {
+                lock.writeLock().unlock();
+            }
             return;
         }
+        checkCapacity(features.size());
 
-        log.info("Building K-D tree index with {} features", features.size());
-        KDTreeBuilder builder = new KDTreeBuilder();
-        this.root = builder.getKDTreeRoot(features);
+        log.info("Building {} K-D tree(s) with {} features", numberOfTrees, features.size());
+        lock.writeLock().lock();
+        try {
+            store.replaceAll(features);
+            int[] ordinals = new int[store.size()];
+            for (int i = 0; i < ordinals.length; i++) {
+                ordinals[i] = i;
+            }
+            publish(buildLevel(ordinals), ordinals.length);
+        } finally {
+            lock.writeLock().unlock();
+        }
         log.info("K-D tree index built successfully");
     }
 
+    /**
+     * Adds a vector to the index. It is scanned directly by every query until
+     * {@value #INSERT_BUFFER_SIZE} such vectors have accumulated; they are then built into
+     * a tree, merged with every existing level no larger than them. Queries running
+     * meanwhile keep searching the trees they started with.
+     *
+     * @param feature The ImageFeature to add.
+     * @throws IllegalArgumentException if feature is null, or its dimensionality differs from the index's.
+     */
+    @Override
+    public void insert(ImageFeature feature) {
+        if (feature == null) {
+            throw new IllegalArgumentException("Feature cannot be null");
+        }
+
+        lock.writeLock().lock();
+        try {
+            checkCapacity(store.size() + 1);
+            store.add(feature);
+            IndexView current = view;
+            FlatKDTree[] trees = current != null ? current.trees : new FlatKDTree[0];
+            int indexedCount = current != null ? current.indexedCount : 0;
+            if (store.size() - indexedCount >= INSERT_BUFFER_SIZE) {
+                trees = flush(trees, indexedCount);
+                indexedCount = store.size();
+            }
+            publish(trees, indexedCount);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Builds the inserted vectors not yet in a tree into a new level, folding in every
+     * level no larger than the level being built, as in a binary counter. Each merge at
+     * least doubles the size of the level a vector is in, so a vector is rebuilt at most
+     * a logarithmic number of times.
+     *
+     * @return The trees of the new levels, largest first.
+     */
+    private FlatKDTree[] flush(FlatKDTree[] trees, int indexedCount) {
+        int levels = trees.length / numberOfTrees;
+        int kept = levels;
+        int merged = store.size() - indexedCount;
+        while (kept > 0 && trees[(kept - 1) * numberOfTrees].size() <= merged) {
+            kept--;
+            merged += trees[kept * numberOfTrees].size();
+        }
+
+        int[] ordinals = new int[merged];
+        int filled = 0;
+        for (int ordinal = indexedCount; ordinal < store.size(); ordinal++) {
+            ordinals[filled++] = ordinal;
+        }
+        for (int level = kept; level < levels; level++) {
+            // Every tree of a level holds the same vectors
+            FlatKDTree tree = trees[level * numberOfTrees];
+            for (int position = 0; position < tree.size(); position++) {
+                ordinals[filled++] = tree.ordinalAt(position);
+            }
+        }
+        log.debug("Merging {} inserted vectors and {} levels into a level of {}",
+                store.size() - indexedCount, levels - kept, merged);
+
+        FlatKDTree[] result = Arrays.copyOf(trees, (kept + 1) * numberOfTrees);
+        System.arraycopy(buildLevel(ordinals), 0, result, kept * numberOfTrees, numberOfTrees);
+        return result;
+    }
+
+    /**
+     * Builds the trees of one level over the given vectors.
+     *
+     * @param ordinals The vectors to index; owned by the first tree.
+     */
+    private FlatKDTree[] buildLevel(int[] ordinals) {
+        if (numberOfTrees == 1) {
+            return new FlatKDTree[]{new KDTreeBuilder(ForkJoinPool.commonPool(), 1, 0L, leafSize).build(store, ordinals)};
+        }
+        // Each tree draws its axes with its own seed, so rebuilds over the same data are reproducible
+        return IntStream.range(0, numberOfTrees).parallel()
+                .mapToObj(tree -> new KDTreeBuilder(ForkJoinPool.commonPool(), RANDOM_CANDIDATE_AXES, tree, leafSize)
+                        .build(store, tree == 0 ? ordinals : ordinals.clone()))
+                .toArray(FlatKDTree[]::new);
+    }
+
+    /**
+     * Publishes the trees together with a view of the store as it is now; called with the write lock held.
+     */
+    private void publish(FlatKDTree[] trees, int indexedCount) {
+        VectorStore snapshot = store.snapshot();
+        this.view = new IndexView(snapshot != null ? snapshot : store, snapshot != null, trees, indexedCount);
+    }
+
+    /**
+     * The branch queue numbers the nodes of all trees consecutively in one int; a tree over
+     * n vectors has fewer than 2n nodes.
+     */
+    private void checkCapacity(int size) {
+        if (2L * size * numberOfTrees > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many features for " + numberOfTrees + " trees");
+        }
+    }
+
     @Override
     public List<ImageFeature> query(double[] queryVector, int k) {
+        return ScoredHit.features(queryScored(queryVector, k, null));
+    }
+
+    /**
+     * Counts every internal node and leaf passed through as visited. Each vector compared
+     * counts against {@code maxChecks}, and the search stops once the leaf that reaches the
+     * budget has been scanned. The trees of a forest share their vectors, so a vector is
+     * only compared on its first visit. Vectors inserted since the last merge are compared
+     * first, outside the budget, so the trees always get all of {@code maxChecks}; they are
+     * still counted in the stats.
+     */
+    @Override
+    public List<ScoredHit<ImageFeature>> queryScored(double[] queryVector, int k, SearchStats stats) {
         if (queryVector == null || queryVector.length == 0) {
             throw new IllegalArgumentException("Query vector cannot be null or empty");
         }
         if (k <= 0) {
             throw new IllegalArgumentException("k must be positive");
         }
-        if (root == null) {
-            throw new IllegalStateException("Index has not been built or is empty");
+
+        // Views over store snapshots are searched without the lock, so inserts and queries
+        // never wait for each other; a query sees the index as published when it starts
+        IndexView current = view;
+        if (current == null || current.concurrent) {
+            return search(current, queryVector, k, stats);
+        }
+        lock.readLock().lock();
+        try {
+            return search(view, queryVector, k, stats);
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        PriorityQueue<HeapNode> searchQueue = new PriorityQueue<>();
-        PriorityQueue<Map.Entry<ImageFeature, Double>> resultHeap =
-                new PriorityQueue<>(Map.Entry.comparingByValue(Collections.reverseOrder()));
-        Set<KDNode> visited = new HashSet<>();
+    private List<ScoredHit<ImageFeature>> search(IndexView current, double[] queryVector, int k, SearchStats stats) {
+        if (current == null || current.size() == 0) {
+            throw new IllegalStateException("Index has not been built or is empty");
+        }
 
-        searchQueue.add(new HeapNode(root, 0.0));
+        VectorStore vectors = current.vectors;
+        PreparedQuery preparedQuery = PreparedQuery.of(queryVector);
+        QueryScorer scorer = vectors.scorer(metric, preparedQuery);
+        RegionBound bound = regionBound(preparedQuery, vectors);
+        double[] point = metric == DistanceMetrics.COSINE ? preparedQuery.getNormalized() : queryVector;
+        TopK resultHeap = new TopK(k);
+        SearchScratch state = scratch.get();
+        state.begin(vectors.size(), vectors.getDimensions());
         int checks = 0;
+        int nodesVisited = 0;
 
-        while (!searchQueue.isEmpty() && checks < maxChecks) {
-            HeapNode current = searchQueue.poll();
-            KDNode node = current.node;
+        // At most INSERT_BUFFER_SIZE vectors, so the budget is left to the trees
+        int buffered = current.size() - current.indexedCount;
+        for (int ordinal = current.indexedCount; ordinal < current.size(); ordinal++) {
+            resultHeap.offer(ordinal, scorer.surrogate(ordinal));
+        }
 
-            if (visited.contains(node)) continue;
-            visited.add(node);
-            checks++;
+        // One queue for all trees, so the budget goes to the most promising branches of any of them
+        IntMinHeap branches = state.branches;
+        FlatKDTree[] trees = current.trees;
+        for (int tree = 0; tree < trees.length; tree++) {
+            branches.offer(current.nodeBase[tree] + trees[tree].root(), bound.of(0.0));
+        }
+
+        while (!branches.isEmpty() && (exact || checks < maxChecks)) {
+            // Branches come out in order of their bound, so once one cannot improve the results none can
+            if (bound.prunes && branches.peekPriority() > resultHeap.threshold()) {
+                break;
+            }
+            int branch = branches.poll();
+            int treeIndex = current.treeOf(branch);
+            FlatKDTree tree = trees[treeIndex];
+            int base = current.nodeBase[treeIndex];
+            int node = branch - base;
+            double termSum = state.enter(tree, node, point, bound);
 
-            ImageFeature feature = node.getFeature();
-            double distance = useCosineSimilarity
-                    ? FeatureUtils.cosineDistance(queryVector, feature.getFeatureVector())
-                    : FeatureUtils.euclideanDistance(queryVector, feature.getFeatureVector());
+            // Descend to the query's leaf, leaving the far side of every split in the queue
+            while (!tree.isLeaf(node)) {
+                nodesVisited++;
+                int axis = tree.axis(node);
+                double diff = point[axis] - tree.splitValue(node);
+                boolean goLeft = diff < 0;
+                double farBound = bound.of(termSum + state.widening(axis, Math.abs(diff), bound));
+                if (!(bound.prunes && farBound > resultHeap.threshold())) {
+                    branches.offer(base + (goLeft ? tree.right(node) : tree.left(node)), farBound);
+                }
+                node = goLeft ? tree.left(node) : tree.right(node);
+            }
+            nodesVisited++;
 
-            resultHeap.offer(Map.entry(feature, distance));
-            if (resultHeap.size() > k) {
-                resultHeap.poll();
+            // Levels hold disjoint vectors; only the trees of a forest level can reach one twice
+            for (int position = tree.leafStart(node), end = tree.leafEnd(node); position < end; position++) {
+                int ordinal = tree.ordinalAt(position);
+                if (numberOfTrees == 1 || state.firstVisit(ordinal)) {
+                    checks++;
+                    resultHeap.offer(ordinal, scorer.surrogate(ordinal));
+                }
             }
+        }
+
+        if (stats != null) {
+            stats.addNodesVisited(nodesVisited);
+            stats.addCandidatesExamined(buffered + checks);
+            stats.addDistanceEvaluations(buffered + checks);
+        }
+
+        int[] ordinals = new int[resultHeap.size()];
+        double[] surrogates = new double[ordinals.length];
+        resultHeap.drainTo(ordinals, surrogates);
+        List<ScoredHit<ImageFeature>> results = new ArrayList<>(ordinals.length);
+        for (int i = 0; i < ordinals.length; i++) {
+            ImageFeature feature = vectors.getFeature(ordinals[i]);
+            results.add(new ScoredHit<>(ordinals[i], feature.getImageId(), metric.toDistance(surrogates[i]), feature));
+        }
+        return results;
+    }
 
-            int axis = node.getAxis();
-            double splitValue = feature.getFeatureVector()[axis];
-            double queryValue = queryVector[axis];
+    /**
+     * Walks the trees, skipping a subtree when the lower bound over its region already
+     * exceeds the radius. The walk is exact rather than limited to {@code maxChecks}
+     * vectors, since a near-duplicate check must not miss matches. Where the bound does not
+     * hold, as for cosine distance over vectors that are not unit length, every vector is
+     * compared. Each level of a forest is answered from its first tree, which holds all of
+     * the level's vectors, and vectors inserted since the last merge are compared directly.
+     *
+     * @throws IllegalArgumentException if queryVector is null or empty, or radius is NaN.
+     * @throws IllegalStateException    if the index has not been built.
+     */
+    @Override
+    public List<ScoredHit<ImageFeature>> rangeQuery(double[] queryVector, double radius, SearchStats stats) {
+        if (queryVector == null || queryVector.length == 0) {
+            throw new IllegalArgumentException("Query vector cannot be null or empty");
+        }
+        if (Double.isNaN(radius)) {
+            throw new IllegalArgumentException("Radius cannot be NaN");
+        }
 
-            KDNode nearChild = queryValue < splitValue ? node.getLeft() : node.getRight();
-            KDNode farChild = queryValue < splitValue ? node.getRight() : node.getLeft();
+        IndexView current = view;
+        if (current == null || current.concurrent) {
+            return rangeSearch(current, queryVector, radius, stats);
+        }
+        lock.readLock().lock();
+        try {
+            return rangeSearch(view, queryVector, radius, stats);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-            if (nearChild != null) {
-                searchQueue.offer(new HeapNode(nearChild, 0.0));
+    private List<ScoredHit<ImageFeature>> rangeSearch(IndexView current, double[] queryVector, double radius,
+                                                      SearchStats stats) {
+        if (current == null || current.size() == 0) {
+            throw new IllegalStateException("Index has not been built or is empty");
+        }
+
+        VectorStore vectors = current.vectors;
+        PreparedQuery preparedQuery = PreparedQuery.of(queryVector);
+        QueryScorer scorer = vectors.scorer(metric, preparedQuery);
+        RegionBound bound = regionBound(preparedQuery, vectors);
+        double[] point = metric == DistanceMetrics.COSINE ? preparedQuery.getNormalized() : queryVector;
+        double limit = metric.toSurrogate(radius);
+        SearchScratch state = scratch.get();
+        state.begin(vectors.size(), vectors.getDimensions());
+
+        RadiusHits hits = new RadiusHits();
+        int checks = 0;
+        int nodesVisited = 0;
+        for (int ordinal = current.indexedCount; ordinal < current.size(); ordinal++) {
+            checks++;
+            double distance = scorer.surrogate(ordinal);
+            if (distance <= limit) {
+                hits.add(ordinal, distance);
             }
+        }
+
+        for (int level = 0; level < current.trees.length; level += numberOfTrees) {
+            FlatKDTree tree = current.trees[level];
+            // Depth-first, a node's children replace it on the stack, so it never holds more than height + 1 nodes
+            int[] pending = new int[tree.height() + 1];
+            int top = 0;
+            pending[top++] = tree.root();
+
+            while (top > 0) {
+                int node = pending[--top];
+                nodesVisited++;
 
-            // Always check far child if within hyperplane distance
-            if (farChild != null) {
-                double diff = queryValue - splitValue;
-                double penalty = useCosineSimilarity ? 0.0 : diff * diff; // cosine doesn't need penalty
-                searchQueue.offer(new HeapNode(farChild, penalty));
+                if (tree.isLeaf(node)) {
+                    for (int position = tree.leafStart(node), end = tree.leafEnd(node); position < end; position++) {
+                        int ordinal = tree.ordinalAt(position);
+                        checks++;
+                        double distance = scorer.surrogate(ordinal);
+                        if (distance <= limit) {
+                            hits.add(ordinal, distance);
+                        }
+                    }
+                    continue;
+                }
+
+                // A child is skipped when the bound over its region already exceeds the radius
+                double termSum = state.enter(tree, node, point, bound);
+                int axis = tree.axis(node);
+                double diff = point[axis] - tree.splitValue(node);
+                double farBound = bound.of(termSum + state.widening(axis, Math.abs(diff), bound));
+                boolean skipFar = bound.prunes && farBound > limit;
+                if (!(skipFar && diff < 0)) {
+                    pending[top++] = tree.right(node);
+                }
+                if (!(skipFar && diff >= 0)) {
+                    pending[top++] = tree.left(node);
+                }
             }
         }
 
-        List<ImageFeature> results = new ArrayList<>();
-        resultHeap.stream()
-                .sorted(Map.Entry.comparingByValue())
-                .limit(k)
-                .forEachOrdered(entry -> results.add(entry.getKey()));
+        if (stats != null) {
+            stats.addNodesVisited(nodesVisited);
+            stats.addCandidatesExamined(checks);
+            stats.addDistanceEvaluations(checks);
+        }
 
+        hits.sort();
+        List<ScoredHit<ImageFeature>> results = new ArrayList<>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            ImageFeature feature = vectors.getFeature(hits.id(i));
+            results.add(new ScoredHit<>(hits.id(i), feature.getImageId(), metric.toDistance(hits.score(i)), feature));
+        }
         return results;
     }
+
+    /**
+     * Chooses how region distances bound the metric's surrogate for one query. Euclidean
+     * and Manhattan surrogates are sums over dimensions, so the terms of the split axes
+     * bound them directly. For unit-length vectors {@code x}, {@code -q.x} equals
+     * {@code (|q - x|^2 - |q|^2 - 1) / 2}, so the squared Euclidean distance from the region
+     * bounds inner-product distance, and with the normalized query, cosine distance.
+     */
+    private RegionBound regionBound(PreparedQuery query, VectorStore vectors) {
+        if (metric.supportsEarlyAbandon()) {
+            return new RegionBound(metric, 1.0, 0.0, true);
+        }
+        boolean unitVectors = vectors.isUnitNormalized() && query.hasDirection();
+        if (metric == DistanceMetrics.COSINE && unitVectors) {
+            return new RegionBound(null, 0.5, -1.0, true);
+        }
+        if (metric == DistanceMetrics.INNER_PRODUCT && unitVectors) {
+            double norm = query.getNorm();
+            return new RegionBound(null, 0.5, -(norm * norm + 1.0) / 2, true);
+        }
+        // No bound holds; squared region distances still order the branches
+        return new RegionBound(null, 1.0, 0.0, false);
+    }
+
+    /**
+     * @return Whether top-K queries run until no branch can improve the results rather
+     * than stopping after {@code maxChecks} vectors.
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Enables or disables exact top-K queries. An exact query compares vectors until the
+     * lower bound of every remaining branch exceeds the k-th best distance, so it returns
+     * the true nearest neighbours, usually after comparing a small part of the index in
+     * low dimensions. Where no bound holds, see the class description, it compares every
+     * vector. With {@link VectorPrecision#INT8} vectors the scores are approximate integer
+     * dot products and are not reranked, so results are only exact with respect to those
+     * scores, and the bound, taken from the decoded split values, may prune a true
+     * neighbour. Disabled by default.
+     *
+     * @param exact Whether queries ignore {@code maxChecks}.
+     */
+    public void setExact(boolean exact) {
+        this.exact = exact;
+    }
 }
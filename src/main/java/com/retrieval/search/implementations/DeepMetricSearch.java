@@ -1,40 +1,117 @@
 package com.retrieval.search.implementations;
 
+import com.retrieval.indexing.storage.BatchScorer;
+import com.retrieval.indexing.storage.QueryScorer;
+import com.retrieval.indexing.storage.VectorStore;
 import com.retrieval.models.ImageFeature;
-import com.retrieval.search.interfaces.Insertable;
-import com.retrieval.utils.FeatureUtils;
+import com.retrieval.models.ScoredHit;
+import com.retrieval.models.SearchStats;
+import com.retrieval.models.VectorPrecision;
 import com.retrieval.search.annotations.SearchCapabilities;
+import com.retrieval.search.execution.QueryExecutor;
 import com.retrieval.search.interfaces.Buildable;
+import com.retrieval.search.interfaces.RangeSearchable;
 import com.retrieval.search.interfaces.Searchable;
+import com.retrieval.search.interfaces.Updatable;
+import com.retrieval.utils.DimensionOrder;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.DistanceMetrics;
+import com.retrieval.utils.PreparedBatch;
+import com.retrieval.utils.PreparedQuery;
+import com.retrieval.utils.RadiusHits;
+import com.retrieval.utils.TopK;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.AbstractMap.SimpleEntry;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.function.IntPredicate;
 
 /**
  * Search class for deep learning visual embeddings
- * Performs brute force linear scan k-NN (k-nearest neighbors) search using cosine distance:
+ * Performs brute force linear scan k-NN (k-nearest neighbors) search, using cosine distance
+ * unless another {@link DistanceMetric} is given.
+ * Vectors are held in a {@link VectorStore} whose precision is chosen per index.
+ * With the float and double stores, queries scan a lock-free snapshot, so concurrent
+ * inserts neither block nor are blocked by queries; writers still exclude each other.
+ * <p>
+ * {@link #remove(String)} and {@link #upsert(ImageFeature)} mark replaced vectors in the
+ * store's tombstone bitset, which scans skip, and {@link #compact()} later copies the live
+ * vectors into fresh storage. The id-to-ordinal map used for removal is built on the first
+ * removal, so indexes that never remove anything do not pay for it.
  */
-@SearchCapabilities(insertable = true, buildable = true, searchable = true)
-public class DeepMetricSearch implements Searchable, Buildable, Insertable {
+@SearchCapabilities(insertable = true, deletable = true, buildable = true, searchable = true)
+public class DeepMetricSearch implements Searchable, RangeSearchable, Buildable, Updatable {
     private static final Logger log = LoggerFactory.getLogger(DeepMetricSearch.class);
 
-    private final List<ImageFeature> features = new ArrayList<>();
+    // Corpus bytes scored against every query of a batch at a time; well within a per-core L2 cache
+    private static final int BATCH_TILE_BYTES = 64 * 1024;
+
+    private final VectorStore store;
+    private final DistanceMetric metric;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private OrdinalsById ordinalsById; // Guarded by the write lock; null until the first removal
+    // Block order for early-abandoning scans and the store size it was sampled at; resampled
+    // as the store doubles. Only affects speed, so racing queries may both resample
+    private volatile DimensionOrder dimensionOrder;
+    private volatile int dimensionOrderBasis;
+    private volatile boolean earlyAbandon = false;
+    private volatile QueryExecutor queryExecutor = QueryExecutor.common();
+
+    public DeepMetricSearch() {
+        this(VectorPrecision.FLOAT64);
+    }
+
+    /**
+     * @param precision The in-memory representation of the indexed vectors.
+     */
+    public DeepMetricSearch(VectorPrecision precision) {
+        this(precision, DistanceMetrics.COSINE);
+    }
+
+    /**
+     * @param metric The distance used to rank results.
+     */
+    public DeepMetricSearch(DistanceMetric metric) {
+        this(VectorPrecision.FLOAT64, metric);
+    }
+
+    /**
+     * @param precision The in-memory representation of the indexed vectors.
+     * @param metric    The distance used to rank results.
+     */
+    public DeepMetricSearch(VectorPrecision precision, DistanceMetric metric) {
+        this(VectorStore.create(precision), metric);
+    }
+
+    /**
+     * Creates a search over a caller-configured store, e.g. a {@code QuantizedVectorStore}
+     * that keeps the original vectors for exact reranking. The store is cleared by
+     * {@link #buildIndex(List)} and must not be modified by other code.
+     *
+     * @param store  The store holding the indexed vectors.
+     * @param metric The distance used to rank results.
+     */
+    public DeepMetricSearch(VectorStore store, DistanceMetric metric) {
+        if (store == null) {
+            throw new IllegalArgumentException("Vector store cannot be null");
+        }
+        if (metric == null) {
+            throw new IllegalArgumentException("Distance metric cannot be null");
+        }
+        this.store = store;
+        this.metric = metric;
+    }
 
     @Override
     public void buildIndex(List<ImageFeature> featureList) {
         lock.writeLock().lock();
         try {
-            features.clear();
-            if (featureList != null) {
-                features.addAll(featureList);
-            }
-            log.info("Built index with {} items", features.size());
+            store.replaceAll(featureList != null ? featureList : Collections.emptyList());
+            ordinalsById = null;
+            dimensionOrder = null;
+            log.info("Built {} index with {} items", store.getPrecision(), store.size());
         } finally {
             lock.writeLock().unlock();
         }
@@ -48,7 +125,115 @@ public class DeepMetricSearch implements Searchable, Buildable, Insertable {
 
         lock.writeLock().lock();
         try {
-            features.add(feature);
+            indexed(feature.getImageId(), store.add(feature));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a single-precision vector, e.g. from {@code Extractable.extractFloat},
+     * without widening it to a double-precision {@link ImageFeature} first.
+     *
+     * @param imageId The image identifier.
+     * @param vector  The feature vector.
+     */
+    public void insert(String imageId, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            indexed(imageId, store.add(imageId, vector));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void indexed(String imageId, int ordinal) {
+        if (ordinalsById != null) {
+            ordinalsById.add(imageId, ordinal);
+        }
+    }
+
+    /**
+     * Marks every vector indexed under the id as deleted. Queries that start afterwards
+     * no longer return them; the space is reclaimed by {@link #compact()}.
+     *
+     * @param imageId The image identifier.
+     * @return true if at least one vector was removed.
+     * @throws UnsupportedOperationException if the store does not support deletes, e.g. a mapped store
+     */
+    @Override
+    public boolean remove(String imageId) {
+        lock.writeLock().lock();
+        try {
+            int[] removed = ordinalsById().remove(imageId);
+            for (int ordinal : removed) {
+                store.delete(ordinal);
+            }
+            return removed.length > 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts the feature and deletes the vectors previously indexed under its id. The
+     * new vector is published before the old ones are deleted, so a query running
+     * concurrently may briefly return both, but never neither.
+     */
+    @Override
+    public void upsert(ImageFeature feature) {
+        if (feature == null) {
+            throw new IllegalArgumentException("Feature cannot be null");
+        }
+        lock.writeLock().lock();
+        try {
+            OrdinalsById ordinals = ordinalsById();
+            int ordinal = store.add(feature);
+            for (int replaced : ordinals.remove(feature.getImageId())) {
+                store.delete(replaced);
+            }
+            ordinals.add(feature.getImageId(), ordinal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private OrdinalsById ordinalsById() {
+        if (ordinalsById == null) {
+            ordinalsById = OrdinalsById.build(store.size(), store::getImageId, store::isDeleted);
+        }
+        return ordinalsById;
+    }
+
+    @Override
+    public int deletedCount() {
+        return store.deletedCount();
+    }
+
+    @Override
+    public int storedCount() {
+        return store.size();
+    }
+
+    /**
+     * Copies the live vectors into fresh storage and renumbers them. With the float and
+     * double stores the copy is published atomically, so queries continue meanwhile;
+     * writers wait until it completes.
+     */
+    @Override
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            int deleted = store.deletedCount();
+            if (deleted == 0) {
+                return;
+            }
+            store.compact();
+            if (ordinalsById != null) {
+                ordinalsById = OrdinalsById.build(store.size(), store::getImageId, store::isDeleted);
+            }
+            log.info("Compacted {} index: reclaimed {} deleted vectors, {} remain",
+                    store.getPrecision(), deleted, store.size());
         } finally {
             lock.writeLock().unlock();
         }
@@ -56,6 +241,15 @@ public class DeepMetricSearch implements Searchable, Buildable, Insertable {
 
     @Override
     public List<ImageFeature> query(double[] queryVector, int k) {
+        return ScoredHit.features(queryScored(queryVector, k, null));
+    }
+
+    /**
+     * Reports every live vector as both examined and evaluated; with early abandoning,
+     * partial distances count as evaluations.
+     */
+    @Override
+    public List<ScoredHit<ImageFeature>> queryScored(double[] queryVector, int k, SearchStats stats) {
         if (queryVector == null || queryVector.length == 0) {
             throw new IllegalArgumentException("Query vector cannot be null or empty");
         }
@@ -63,49 +257,344 @@ public class DeepMetricSearch implements Searchable, Buildable, Insertable {
             throw new IllegalArgumentException("k must be positive");
         }
 
-        lock.readLock().lock();
-        try {
-            if (features.isEmpty()) {
-                return new ArrayList<>();
+        QueryExecutor executor = queryExecutor;
+        return executor.execute(() -> {
+            // Stores that support snapshots are scanned without the lock, so inserts and
+            // queries never wait for each other; a query sees the vectors published when it starts
+            VectorStore snapshot = store.snapshot();
+            if (snapshot != null) {
+                return search(snapshot, queryVector, k, executor, stats);
+            }
+            lock.readLock().lock();
+            try {
+                return search(store, queryVector, k, executor, stats);
+            } finally {
+                lock.readLock().unlock();
             }
+        });
+    }
 
-            // Performs k-NN (k-nearest neighbors) search using cosine distance:
-            return features.parallelStream()
-                    .map(feature -> new SimpleEntry<>(
-                            feature,
-                            FeatureUtils.cosineDistance(queryVector, feature.getFeatureVector())
-                    ))
-                    .sorted(Comparator.comparingDouble(SimpleEntry::getValue))
-                    .limit(k)
-                    .map(SimpleEntry::getKey)
-                    .collect(Collectors.toList());
-        } finally {
-            lock.readLock().unlock();
+    private List<ScoredHit<ImageFeature>> search(VectorStore vectors, double[] queryVector, int k,
+                                                 QueryExecutor executor, SearchStats stats) {
+        if (vectors.size() == 0) {
+            return new ArrayList<>();
         }
+
+        // Performs k-NN (k-nearest neighbors) search on surrogate distances:
+        // the query is prepared once and stored norms are reused, so each cosine
+        // comparison is a single dot product and no square roots are taken.
+        PreparedQuery preparedQuery = PreparedQuery.of(queryVector);
+        QueryScorer rerankScorer = vectors.rerankScorer(metric, preparedQuery);
+        int candidates = rerankScorer != null ? vectors.candidatePoolSize(k) : k;
+        IntPredicate excluded = vectors.deletedCount() > 0 ? vectors::isDeleted : null;
+        int parallelism = executor.scanParallelism((long) vectors.size() * vectors.getDimensions());
+
+        // Each worker keeps a bounded heap for its partition; the heaps are merged at the end
+        TopK nearest;
+        DimensionOrder order = rerankScorer == null ? dimensionOrder(vectors) : null;
+        if (order != null) {
+            // Exact sum-of-terms metrics: stop summing once a candidate is worse than the k-th best
+            QueryScorer scorer = vectors.boundedScorer(metric, preparedQuery, order);
+            nearest = TopK.selectBounded(vectors.size(), candidates, excluded, scorer::surrogate,
+                    executor.getPool(), parallelism);
+        } else {
+            QueryScorer scorer = vectors.scorer(metric, preparedQuery);
+            nearest = TopK.select(vectors.size(), candidates, excluded, scorer::surrogate,
+                    executor.getPool(), parallelism);
+        }
+        if (stats != null) {
+            long scanned = vectors.size() - vectors.deletedCount();
+            stats.addCandidatesExamined(scanned);
+            stats.addDistanceEvaluations(scanned);
+        }
+        return results(vectors, nearest, rerankScorer, k, stats);
+    }
+
+    /**
+     * Scans every live vector in parallel partitions, as {@link #query} does, and keeps
+     * those within the radius. With early abandoning enabled, Euclidean and Manhattan
+     * distances stop summing as soon as they exceed the radius, which rejects most vectors
+     * after a fraction of their dimensions when the radius is tight. Stores that rank
+     * approximately, e.g. quantized ones, select on approximate distances and then keep
+     * the candidates whose exact distance is within the radius, so items close to the
+     * radius may be missed.
+     *
+     * @throws IllegalArgumentException if queryVector is null or empty, or radius is NaN.
+     */
+    @Override
+    public List<ScoredHit<ImageFeature>> rangeQuery(double[] queryVector, double radius, SearchStats stats) {
+        if (queryVector == null || queryVector.length == 0) {
+            throw new IllegalArgumentException("Query vector cannot be null or empty");
+        }
+        if (Double.isNaN(radius)) {
+            throw new IllegalArgumentException("Radius cannot be NaN");
+        }
+
+        QueryExecutor executor = queryExecutor;
+        return executor.execute(() -> {
+            VectorStore snapshot = store.snapshot();
+            if (snapshot != null) {
+                return rangeSearch(snapshot, queryVector, radius, executor, stats);
+            }
+            lock.readLock().lock();
+            try {
+                return rangeSearch(store, queryVector, radius, executor, stats);
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    private List<ScoredHit<ImageFeature>> rangeSearch(VectorStore vectors, double[] queryVector, double radius,
+                                                      QueryExecutor executor, SearchStats stats) {
+        if (vectors.size() == 0) {
+            return new ArrayList<>();
+        }
+
+        PreparedQuery preparedQuery = PreparedQuery.of(queryVector);
+        QueryScorer rerankScorer = vectors.rerankScorer(metric, preparedQuery);
+        IntPredicate excluded = vectors.deletedCount() > 0 ? vectors::isDeleted : null;
+        int parallelism = executor.scanParallelism((long) vectors.size() * vectors.getDimensions());
+        double bound = metric.toSurrogate(radius);
+
+        DimensionOrder order = rerankScorer == null ? dimensionOrder(vectors) : null;
+        QueryScorer scorer = order != null
+                ? vectors.boundedScorer(metric, preparedQuery, order)
+                : vectors.scorer(metric, preparedQuery);
+        RadiusHits hits = RadiusHits.select(vectors.size(), bound, excluded, scorer::surrogate,
+                executor.getPool(), parallelism);
+        long evaluations = vectors.size() - vectors.deletedCount();
+        if (stats != null) {
+            stats.addCandidatesExamined(evaluations);
+        }
+
+        // Approximate (quantized) stores: keep the candidates that are within the radius exactly
+        if (rerankScorer != null) {
+            RadiusHits exact = new RadiusHits(hits.size());
+            for (int i = 0; i < hits.size(); i++) {
+                double surrogate = rerankScorer.surrogate(hits.id(i));
+                if (surrogate <= bound) {
+                    exact.add(hits.id(i), surrogate);
+                }
+            }
+            evaluations += hits.size();
+            hits = exact;
+        }
+        if (stats != null) {
+            stats.addDistanceEvaluations(evaluations);
+        }
+
+        hits.sort();
+        List<ScoredHit<ImageFeature>> results = new ArrayList<>(hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            ImageFeature feature = vectors.getFeature(hits.id(i));
+            results.add(new ScoredHit<>(hits.id(i), feature.getImageId(), metric.toDistance(hits.score(i)), feature));
+        }
+        return results;
+    }
+
+    /**
+     * @return The order in which early-abandoning scans visit dimensions, or null if
+     * early abandoning is disabled or does not apply to the metric.
+     */
+    private DimensionOrder dimensionOrder(VectorStore vectors) {
+        if (!earlyAbandon || !metric.supportsEarlyAbandon()) {
+            return null;
+        }
+        DimensionOrder order = dimensionOrder;
+        int size = vectors.size();
+        if (order == null || order.getDimensions() != vectors.getDimensions() || size >= 2 * dimensionOrderBasis) {
+            order = DimensionOrderSampler.sample(vectors);
+            dimensionOrderBasis = Math.max(size, DimensionOrderSampler.SAMPLE_SIZE);
+            dimensionOrder = order;
+        }
+        return order;
+    }
+
+    /**
+     * Answers several queries in one pass over the corpus. The corpus is scored in tiles of
+     * about {@value #BATCH_TILE_BYTES} bytes, and every query is compared against a tile
+     * while it is in cache, so the vectors are read from memory once per batch instead of
+     * once per query; with float and double stores each row is also compared against
+     * four queries per load. Results match calling {@link #query(double[], int)} for each
+     * query up to floating-point rounding.
+     *
+     * @param queryVectors The feature vectors of the query images.
+     * @param k            The number of similar images to retrieve per query.
+     * @return One list of results per query, in query order.
+     */
+    @Override
+    public List<List<ImageFeature>> queryBatch(double[][] queryVectors, int k) {
+        if (queryVectors == null) {
+            throw new IllegalArgumentException("Query vectors cannot be null");
+        }
+        for (double[] queryVector : queryVectors) {
+            if (queryVector == null || queryVector.length == 0) {
+                throw new IllegalArgumentException("Query vector cannot be null or empty");
+            }
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+
+        QueryExecutor executor = queryExecutor;
+        return executor.execute(() -> {
+            VectorStore snapshot = store.snapshot();
+            if (snapshot != null) {
+                return searchBatch(snapshot, queryVectors, k, executor);
+            }
+            lock.readLock().lock();
+            try {
+                return searchBatch(store, queryVectors, k, executor);
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    private List<List<ImageFeature>> searchBatch(VectorStore vectors, double[][] queryVectors, int k,
+                                                 QueryExecutor executor) {
+        List<List<ImageFeature>> results = new ArrayList<>(queryVectors.length);
+        if (vectors.size() == 0 || queryVectors.length == 0) {
+            for (int i = 0; i < queryVectors.length; i++) {
+                results.add(new ArrayList<>());
+            }
+            return results;
+        }
+
+        PreparedBatch batch = PreparedBatch.of(queryVectors);
+        BatchScorer scorer = vectors.batchScorer(metric, batch);
+        QueryScorer[] rerankScorers = new QueryScorer[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            rerankScorers[i] = vectors.rerankScorer(metric, batch.get(i));
+        }
+        int candidates = rerankScorers[0] != null ? vectors.candidatePoolSize(k) : k;
+        // A tile holds the rows and one score per query for each of them
+        long rowBytes = (long) vectors.getDimensions() * vectors.getPrecision().getBytesPerComponent()
+                + (long) batch.size() * Double.BYTES;
+        int tileSize = (int) Math.max(1, BATCH_TILE_BYTES / rowBytes);
+
+        int parallelism = executor.scanParallelism((long) vectors.size() * vectors.getDimensions() * batch.size());
+        TopK[] nearest = TopK.selectBatch(vectors.size(), candidates,
+                vectors.deletedCount() > 0 ? vectors::isDeleted : null, batch.size(), scorer::surrogates, tileSize,
+                executor.getPool(), parallelism);
+        for (int i = 0; i < queryVectors.length; i++) {
+            results.add(ScoredHit.features(results(vectors, nearest[i], rerankScorers[i], k, null)));
+        }
+        return results;
+    }
+
+    /**
+     * Reranks the candidates if the store ranks approximately, and materializes them best first.
+     */
+    private List<ScoredHit<ImageFeature>> results(VectorStore vectors, TopK candidates, QueryScorer rerankScorer,
+                                                  int k, SearchStats stats) {
+        int[] ordinals = new int[candidates.size()];
+        double[] surrogates = new double[candidates.size()];
+        int count = candidates.drainTo(ordinals, surrogates);
+
+        // Approximate (quantized) stores: rerank the candidates on exact distances
+        if (rerankScorer != null) {
+            TopK reranked = new TopK(k);
+            for (int i = 0; i < count; i++) {
+                reranked.offer(ordinals[i], rerankScorer.surrogate(ordinals[i]));
+            }
+            if (stats != null) {
+                stats.addDistanceEvaluations(count);
+            }
+            count = reranked.drainTo(ordinals, surrogates);
+        }
+
+        List<ScoredHit<ImageFeature>> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ImageFeature feature = vectors.getFeature(ordinals[i]);
+            results.add(new ScoredHit<>(ordinals[i], feature.getImageId(), metric.toDistance(surrogates[i]), feature));
+        }
+        return results;
     }
 
     /**
      * Get the current size of the index.
-     * @return Number of features in the index
+     * @return Number of features in the index, not counting removed ones
      */
     public int size() {
         lock.readLock().lock();
         try {
-            return features.size();
+            return store.size() - store.deletedCount();
         } finally {
             lock.readLock().unlock();
         }
     }
 
+    /**
+     * @return The in-memory representation of the indexed vectors.
+     */
+    public VectorPrecision getPrecision() {
+        return store.getPrecision();
+    }
+
+    /**
+     * @return The distance used to rank results.
+     */
+    public DistanceMetric getMetric() {
+        return metric;
+    }
+
+    /**
+     * @return The executor that schedules this index's scans.
+     */
+    public QueryExecutor getQueryExecutor() {
+        return queryExecutor;
+    }
+
+    /**
+     * Sets the executor whose pool scans the index and which decides how many workers a
+     * scan may use. Queries still run on the calling thread; use
+     * {@link QueryExecutor#submit} to run them on the executor's pool.
+     *
+     * @param queryExecutor The executor, or null for {@link QueryExecutor#common()}.
+     */
+    public void setQueryExecutor(QueryExecutor queryExecutor) {
+        this.queryExecutor = queryExecutor != null ? queryExecutor : QueryExecutor.common();
+    }
+
+    /**
+     * @return Whether single queries stop computing a candidate's distance once it exceeds the k-th best so far.
+     */
+    public boolean isEarlyAbandon() {
+        return earlyAbandon;
+    }
+
+    /**
+     * Enables or disables early abandoning for metrics that support it (Euclidean and
+     * Manhattan). Each candidate's distance is summed in blocks of
+     * {@value DimensionOrder#BLOCK_SIZE} dimensions, highest-variance blocks first, and the
+     * candidate is dropped as soon as the partial sum exceeds the current k-th best
+     * distance. Results are unchanged up to floating-point rounding.
+     * <p>
+     * This pays off when most candidates are far from the query in a few dominant
+     * directions, e.g. clustered, high-dimensional embeddings. On isotropic data nearly
+     * every block is visited and the checks make scans slower, and with SIMD kernels the
+     * scan is often limited by memory bandwidth anyway, so it is disabled by default.
+     * Batch queries and stores that rerank, e.g. quantized ones, always compute full distances.
+     *
+     * @param earlyAbandon Whether to abandon candidates early.
+     */
+    public void setEarlyAbandon(boolean earlyAbandon) {
+        this.earlyAbandon = earlyAbandon;
+    }
+
     /**
      * Clear all features from the index.
      */
     public void clear() {
         lock.writeLock().lock();
         try {
-            features.clear();
+            store.clear();
+            ordinalsById = null;
+            dimensionOrder = null;
         } finally {
             lock.writeLock().unlock();
         }
     }
-}
\ No newline at end of file
+}
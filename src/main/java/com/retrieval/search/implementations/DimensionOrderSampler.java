@@ -0,0 +1,51 @@
+package com.retrieval.search.implementations;
+
+import com.retrieval.indexing.storage.VectorStore;
+import com.retrieval.utils.DimensionOrder;
+
+/**
+ * Chooses the {@link DimensionOrder} for early-abandoning scans from the per-dimension
+ * variance of an evenly spaced sample of the stored vectors. The order only affects how
+ * soon a scan can abandon a candidate, never its results, so a sample that is slightly
+ * out of date is harmless.
+ */
+final class DimensionOrderSampler {
+    // Enough rows for stable variance estimates; sampling stays cheap next to a single scan
+    static final int SAMPLE_SIZE = 4096;
+
+    private DimensionOrderSampler() {
+    }
+
+    /**
+     * @param vectors The store to sample; must not be empty.
+     * @return The blocks of the store's dimensions ordered by descending sampled variance.
+     */
+    static DimensionOrder sample(VectorStore vectors) {
+        int size = vectors.size();
+        int dimensions = vectors.getDimensions();
+        int step = Math.max(1, size / SAMPLE_SIZE);
+        double[] mean = new double[dimensions];
+        double[] m2 = new double[dimensions];
+        int count = 0;
+        // Welford's update, one dimension at a time
+        for (int ordinal = 0; ordinal < size; ordinal += step) {
+            if (vectors.isDeleted(ordinal)) {
+                continue;
+            }
+            count++;
+            for (int d = 0; d < dimensions; d++) {
+                double value = vectors.valueAt(ordinal, d);
+                double delta = value - mean[d];
+                mean[d] += delta / count;
+                m2[d] += delta * (value - mean[d]);
+            }
+        }
+        if (count < 2) {
+            return DimensionOrder.natural(dimensions);
+        }
+        for (int d = 0; d < dimensions; d++) {
+            m2[d] /= count - 1;
+        }
+        return DimensionOrder.byVariance(m2);
+    }
+}
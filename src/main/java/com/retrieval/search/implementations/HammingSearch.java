@@ -0,0 +1,415 @@
+package com.retrieval.search.implementations;
+
+import com.retrieval.models.BinaryFeature;
+import com.retrieval.models.ScoredHit;
+import com.retrieval.models.SearchStats;
+import com.retrieval.search.annotations.SearchCapabilities;
+import com.retrieval.search.execution.QueryExecutor;
+import com.retrieval.search.interfaces.BinarySearchable;
+import com.retrieval.search.interfaces.Deletable;
+import com.retrieval.utils.FeatureUtils;
+import com.retrieval.utils.Tombstones;
+import com.retrieval.utils.TopK;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * Search class for binary descriptors such as ORB, compared by Hamming distance.
+ * Descriptors are kept packed in one contiguous {@code long[]} (four words per 256-bit
+ * ORB descriptor, 64x smaller than the equivalent {@code double[]}), and each comparison
+ * is an XOR and a popcount per word.
+ * <p>
+ * By default every query scans all descriptors. When constructed with a number of hash
+ * tables, the index also performs bit-sampling LSH: each table hashes a descriptor by a
+ * fixed random subset of its bits, and only descriptors sharing a bucket with the query in
+ * at least one table are compared. Large candidate sets are scored in partitions on the
+ * pool of the {@linkplain #setQueryExecutor(QueryExecutor) query executor}, which decides
+ * how many workers a scan may use.
+ * <p>
+ * Removed descriptors are marked in a tombstone bitset and skipped by queries until
+ * {@link #compact()} rewrites the packed array without them.
+ */
+@SearchCapabilities(insertable = true, deletable = true, buildable = true, searchable = true)
+public class HammingSearch implements BinarySearchable, Deletable {
+    private static final Logger log = LoggerFactory.getLogger(HammingSearch.class);
+
+    private final int numberOfHashTables; // L parameter in LSH, 0 for a brute-force index
+    private final int bitsPerHash; // K parameter in LSH, number of sampled bits per table
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<String> imageIds = new ArrayList<>();
+    private long[] words = new long[0];
+    private int wordsPerDescriptor = 0;
+    private int bitLength = 0;
+    private int[][] sampledBits; // Bit positions hashed by each table
+    private final List<Map<Long, List<Integer>>> hashTables = new ArrayList<>();
+    private Tombstones deleted = new Tombstones();
+    private OrdinalsById ordinalsById; // Null until the first removal
+    private volatile QueryExecutor queryExecutor = QueryExecutor.common();
+
+    /**
+     * Creates a brute-force index that compares the query against every descriptor.
+     */
+    public HammingSearch() {
+        this.numberOfHashTables = 0;
+        this.bitsPerHash = 0;
+    }
+
+    /**
+     * Creates an index that narrows candidates with bit-sampling LSH.
+     *
+     * @param numberOfHashTables The number of independent hash tables to use (L).
+     * @param bitsPerHash        The number of sampled bits per table (K), at most 64.
+     * @throws IllegalArgumentException if either parameter is out of range.
+     */
+    public HammingSearch(int numberOfHashTables, int bitsPerHash) {
+        if (numberOfHashTables <= 0 || bitsPerHash <= 0 || bitsPerHash > Long.SIZE) {
+            throw new IllegalArgumentException("Number of hash tables must be positive and bits per hash in 1..64");
+        }
+        this.numberOfHashTables = numberOfHashTables;
+        this.bitsPerHash = bitsPerHash;
+    }
+
+    /**
+     * Builds the index from a list of binary features, replacing any previous content.
+     *
+     * @param features The features to index; all must have the same bit length.
+     */
+    public void buildIndex(List<BinaryFeature> features) {
+        lock.writeLock().lock();
+        try {
+            clearIndex();
+            if (features == null || features.isEmpty()) {
+                log.warn("Building Hamming index with null or empty feature list. Index will be empty.");
+                return;
+            }
+            words = new long[features.size() * features.get(0).getWordCount()];
+            for (BinaryFeature feature : features) {
+                append(feature);
+            }
+            log.info("Built Hamming index with {} {}-bit descriptors{}", imageIds.size(), bitLength,
+                    isHashed() ? String.format(" (%d tables x %d bits)", numberOfHashTables, bitsPerHash) : "");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a single binary feature.
+     *
+     * @param feature The feature to add; its bit length must match the indexed descriptors.
+     */
+    public void insert(BinaryFeature feature) {
+        lock.writeLock().lock();
+        try {
+            int ordinal = append(feature);
+            if (ordinalsById != null) {
+                ordinalsById.add(feature.getImageId(), ordinal);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a binary feature, replacing any descriptors already indexed under its image id.
+     *
+     * @param feature The feature to add; its bit length must match the indexed descriptors.
+     */
+    public void upsert(BinaryFeature feature) {
+        lock.writeLock().lock();
+        try {
+            OrdinalsById ordinals = ordinalsById();
+            int ordinal = append(feature);
+            for (int replaced : ordinals.remove(feature.getImageId())) {
+                deleted.add(replaced);
+            }
+            ordinals.add(feature.getImageId(), ordinal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String imageId) {
+        lock.writeLock().lock();
+        try {
+            int[] removed = ordinalsById().remove(imageId);
+            for (int ordinal : removed) {
+                deleted.add(ordinal);
+            }
+            return removed.length > 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private OrdinalsById ordinalsById() {
+        if (ordinalsById == null) {
+            ordinalsById = OrdinalsById.build(imageIds.size(), imageIds::get, deleted::contains);
+        }
+        return ordinalsById;
+    }
+
+    @Override
+    public int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deleted.count();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int storedCount() {
+        lock.readLock().lock();
+        try {
+            return imageIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the descriptors and hash tables without the removed descriptors. The
+     * sampled bit positions are kept, so bucket assignments do not change.
+     */
+    @Override
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            int removed = deleted.count();
+            if (removed == 0) {
+                return;
+            }
+            if (removed == imageIds.size()) {
+                clearIndex();
+                log.info("Compacted Hamming index: reclaimed {} removed descriptors, none remain", removed);
+                return;
+            }
+            int live = 0;
+            for (int ordinal = 0; ordinal < imageIds.size(); ordinal++) {
+                if (!deleted.contains(ordinal)) {
+                    System.arraycopy(words, ordinal * wordsPerDescriptor, words, live * wordsPerDescriptor, wordsPerDescriptor);
+                    imageIds.set(live++, imageIds.get(ordinal));
+                }
+            }
+            imageIds.subList(live, imageIds.size()).clear();
+            words = Arrays.copyOf(words, live * wordsPerDescriptor);
+            deleted = new Tombstones();
+            if (isHashed()) {
+                for (int table = 0; table < numberOfHashTables; table++) {
+                    Map<Long, List<Integer>> buckets = new HashMap<>();
+                    for (int ordinal = 0; ordinal < live; ordinal++) {
+                        buckets.computeIfAbsent(hash(words, ordinal * wordsPerDescriptor, sampledBits[table]),
+                                key -> new ArrayList<>()).add(ordinal);
+                    }
+                    hashTables.set(table, buckets);
+                }
+            }
+            if (ordinalsById != null) {
+                ordinalsById = OrdinalsById.build(live, imageIds::get, deleted::contains);
+            }
+            log.info("Compacted Hamming index: reclaimed {} removed descriptors, {} remain", removed, live);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int append(BinaryFeature feature) {
+        if (feature == null) {
+            throw new IllegalArgumentException("Feature cannot be null");
+        }
+        if (imageIds.isEmpty()) {
+            wordsPerDescriptor = feature.getWordCount();
+            bitLength = feature.getBitLength();
+            initHashTables();
+        } else if (feature.getBitLength() != bitLength || feature.getWordCount() != wordsPerDescriptor) {
+            throw new IllegalArgumentException(
+                    String.format("Inconsistent descriptor length. Expected %d bits, got %d.",
+                            bitLength, feature.getBitLength()));
+        }
+
+        int ordinal = imageIds.size();
+        int offset = ordinal * wordsPerDescriptor;
+        if (offset + wordsPerDescriptor > words.length) {
+            words = Arrays.copyOf(words, Math.max(offset + wordsPerDescriptor, words.length * 2));
+        }
+        System.arraycopy(feature.getBits(), 0, words, offset, wordsPerDescriptor);
+        imageIds.add(feature.getImageId());
+
+        if (isHashed()) {
+            for (int table = 0; table < numberOfHashTables; table++) {
+                hashTables.get(table)
+                        .computeIfAbsent(hash(words, offset, sampledBits[table]), key -> new ArrayList<>())
+                        .add(ordinal);
+            }
+        }
+        return ordinal;
+    }
+
+    /**
+     * Samples the bit positions of each table once the descriptor length is known.
+     */
+    private void initHashTables() {
+        if (!isHashed()) {
+            return;
+        }
+        int sampleSize = Math.min(bitsPerHash, bitLength);
+        sampledBits = new int[numberOfHashTables][];
+        for (int table = 0; table < numberOfHashTables; table++) {
+            sampledBits[table] = ThreadLocalRandom.current().ints(0, bitLength)
+                    .distinct()
+                    .limit(sampleSize)
+                    .toArray();
+            hashTables.add(new HashMap<>());
+        }
+    }
+
+    private static long hash(long[] bits, int offset, int[] positions) {
+        long key = 0L;
+        for (int i = 0; i < positions.length; i++) {
+            int position = positions[i];
+            key |= ((bits[offset + position / Long.SIZE] >>> (position % Long.SIZE)) & 1L) << i;
+        }
+        return key;
+    }
+
+    private boolean isHashed() {
+        return numberOfHashTables > 0;
+    }
+
+    @Override
+    public List<BinaryFeature> query(long[] queryBits, int k) {
+        return ScoredHit.features(queryScored(queryBits, k, null));
+    }
+
+    /**
+     * Counts the probed hash buckets as visited nodes, none for a brute-force index, and
+     * every compared descriptor as a candidate and a distance evaluation.
+     */
+    @Override
+    public List<ScoredHit<BinaryFeature>> queryScored(long[] queryBits, int k, SearchStats stats) {
+        if (queryBits == null || queryBits.length == 0) {
+            throw new IllegalArgumentException("Query descriptor cannot be null or empty");
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+
+        QueryExecutor executor = queryExecutor;
+        return executor.execute(() -> {
+            lock.readLock().lock();
+            try {
+                if (imageIds.isEmpty()) {
+                    return new ArrayList<>();
+                }
+                if (queryBits.length != wordsPerDescriptor) {
+                    throw new IllegalArgumentException(
+                            String.format("Descriptor lengths must match: %d vs %d words",
+                                    queryBits.length, wordsPerDescriptor));
+                }
+
+                // Candidates are sorted by ordinal, so ties are broken by ordinal; the executor
+                // decides whether the set is large enough to split across workers
+                int[] candidates = candidates(queryBits);
+                TopK nearest = TopK.select(candidates.length, k, null,
+                        i -> FeatureUtils.hammingDistance(queryBits, 0, words, candidates[i] * wordsPerDescriptor,
+                                wordsPerDescriptor),
+                        executor.getPool(), executor.scanParallelism((long) candidates.length * wordsPerDescriptor));
+
+                if (stats != null) {
+                    stats.addNodesVisited(numberOfHashTables);
+                    stats.addCandidatesExamined(candidates.length);
+                    stats.addDistanceEvaluations(candidates.length);
+                }
+
+                int[] ids = new int[nearest.size()];
+                double[] distances = new double[nearest.size()];
+                int count = nearest.drainTo(ids, distances);
+                List<ScoredHit<BinaryFeature>> results = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int ordinal = candidates[ids[i]];
+                    int offset = ordinal * wordsPerDescriptor;
+                    BinaryFeature feature = new BinaryFeature(imageIds.get(ordinal),
+                            Arrays.copyOfRange(words, offset, offset + wordsPerDescriptor), bitLength);
+                    results.add(new ScoredHit<>(ordinal, feature.getImageId(), distances[i], feature));
+                }
+                return results;
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Returns the ordinals to compare: every descriptor for a brute-force index, otherwise
+     * the union of the query's buckets.
+     */
+    private int[] candidates(long[] queryBits) {
+        if (!isHashed()) {
+            IntStream ordinals = IntStream.range(0, imageIds.size());
+            return deleted.isEmpty() ? ordinals.toArray() : ordinals.filter(ordinal -> !deleted.contains(ordinal)).toArray();
+        }
+        Set<Integer> candidateOrdinals = new HashSet<>();
+        for (int table = 0; table < numberOfHashTables; table++) {
+            List<Integer> bucket = hashTables.get(table).get(hash(queryBits, 0, sampledBits[table]));
+            if (bucket != null) {
+                candidateOrdinals.addAll(bucket);
+            }
+        }
+        return candidateOrdinals.stream().mapToInt(Integer::intValue)
+                .filter(ordinal -> !deleted.contains(ordinal))
+                .sorted()
+                .toArray();
+    }
+
+    /**
+     * @return The executor that schedules this index's scans.
+     */
+    public QueryExecutor getQueryExecutor() {
+        return queryExecutor;
+    }
+
+    /**
+     * Sets the executor whose pool scores large candidate sets and which decides how many
+     * workers a scan may use. Queries still run on the calling thread; use
+     * {@link QueryExecutor#submit} to run them on the executor's pool.
+     *
+     * @param queryExecutor The executor, or null for {@link QueryExecutor#common()}.
+     */
+    public void setQueryExecutor(QueryExecutor queryExecutor) {
+        this.queryExecutor = queryExecutor != null ? queryExecutor : QueryExecutor.common();
+    }
+
+    /**
+     * Get the current size of the index.
+     * @return Number of descriptors in the index, not counting removed ones
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return imageIds.size() - deleted.count();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void clearIndex() {
+        imageIds.clear();
+        words = new long[0];
+        wordsPerDescriptor = 0;
+        bitLength = 0;
+        sampledBits = null;
+        hashTables.clear();
+        deleted = new Tombstones();
+        ordinalsById = null;
+    }
+}
@@ -1,16 +1,27 @@
 package com.retrieval.search.implementations;
 
+import com.retrieval.indexing.storage.QueryScorer;
+import com.retrieval.indexing.storage.VectorStore;
 import com.retrieval.models.ImageFeature;
+import com.retrieval.models.ScoredHit;
+import com.retrieval.models.SearchStats;
+import com.retrieval.models.VectorPrecision;
 import com.retrieval.search.annotations.SearchCapabilities;
+import com.retrieval.search.execution.QueryExecutor;
 import com.retrieval.search.interfaces.Buildable;
+import com.retrieval.search.interfaces.RangeSearchable;
 import com.retrieval.search.interfaces.Searchable;
+import com.retrieval.utils.DistanceMetric;
+import com.retrieval.utils.DistanceMetrics;
 import com.retrieval.utils.FeatureUtils;
+import com.retrieval.utils.PreparedQuery;
+import com.retrieval.utils.RadiusHits;
+import com.retrieval.utils.TopK;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Collectors;
 
 /**
  * Implements Locality Sensitive Hashing (LSH) for approximate nearest neighbor search.
@@ -21,16 +32,22 @@ import java.util.stream.Collectors;
  * angular (cosine) similarity.
  * Capabilities: Buildable, Searchable. Not Insertable due to the nature of LSH
  * where insertions are typically batched or require re-hashing.
+ * Buckets hold ordinals into a {@link VectorStore} whose precision is chosen per index.
+ * Hashing is always angular; the configured {@link DistanceMetric} (cosine by default)
+ * is only used to rank the candidates found in the buckets.
  */
 @SearchCapabilities(insertable = false, buildable = true, searchable = true)
-public class LSHSearch implements Buildable, Searchable {
+public class LSHSearch implements Buildable, Searchable, RangeSearchable {
 
     private static final Logger log = LoggerFactory.getLogger(LSHSearch.class);
 
     private int numberOfHashTables; // L parameter in LSH, number of independent hash tables
     private int numberOfHashesPerTable; // K parameter in LSH, number of hash functions per table
-    private List<Map<String, List<ImageFeature>>> hashTables; // Each map is a hash table: hash_code -> list of features
+    private List<Map<String, List<Integer>>> hashTables; // Each map is a hash table: hash_code -> list of ordinals
     private List<double[][]> randomProjections; // Random vectors for each hash table
+    private final VectorStore store;
+    private final DistanceMetric metric;
+    private volatile QueryExecutor queryExecutor = QueryExecutor.common();
 
     /**
      * Constructs an LSHSearch instance with default parameters.
@@ -49,13 +66,48 @@ public class LSHSearch implements Buildable, Searchable {
      * @throws IllegalArgumentException if numberOfHashTables or numberOfHashesPerTable is not positive.
      */
     public LSHSearch(int numberOfHashTables, int numberOfHashesPerTable) {
+        this(numberOfHashTables, numberOfHashesPerTable, VectorPrecision.FLOAT64);
+    }
+
+    /**
+     * Constructs an LSHSearch instance with specified parameters and vector precision.
+     *
+     * @param numberOfHashTables     The number of independent hash tables to use (L).
+     * @param numberOfHashesPerTable The number of hash functions (random projections)
+     * to use for each hash table (K).
+     * @param precision              The in-memory representation of the indexed vectors.
+     * @throws IllegalArgumentException if numberOfHashTables or numberOfHashesPerTable is not positive.
+     */
+    public LSHSearch(int numberOfHashTables, int numberOfHashesPerTable, VectorPrecision precision) {
+        this(numberOfHashTables, numberOfHashesPerTable, precision, DistanceMetrics.COSINE);
+    }
+
+    /**
+     * Constructs an LSHSearch instance with specified parameters, vector precision and
+     * the distance used to rank candidates.
+     *
+     * @param numberOfHashTables     The number of independent hash tables to use (L).
+     * @param numberOfHashesPerTable The number of hash functions (random projections)
+     * to use for each hash table (K).
+     * @param precision              The in-memory representation of the indexed vectors.
+     * @param metric                 The distance used to rank candidates.
+     * @throws IllegalArgumentException if numberOfHashTables or numberOfHashesPerTable is not positive,
+     * or metric is null.
+     */
+    public LSHSearch(int numberOfHashTables, int numberOfHashesPerTable, VectorPrecision precision,
+                     DistanceMetric metric) {
         if (numberOfHashTables <= 0 || numberOfHashesPerTable <= 0) {
             throw new IllegalArgumentException("Number of hash tables and hashes per table must be positive.");
         }
+        if (metric == null) {
+            throw new IllegalArgumentException("Distance metric cannot be null.");
+        }
+        this.metric = metric;
         this.numberOfHashTables = numberOfHashTables;
         this.numberOfHashesPerTable = numberOfHashesPerTable;
         this.hashTables = new ArrayList<>(numberOfHashTables);
         this.randomProjections = new ArrayList<>(numberOfHashTables);
+        this.store = VectorStore.create(precision);
     }
 
     /**
@@ -100,19 +152,19 @@ public class LSHSearch implements Buildable, Searchable {
             hashTables.add(new HashMap<>());
         }
 
-        // Populate hash tables
-        for (ImageFeature feature : features) {
+        // Populate hash tables; ordinals follow the order of the feature list
+        store.addAll(features);
+        for (int ordinal = 0; ordinal < features.size(); ordinal++) {
+            ImageFeature feature = features.get(ordinal);
+            // The sign of a projection does not depend on the vector's length, so
+            // unnormalized vectors hash to the same buckets as their normalized copies.
             double[] featureVector = feature.getFeatureVector();
-            if (!FeatureUtils.isNormalized(featureVector)) {
-                log.warn("Feature vector for image {} is not normalized. Normalizing copy for LSH.", feature.getImageId());
-                featureVector = FeatureUtils.normalizedCopy(featureVector);
-            }
 
             for (int i = 0; i < numberOfHashTables; i++) {
                 String hashCode = generateHashCode(featureVector, randomProjections.get(i));
                 hashTables.get(i)
                         .computeIfAbsent(hashCode, k -> new ArrayList<>())
-                        .add(feature);
+                        .add(ordinal);
             }
         }
         log.info("LSH index built successfully.");
@@ -121,17 +173,26 @@ public class LSHSearch implements Buildable, Searchable {
     /**
      * Performs a query to find the top K most similar images to a given query vector.
      * The query vector is hashed into each of the LSH tables, and candidate features
-     * from the corresponding buckets are collected. The exact cosine distance is
-     * then computed for these candidates to find the top K nearest neighbors.
+     * from the corresponding buckets are collected. The exact distance under the
+     * configured metric is then computed for these candidates to find the top K nearest neighbors.
      *
-     * @param queryVector The feature vector of the query image. Expected to be normalized.
+     * @param queryVector The feature vector of the query image. Normalized internally if needed.
      * @param k           The number of similar images to retrieve.
-     * @return A list of the top K matching ImageFeature objects, sorted by similarity (smallest cosine distance first).
+     * @return A list of the top K matching ImageFeature objects, sorted by similarity (smallest distance first).
      * @throws IllegalArgumentException if queryVector is null or empty, or k is not positive.
      * @throws IllegalStateException    if the index has not been built.
      */
     @Override
     public List<ImageFeature> query(double[] queryVector, int k) {
+        return ScoredHit.features(queryScored(queryVector, k, null));
+    }
+
+    /**
+     * Counts the probed hash buckets as visited nodes and the distinct vectors found in
+     * them as candidates, each scored once.
+     */
+    @Override
+    public List<ScoredHit<ImageFeature>> queryScored(double[] queryVector, int k, SearchStats stats) {
         if (queryVector == null || queryVector.length == 0) {
             throw new IllegalArgumentException("Query vector cannot be null or empty.");
         }
@@ -142,37 +203,117 @@ public class LSHSearch implements Buildable, Searchable {
             throw new IllegalStateException("LSH index has not been built or is empty.");
         }
 
-        // Ensure query vector is normalized for cosine distance
-        if (!FeatureUtils.isNormalized(queryVector)) {
-            log.warn("Query vector is not normalized. Normalizing copy for LSH query.");
-            queryVector = FeatureUtils.normalizedCopy(queryVector);
+        QueryExecutor executor = queryExecutor;
+        return executor.execute(() -> {
+            // Normalize the query once; each cosine candidate then costs a single dot product
+            PreparedQuery preparedQuery = PreparedQuery.of(queryVector);
+            QueryScorer scorer = store.scorer(metric, preparedQuery);
+
+            int[] candidates = candidates(preparedQuery, stats);
+            if (candidates.length == 0) {
+                log.info("No candidates found for the query vector in LSH buckets.");
+                return new ArrayList<>();
+            }
+
+            // Perform exact k-NN search on candidates; the executor decides whether the
+            // candidate set is large enough to split across workers
+            TopK nearest = TopK.select(candidates.length, k, null, i -> scorer.surrogate(candidates[i]),
+                    executor.getPool(), executor.scanParallelism((long) candidates.length * store.getDimensions()));
+            int[] ids = new int[nearest.size()];
+            double[] surrogates = new double[nearest.size()];
+            int count = nearest.drainTo(ids, surrogates);
+            List<ScoredHit<ImageFeature>> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int ordinal = candidates[ids[i]];
+                ImageFeature feature = store.getFeature(ordinal);
+                results.add(new ScoredHit<>(ordinal, feature.getImageId(), metric.toDistance(surrogates[i]), feature));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Scores the vectors that share a bucket with the query in at least one table and keeps
+     * those within the radius. Like top-K queries, this only finds items that hash to one
+     * of the query's buckets, so more tables find more of the matches at a tight radius.
+     *
+     * @throws IllegalArgumentException if queryVector is null or empty, or radius is NaN.
+     * @throws IllegalStateException    if the index has not been built.
+     */
+    @Override
+    public List<ScoredHit<ImageFeature>> rangeQuery(double[] queryVector, double radius, SearchStats stats) {
+        if (queryVector == null || queryVector.length == 0) {
+            throw new IllegalArgumentException("Query vector cannot be null or empty.");
         }
+        if (Double.isNaN(radius)) {
+            throw new IllegalArgumentException("Radius cannot be NaN.");
+        }
+        if (hashTables == null || hashTables.isEmpty() || randomProjections.isEmpty()) {
+            throw new IllegalStateException("LSH index has not been built or is empty.");
+        }
+
+        QueryExecutor executor = queryExecutor;
+        return executor.execute(() -> {
+            PreparedQuery preparedQuery = PreparedQuery.of(queryVector);
+            QueryScorer scorer = store.scorer(metric, preparedQuery);
+            int[] candidates = candidates(preparedQuery, stats);
+            double bound = metric.toSurrogate(radius);
 
-        Set<ImageFeature> candidateFeatures = new HashSet<>();
+            RadiusHits hits = RadiusHits.select(candidates.length, bound, null,
+                    (i, ignored) -> scorer.surrogate(candidates[i]),
+                    executor.getPool(), executor.scanParallelism((long) candidates.length * store.getDimensions()));
+            hits.sort();
+            List<ScoredHit<ImageFeature>> results = new ArrayList<>(hits.size());
+            for (int i = 0; i < hits.size(); i++) {
+                int ordinal = candidates[hits.id(i)];
+                ImageFeature feature = store.getFeature(ordinal);
+                results.add(new ScoredHit<>(ordinal, feature.getImageId(), metric.toDistance(hits.score(i)), feature));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Collects the distinct ordinals in the query's bucket of every table, counting the
+     * probed buckets as visited nodes and the ordinals as candidates, each scored once.
+     *
+     * @return The candidate ordinals in ascending order.
+     */
+    private int[] candidates(PreparedQuery preparedQuery, SearchStats stats) {
+        Set<Integer> candidateOrdinals = new HashSet<>();
         for (int i = 0; i < numberOfHashTables; i++) {
-            String hashCode = generateHashCode(queryVector, randomProjections.get(i));
-            List<ImageFeature> bucket = hashTables.get(i).get(hashCode);
+            String hashCode = generateHashCode(preparedQuery.getNormalized(), randomProjections.get(i));
+            List<Integer> bucket = hashTables.get(i).get(hashCode);
             if (bucket != null) {
-                candidateFeatures.addAll(bucket);
+                candidateOrdinals.addAll(bucket);
             }
         }
 
-        if (candidateFeatures.isEmpty()) {
-            log.info("No candidates found for the query vector in LSH buckets.");
-            return new ArrayList<>();
+        if (stats != null) {
+            stats.addNodesVisited(numberOfHashTables);
+            stats.addCandidatesExamined(candidateOrdinals.size());
+            stats.addDistanceEvaluations(candidateOrdinals.size());
         }
+        // Sorted so that ties, broken by candidate position, are broken by ordinal
+        return candidateOrdinals.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
 
-        // Perform exact k-NN search on candidates
-        double[] finalQueryVector = queryVector;
-        return candidateFeatures.parallelStream()
-                .map(feature -> new AbstractMap.SimpleEntry<>(
-                        feature,
-                        FeatureUtils.cosineDistance(finalQueryVector, feature.getFeatureVector())
-                ))
-                .sorted(Comparator.comparingDouble(AbstractMap.SimpleEntry::getValue))
-                .limit(k)
-                .map(AbstractMap.SimpleEntry::getKey)
-                .collect(Collectors.toList());
+    /**
+     * @return The executor that schedules this index's candidate scans.
+     */
+    public QueryExecutor getQueryExecutor() {
+        return queryExecutor;
+    }
+
+    /**
+     * Sets the executor whose pool scores large candidate sets and which decides how many
+     * workers a scan may use. Queries still run on the calling thread; use
+     * {@link QueryExecutor#submit} to run them on the executor's pool.
+     *
+     * @param queryExecutor The executor, or null for {@link QueryExecutor#common()}.
+     */
+    public void setQueryExecutor(QueryExecutor queryExecutor) {
+        this.queryExecutor = queryExecutor != null ? queryExecutor : QueryExecutor.common();
     }
 
     /**
@@ -202,5 +343,6 @@ public class LSHSearch implements Buildable, Searchable {
     private void clearIndex() {
         this.hashTables.clear();
         this.randomProjections.clear();
+        this.store.clear();
     }
 }
\ No newline at end of file
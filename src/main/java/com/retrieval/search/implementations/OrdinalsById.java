@@ -0,0 +1,67 @@
+package com.retrieval.search.implementations;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Maps image ids to the ordinals of the live entries holding them, so that indexes can
+ * find the entries to remove in constant time. Ids are not required to be unique; an id
+ * indexed several times maps to all of its ordinals.
+ * <p>
+ * Not thread-safe; indexes build it on the first removal and update it under their write lock.
+ */
+final class OrdinalsById {
+    private static final int[] NONE = new int[0];
+
+    private final Map<String, int[]> ordinals;
+
+    private OrdinalsById(int expectedSize) {
+        this.ordinals = new HashMap<>(Math.max(16, (int) (expectedSize / 0.75f) + 1));
+    }
+
+    /**
+     * Indexes the ids of the live entries {@code 0..size-1}.
+     *
+     * @param size    The number of entries.
+     * @param ids     The id of each entry.
+     * @param deleted Whether an entry has been removed and must be skipped.
+     * @return The map.
+     */
+    static OrdinalsById build(int size, IntFunction<String> ids, IntPredicate deleted) {
+        OrdinalsById index = new OrdinalsById(size);
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            if (!deleted.test(ordinal)) {
+                index.add(ids.apply(ordinal), ordinal);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Records an entry.
+     *
+     * @param id      The image id; may be null.
+     * @param ordinal The ordinal of the entry.
+     */
+    void add(String id, int ordinal) {
+        ordinals.merge(id, new int[]{ordinal}, (existing, added) -> {
+            int[] merged = Arrays.copyOf(existing, existing.length + 1);
+            merged[existing.length] = ordinal;
+            return merged;
+        });
+    }
+
+    /**
+     * Forgets an id.
+     *
+     * @param id The image id.
+     * @return The ordinals that held the id, or an empty array if it was not indexed.
+     */
+    int[] remove(String id) {
+        int[] removed = ordinals.remove(id);
+        return removed == null ? NONE : removed;
+    }
+}
@@ -0,0 +1,33 @@
+package com.retrieval.search.interfaces;
+
+import com.retrieval.models.BinaryFeature;
+import com.retrieval.models.ScoredHit;
+import com.retrieval.models.SearchStats;
+
+import java.util.List;
+
+/**
+ * The search contract for indexes over packed binary descriptors, the Hamming-space
+ * counterpart of {@link Searchable}.
+ */
+public interface BinarySearchable {
+    /**
+     * Performs a query to find the top K images whose descriptors have the smallest
+     * Hamming distance to the given one.
+     *
+     * @param queryBits The packed descriptor of the query image.
+     * @param k         The number of similar images to retrieve.
+     * @return A list of the top K matching BinaryFeature objects, sorted by Hamming distance.
+     */
+    List<BinaryFeature> query(long[] queryBits, int k);
+
+    /**
+     * Like {@link #query(long[], int)}, but returns each result with its Hamming distance.
+     *
+     * @param queryBits The packed descriptor of the query image.
+     * @param k         The number of similar images to retrieve.
+     * @param stats     Receives counts of the work done, or null if they are not needed.
+     * @return The top K results with their distances, best first.
+     */
+    List<ScoredHit<BinaryFeature>> queryScored(long[] queryBits, int k, SearchStats stats);
+}
@@ -0,0 +1,33 @@
+package com.retrieval.search.interfaces;
+
+/**
+ * An interface for search strategies that can remove items from an existing index
+ * without rebuilding it. Removal only marks entries as deleted, so queries stop
+ * returning them immediately; the space they occupy is reclaimed by {@link #compact()},
+ * which can be run periodically, e.g. by a {@code BackgroundCompactor}.
+ */
+public interface Deletable {
+    /**
+     * Removes every indexed item with the given image id.
+     *
+     * @param imageId The image identifier.
+     * @return true if at least one item was removed.
+     */
+    boolean remove(String imageId);
+
+    /**
+     * @return The number of removed items whose space has not been reclaimed yet.
+     */
+    int deletedCount();
+
+    /**
+     * @return The number of items occupying space in the index, including removed ones
+     * not yet reclaimed.
+     */
+    int storedCount();
+
+    /**
+     * Reclaims the space held by removed items.
+     */
+    void compact();
+}
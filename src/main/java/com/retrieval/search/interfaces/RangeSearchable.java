@@ -0,0 +1,38 @@
+package com.retrieval.search.interfaces;
+
+import com.retrieval.models.ImageFeature;
+import com.retrieval.models.ScoredHit;
+import com.retrieval.models.SearchStats;
+
+import java.util.List;
+
+/**
+ * An interface for search strategies that can return every indexed item within a given
+ * distance of a query, e.g. to detect near-duplicate uploads without guessing how many
+ * results to ask for. Implementations prune with the same structures they use for top-K
+ * queries, so a tight radius usually costs less than a top-K query.
+ */
+public interface RangeSearchable {
+    /**
+     * Finds every indexed item whose distance from the query, under the index's metric,
+     * is at most {@code radius}.
+     *
+     * @param queryVector The feature vector of the query image.
+     * @param radius      The largest distance returned, on the same scale as
+     *                    {@link ScoredHit#getDistance()}, e.g. a cosine distance in [0, 2].
+     * @param stats       Receives counts of the work done, or null if they are not needed.
+     * @return The matching items with their distances, closest first.
+     */
+    List<ScoredHit<ImageFeature>> rangeQuery(double[] queryVector, double radius, SearchStats stats);
+
+    /**
+     * Like {@link #rangeQuery(double[], double, SearchStats)}, without collecting statistics.
+     *
+     * @param queryVector The feature vector of the query image.
+     * @param radius      The largest distance returned.
+     * @return The matching items with their distances, closest first.
+     */
+    default List<ScoredHit<ImageFeature>> rangeQuery(double[] queryVector, double radius) {
+        return rangeQuery(queryVector, radius, null);
+    }
+}
@@ -1,7 +1,10 @@
 package com.retrieval.search.interfaces;
 
 import com.retrieval.models.ImageFeature;
+import com.retrieval.models.ScoredHit;
+import com.retrieval.models.SearchStats;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -18,4 +21,46 @@ public interface Searchable {
      * @return A list of the top K matching ImageFeature objects, sorted by similarity.
      */
     List<ImageFeature> query(double[] queryVector, int k);
+
+    /**
+     * Like {@link #query(double[], int)}, but returns each result with the distance the
+     * index ranked it by, so callers never need to recompute it.
+     *
+     * @param queryVector The feature vector of the query image.
+     * @param k           The number of similar images to retrieve.
+     * @param stats       Receives counts of the work done, or null if they are not needed.
+     * @return The top K results with their distances, best first.
+     */
+    List<ScoredHit<ImageFeature>> queryScored(double[] queryVector, int k, SearchStats stats);
+
+    /**
+     * Like {@link #queryScored(double[], int, SearchStats)}, without collecting statistics.
+     *
+     * @param queryVector The feature vector of the query image.
+     * @param k           The number of similar images to retrieve.
+     * @return The top K results with their distances, best first.
+     */
+    default List<ScoredHit<ImageFeature>> queryScored(double[] queryVector, int k) {
+        return queryScored(queryVector, k, null);
+    }
+
+    /**
+     * Performs several queries at once. Implementations that scan their whole corpus
+     * override this to read each part of the corpus once for all queries; the default
+     * implementation calls {@link #query(double[], int)} for each query in turn.
+     *
+     * @param queryVectors The feature vectors of the query images.
+     * @param k            The number of similar images to retrieve per query.
+     * @return One list of the top K matching ImageFeature objects per query, in query order.
+     */
+    default List<List<ImageFeature>> queryBatch(double[][] queryVectors, int k) {
+        if (queryVectors == null) {
+            throw new IllegalArgumentException("Query vectors cannot be null");
+        }
+        List<List<ImageFeature>> results = new ArrayList<>(queryVectors.length);
+        for (double[] queryVector : queryVectors) {
+            results.add(query(queryVector, k));
+        }
+        return results;
+    }
 }
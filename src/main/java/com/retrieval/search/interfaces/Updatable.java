@@ -0,0 +1,16 @@
+package com.retrieval.search.interfaces;
+
+import com.retrieval.models.ImageFeature;
+
+/**
+ * An interface for dynamic indexes that can both insert and remove items, and so can
+ * replace the vector indexed for an image, e.g. after re-embedding it with a new model.
+ */
+public interface Updatable extends Insertable, Deletable {
+    /**
+     * Inserts a feature, replacing any items already indexed under its image id.
+     *
+     * @param feature The ImageFeature to add.
+     */
+    void upsert(ImageFeature feature);
+}
@@ -0,0 +1,130 @@
+package com.retrieval.search.maintenance;
+
+import com.retrieval.search.interfaces.Deletable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically compacts registered {@link Deletable} indexes on a single daemon thread,
+ * once the removed entries make up at least a given fraction of an index. Removals stay
+ * constant-time, and the cost of reclaiming their space is paid off the request path.
+ * <p>
+ * Compaction takes the index's write lock, so inserts and removals wait while it runs;
+ * whether queries continue depends on the index, see its {@code compact()}.
+ */
+public class BackgroundCompactor implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(BackgroundCompactor.class);
+
+    /**
+     * Default fraction of removed entries that triggers a compaction.
+     */
+    public static final double DEFAULT_DELETED_FRACTION = 0.2;
+
+    /**
+     * Default time between checks.
+     */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(30);
+
+    private final double deletedFraction;
+    private final Set<Deletable> indexes = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a compactor with the default threshold and interval.
+     */
+    public BackgroundCompactor() {
+        this(DEFAULT_DELETED_FRACTION, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param deletedFraction The fraction of removed entries, in (0, 1], at which an index is compacted.
+     * @param interval        The time between checks.
+     * @throws IllegalArgumentException if deletedFraction is out of range or interval is not positive
+     */
+    public BackgroundCompactor(double deletedFraction, Duration interval) {
+        if (!(deletedFraction > 0.0 && deletedFraction <= 1.0)) {
+            throw new IllegalArgumentException("Deleted fraction must be in (0, 1]");
+        }
+        if (interval == null || interval.isZero() || interval.isNegative()) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.deletedFraction = deletedFraction;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "index-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        executor.scheduleWithFixedDelay(this::compactDue, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts watching an index.
+     *
+     * @param index The index to compact.
+     */
+    public void register(Deletable index) {
+        if (index == null) {
+            throw new IllegalArgumentException("Index cannot be null");
+        }
+        indexes.add(index);
+    }
+
+    /**
+     * Stops watching an index. A compaction already running is not interrupted.
+     *
+     * @param index The index.
+     */
+    public void unregister(Deletable index) {
+        indexes.remove(index);
+    }
+
+    /**
+     * Compacts every registered index whose removed entries reach the threshold, on the
+     * calling thread. Failures are logged and do not stop the remaining indexes or
+     * later scheduled runs.
+     *
+     * @return The number of indexes compacted.
+     */
+    public int compactDue() {
+        int compacted = 0;
+        for (Deletable index : indexes) {
+            try {
+                int stored = index.storedCount();
+                int deleted = index.deletedCount();
+                if (deleted > 0 && deleted >= deletedFraction * stored) {
+                    long start = System.nanoTime();
+                    index.compact();
+                    compacted++;
+                    log.debug("Compacted {} ({} of {} entries removed) in {} ms", index.getClass().getSimpleName(),
+                            deleted, stored, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+            } catch (RuntimeException e) {
+                log.warn("Compaction of {} failed", index.getClass().getSimpleName(), e);
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * Stops the background thread, waiting for a running compaction to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Compaction still running after one minute; abandoning it");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.retrieval.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Streaming per-dimension mean, variance and covariance over a corpus of feature vectors,
+ * the corpus-level counterpart of {@link FeatureUtils#calculateStatistics(double[])}.
+ * <p>
+ * Vectors are buffered in blocks of {@value #BLOCK_SIZE}; each block's co-moment is computed
+ * around the block's own mean and folded into the totals with Chan et al.'s pairwise update,
+ * which stays accurate for embeddings whose components have a large common offset. Blocking
+ * means the {@code d x d} matrix is swept once per block rather than once per vector, which
+ * matters because for 2048-d embeddings it is 32 MB and the update is memory-bound. Partial
+ * results computed on different threads are combined the same way with
+ * {@link #merge(CorpusStatistics)}. Only the upper triangle of the matrix is updated.
+ * <p>
+ * Instances are not thread-safe; use one per thread and merge them.
+ */
+public class CorpusStatistics {
+    private static final int BLOCK_SIZE = 32;
+
+    private final int dimensions;
+    private final double[] mean;
+    private final double[] comoment; // Row-major d x d, upper triangle only: sum of (x_i - mean_i)(x_j - mean_j)
+    private final double[] pending; // Row-major BLOCK_SIZE x d buffer of vectors not yet folded in
+    private int pendingCount = 0;
+    private long count = 0;
+
+    /**
+     * @param dimensions The dimensionality of the vectors to be accumulated.
+     * @throws IllegalArgumentException if dimensions is not positive, or the covariance
+     *                                  matrix would not fit in an array.
+     */
+    public CorpusStatistics(int dimensions) {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("Dimensions must be positive");
+        }
+        if ((long) dimensions * dimensions > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many dimensions for a covariance matrix: " + dimensions);
+        }
+        this.dimensions = dimensions;
+        this.mean = new double[dimensions];
+        this.comoment = new double[dimensions * dimensions];
+        this.pending = new double[BLOCK_SIZE * dimensions];
+    }
+
+    /**
+     * Computes the statistics of a list of vectors, splitting the work into one partial
+     * accumulator per available core.
+     *
+     * @param vectors The vectors; all must have the same, non-zero length.
+     * @return The statistics of all vectors.
+     * @throws IllegalArgumentException if the list is null or empty, or the vectors are inconsistent
+     */
+    public static CorpusStatistics compute(List<double[]> vectors) {
+        if (vectors == null || vectors.isEmpty()) {
+            throw new IllegalArgumentException("Vector list cannot be null or empty");
+        }
+        int dimensions = vectors.get(0).length;
+        int chunks = Math.max(1, Math.min(vectors.size(), Runtime.getRuntime().availableProcessors()));
+        int chunkSize = (vectors.size() + chunks - 1) / chunks;
+
+        return IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> {
+                    CorpusStatistics partial = new CorpusStatistics(dimensions);
+                    int end = Math.min(vectors.size(), (chunk + 1) * chunkSize);
+                    for (int i = chunk * chunkSize; i < end; i++) {
+                        partial.accept(vectors.get(i));
+                    }
+                    return partial;
+                })
+                .reduce((a, b) -> {
+                    a.merge(b);
+                    return a;
+                })
+                .orElseThrow();
+    }
+
+    /**
+     * Adds one vector.
+     *
+     * @param vector The vector to add.
+     * @throws IllegalArgumentException if the vector is null or has the wrong length
+     */
+    public void accept(double[] vector) {
+        if (vector == null || vector.length != dimensions) {
+            throw new IllegalArgumentException(
+                    String.format("Vector dimensions must match: %d vs %d",
+                            vector == null ? 0 : vector.length, dimensions));
+        }
+        System.arraycopy(vector, 0, pending, pendingCount * dimensions, dimensions);
+        if (++pendingCount == BLOCK_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Single-precision variant of {@link #accept(double[])}.
+     */
+    public void accept(float[] vector) {
+        if (vector == null) {
+            throw new IllegalArgumentException("Vector cannot be null");
+        }
+        accept(FeatureUtils.toDoubleArray(vector));
+    }
+
+    /**
+     * Combines the statistics of another accumulator into this one, as if its vectors had
+     * been added here (Chan et al.'s pairwise update).
+     *
+     * @param other Statistics over the same dimensionality.
+     * @throws IllegalArgumentException if the dimensionalities differ
+     */
+    public void merge(CorpusStatistics other) {
+        if (other.dimensions != dimensions) {
+            throw new IllegalArgumentException(
+                    String.format("Vector dimensions must match: %d vs %d", other.dimensions, dimensions));
+        }
+        flush();
+        other.flush();
+        if (other.count == 0) {
+            return;
+        }
+        long total = count + other.count;
+        double weight = (double) count * other.count / total;
+        double[] delta = new double[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            delta[i] = other.mean[i] - mean[i];
+        }
+        for (int i = 0; i < dimensions; i++) {
+            double scaled = weight * delta[i];
+            int row = i * dimensions;
+            for (int j = i; j < dimensions; j++) {
+                comoment[row + j] += other.comoment[row + j] + scaled * delta[j];
+            }
+            mean[i] += delta[i] * other.count / total;
+        }
+        count = total;
+    }
+
+    /**
+     * Folds the buffered vectors into the totals: their co-moment around the block mean,
+     * plus the pairwise correction for the difference between the block and running means.
+     */
+    private void flush() {
+        int blockCount = pendingCount;
+        if (blockCount == 0) {
+            return;
+        }
+        pendingCount = 0;
+
+        double[] blockMean = new double[dimensions];
+        for (int v = 0; v < blockCount; v++) {
+            int offset = v * dimensions;
+            for (int i = 0; i < dimensions; i++) {
+                blockMean[i] += pending[offset + i];
+            }
+        }
+        for (int i = 0; i < dimensions; i++) {
+            blockMean[i] /= blockCount;
+        }
+        for (int v = 0; v < blockCount; v++) {
+            int offset = v * dimensions;
+            for (int i = 0; i < dimensions; i++) {
+                pending[offset + i] -= blockMean[i];
+            }
+        }
+
+        long total = count + blockCount;
+        double weight = (double) count * blockCount / total;
+        double[] delta = new double[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            delta[i] = blockMean[i] - mean[i];
+        }
+        for (int i = 0; i < dimensions; i++) {
+            int row = i * dimensions;
+            // Row i of the matrix stays in cache while every buffered vector is applied to it
+            for (int v = 0; v < blockCount; v++) {
+                int offset = v * dimensions;
+                double deviation = pending[offset + i];
+                for (int j = i; j < dimensions; j++) {
+                    comoment[row + j] += deviation * pending[offset + j];
+                }
+            }
+            double scaled = weight * delta[i];
+            for (int j = i; j < dimensions; j++) {
+                comoment[row + j] += scaled * delta[j];
+            }
+            mean[i] += delta[i] * blockCount / total;
+        }
+        count = total;
+    }
+
+    /**
+     * @return The number of vectors accumulated.
+     */
+    public long getCount() {
+        flush();
+        return count;
+    }
+
+    /**
+     * @return The dimensionality of the accumulated vectors.
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return A copy of the per-dimension mean.
+     */
+    public double[] getMean() {
+        flush();
+        return Arrays.copyOf(mean, dimensions);
+    }
+
+    /**
+     * @return The per-dimension population variance; all zeros if no vectors were added.
+     */
+    public double[] getVariance() {
+        flush();
+        double[] variance = new double[dimensions];
+        if (count > 0) {
+            for (int i = 0; i < dimensions; i++) {
+                variance[i] = comoment[i * dimensions + i] / count;
+            }
+        }
+        return variance;
+    }
+
+    /**
+     * Returns the population covariance matrix as a new row-major {@code d x d} array.
+     *
+     * @return The full symmetric covariance matrix; all zeros if no vectors were added.
+     */
+    public double[] getCovariance() {
+        flush();
+        double[] covariance = new double[comoment.length];
+        if (count == 0) {
+            return covariance;
+        }
+        for (int i = 0; i < dimensions; i++) {
+            for (int j = i; j < dimensions; j++) {
+                double value = comoment[i * dimensions + j] / count;
+                covariance[i * dimensions + j] = value;
+                covariance[j * dimensions + i] = value;
+            }
+        }
+        return covariance;
+    }
+
+    @Override
+    public String toString() {
+        double totalVariance = Arrays.stream(getVariance()).sum();
+        return String.format("CorpusStatistics{count=%d, dimensions=%d, totalVariance=%.4f}",
+                getCount(), dimensions, totalVariance);
+    }
+}
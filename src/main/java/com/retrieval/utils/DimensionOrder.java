@@ -0,0 +1,101 @@
+package com.retrieval.utils;
+
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * The order in which early-abandoning distance computations visit the components of a
+ * vector, in contiguous blocks of {@value #BLOCK_SIZE}. A computation checks its partial
+ * sum against the current bound after each block, so visiting the blocks that contribute
+ * most to typical distances first lets most candidates be rejected after a fraction of
+ * the dimensions.
+ * <p>
+ * Reordering is done per block rather than per dimension, so each block is still read
+ * sequentially by the vectorized kernels and stored vectors need no permutation.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ */
+public final class DimensionOrder {
+    /**
+     * Number of consecutive components summed between two checks of the bound. Each check
+     * reduces the SIMD lanes to a scalar, so blocks span several vector iterations.
+     */
+    public static final int BLOCK_SIZE = 64;
+
+    private final int dimensions;
+    private final int[] blockStarts;
+
+    private DimensionOrder(int dimensions, int[] blockStarts) {
+        this.dimensions = dimensions;
+        this.blockStarts = blockStarts;
+    }
+
+    /**
+     * Visits the blocks in index order.
+     *
+     * @param dimensions The dimensionality of the vectors.
+     * @return The order.
+     */
+    public static DimensionOrder natural(int dimensions) {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("Dimensions must be positive");
+        }
+        int blocks = (dimensions + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        return new DimensionOrder(dimensions, IntStream.range(0, blocks).map(block -> block * BLOCK_SIZE).toArray());
+    }
+
+    /**
+     * Visits the blocks in descending order of their total corpus variance, which is
+     * proportional to their expected contribution to the squared distance between two
+     * random corpus vectors.
+     *
+     * @param variances The variance of each dimension over the corpus, e.g. from
+     *                  {@link CorpusStatistics#getVariance()}.
+     * @return The order.
+     */
+    public static DimensionOrder byVariance(double[] variances) {
+        if (variances == null || variances.length == 0) {
+            throw new IllegalArgumentException("Variances cannot be null or empty");
+        }
+        int blocks = (variances.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        double[] blockVariance = new double[blocks];
+        for (int i = 0; i < variances.length; i++) {
+            blockVariance[i / BLOCK_SIZE] += variances[i];
+        }
+        int[] starts = IntStream.range(0, blocks).boxed()
+                .sorted(Comparator.comparingDouble((Integer block) -> -blockVariance[block]))
+                .mapToInt(block -> block * BLOCK_SIZE)
+                .toArray();
+        return new DimensionOrder(variances.length, starts);
+    }
+
+    /**
+     * @return The dimensionality of the vectors.
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return The number of blocks.
+     */
+    public int blockCount() {
+        return blockStarts.length;
+    }
+
+    /**
+     * @param index The position of a block in visiting order.
+     * @return The index of the block's first component.
+     */
+    public int blockStart(int index) {
+        return blockStarts[index];
+    }
+
+    /**
+     * @param index The position of a block in visiting order.
+     * @return The number of components in the block; only the last block by index may be shorter.
+     */
+    public int blockLength(int index) {
+        return Math.min(BLOCK_SIZE, dimensions - blockStarts[index]);
+    }
+}
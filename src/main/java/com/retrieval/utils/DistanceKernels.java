@@ -0,0 +1,79 @@
+package com.retrieval.utils;
+
+/**
+ * Low-level arithmetic kernels behind the distance functions in {@link FeatureUtils}.
+ * Implementations perform no argument validation; callers are expected to have
+ * checked lengths and offsets already. All methods operate on the range
+ * {@code [offset, offset + length)} of each array.
+ */
+interface DistanceKernels {
+
+    /**
+     * @return A short human-readable description of the implementation, used for logging.
+     */
+    String describe();
+
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    double squaredEuclidean(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    double manhattan(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    double sumOfSquares(double[] a, int offset, int length);
+
+    /**
+     * Computes the cosine similarity of two ranges in a single pass.
+     *
+     * @return The raw (unclamped) cosine similarity, or {@code Double.NaN} if the
+     * squared norm of either range is below {@code epsilon}.
+     */
+    double cosineSimilarity(double[] a, int aOffset, double[] b, int bOffset, int length, double epsilon);
+
+    /**
+     * Computes the dot products of {@code rows} consecutive rows of {@code a} (each
+     * {@code length} long, starting at {@code aOffset}) with the single range of {@code b},
+     * writing them to {@code out[outOffset + r * outStride]}. Implementations may share each
+     * load of {@code b} between several rows, which is the inner step of a blocked
+     * matrix product.
+     */
+    void dotRows(double[] a, int aOffset, int rows, double[] b, int bOffset, int length,
+                 double[] out, int outOffset, int outStride);
+
+    /**
+     * Sums squared differences one block of {@code order} at a time and returns as soon as
+     * the partial sum exceeds {@code bound}. {@code a} starts at index 0.
+     *
+     * @return The squared distance, or a partial sum greater than {@code bound}.
+     */
+    double boundedSquaredEuclidean(double[] a, double[] b, int bOffset, DimensionOrder order, double bound);
+
+    /**
+     * Like {@link #boundedSquaredEuclidean(double[], double[], int, DimensionOrder, double)}
+     * for absolute differences.
+     */
+    double boundedManhattan(double[] a, double[] b, int bOffset, DimensionOrder order, double bound);
+
+    // Mixed-precision variants: single-precision storage, double-precision arithmetic.
+
+    double dot(double[] a, int aOffset, float[] b, int bOffset, int length);
+
+    double squaredEuclidean(double[] a, int aOffset, float[] b, int bOffset, int length);
+
+    double manhattan(double[] a, int aOffset, float[] b, int bOffset, int length);
+
+    double sumOfSquares(float[] a, int offset, int length);
+
+    double cosineSimilarity(double[] a, int aOffset, float[] b, int bOffset, int length, double epsilon);
+
+    void dotRows(double[] a, int aOffset, int rows, float[] b, int bOffset, int length,
+                 double[] out, int outOffset, int outStride);
+
+    double boundedSquaredEuclidean(double[] a, float[] b, int bOffset, DimensionOrder order, double bound);
+
+    double boundedManhattan(double[] a, float[] b, int bOffset, DimensionOrder order, double bound);
+
+    // Integer kernels for scalar-quantized vectors; products are accumulated in int,
+    // which cannot overflow for fewer than 2^17 components.
+
+    int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+}
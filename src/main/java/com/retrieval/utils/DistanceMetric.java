@@ -0,0 +1,138 @@
+package com.retrieval.utils;
+
+/**
+ * A distance function between feature vectors, split into a cheap rank-equivalent
+ * <em>surrogate</em> used while searching and a conversion to the true distance that
+ * is applied only to the results that are returned.
+ * <p>
+ * For any two stored vectors {@code u, v} and a query {@code q},
+ * {@code surrogate(q, u) < surrogate(q, v)} if and only if
+ * {@code distance(q, u) < distance(q, v)}; the conversion functions are monotonically
+ * increasing. For example, Euclidean distance ranks by squared distance and converts
+ * with a square root.
+ * <p>
+ * The surrogate methods address a stored vector as a range of a larger array, so that
+ * they work on both per-vector arrays and contiguous row-major storage.
+ *
+ * @see DistanceMetrics
+ */
+public interface DistanceMetric {
+
+    /**
+     * Computes the surrogate distance between a prepared query and a stored vector.
+     *
+     * @param query  The prepared query.
+     * @param data   The array holding the stored vector.
+     * @param offset The index of the vector's first component in {@code data}.
+     * @param norm   The L2 norm of the stored vector, or exactly 1.0 if it is known to be unit length.
+     * @return The surrogate distance.
+     */
+    double surrogate(PreparedQuery query, double[] data, int offset, double norm);
+
+    /**
+     * Single-precision variant of {@link #surrogate(PreparedQuery, double[], int, double)}.
+     */
+    double surrogate(PreparedQuery query, float[] data, int offset, double norm);
+
+    /**
+     * Computes the surrogate distance, but may stop as soon as it is known to exceed
+     * {@code bound} and return any value greater than {@code bound}. Metrics whose
+     * surrogate is a sum of non-negative per-component terms check the partial sum after
+     * each block of {@code order}; the default implementation computes the full surrogate.
+     *
+     * @param query  The prepared query.
+     * @param data   The array holding the stored vector.
+     * @param offset The index of the vector's first component in {@code data}.
+     * @param norm   The L2 norm of the stored vector, or exactly 1.0 if it is known to be unit length.
+     * @param order  The order in which to visit the components.
+     * @param bound  The surrogate distance a candidate must not exceed to be of interest.
+     * @return The surrogate distance, or a value greater than {@code bound}.
+     */
+    default double boundedSurrogate(PreparedQuery query, double[] data, int offset, double norm,
+                                    DimensionOrder order, double bound) {
+        return surrogate(query, data, offset, norm);
+    }
+
+    /**
+     * Single-precision variant of
+     * {@link #boundedSurrogate(PreparedQuery, double[], int, double, DimensionOrder, double)}.
+     */
+    default double boundedSurrogate(PreparedQuery query, float[] data, int offset, double norm,
+                                    DimensionOrder order, double bound) {
+        return surrogate(query, data, offset, norm);
+    }
+
+    /**
+     * @return true if {@link #boundedSurrogate} can stop early, so searches should pass
+     * their current bound.
+     */
+    default boolean supportsEarlyAbandon() {
+        return false;
+    }
+
+    /**
+     * Computes the surrogate distances between every query of a batch and one stored
+     * vector, writing the distance to query {@code i} at {@code out[outOffset + i * outStride]}.
+     * Metrics derived from dot products override this to read the stored vector once for
+     * several queries; the default implementation calls {@link #surrogate} per query.
+     *
+     * @param batch     The prepared queries.
+     * @param data      The array holding the stored vector.
+     * @param offset    The index of the vector's first component in {@code data}.
+     * @param norm      The L2 norm of the stored vector, or exactly 1.0 if it is known to be unit length.
+     * @param out       Receives the surrogate distances.
+     * @param outOffset The position of the first query's distance in {@code out}.
+     * @param outStride The distance between consecutive queries' positions in {@code out}.
+     */
+    default void surrogates(PreparedBatch batch, double[] data, int offset, double norm,
+                            double[] out, int outOffset, int outStride) {
+        for (int i = 0; i < batch.size(); i++) {
+            out[outOffset + i * outStride] = surrogate(batch.get(i), data, offset, norm);
+        }
+    }
+
+    /**
+     * Single-precision variant of {@link #surrogates(PreparedBatch, double[], int, double, double[], int, int)}.
+     */
+    default void surrogates(PreparedBatch batch, float[] data, int offset, double norm,
+                            double[] out, int outOffset, int outStride) {
+        for (int i = 0; i < batch.size(); i++) {
+            out[outOffset + i * outStride] = surrogate(batch.get(i), data, offset, norm);
+        }
+    }
+
+    /**
+     * Converts a surrogate distance to the true distance.
+     *
+     * @param surrogate A value returned by one of the surrogate methods.
+     * @return The corresponding true distance.
+     */
+    double toDistance(double surrogate);
+
+    /**
+     * Converts a true distance to the surrogate scale, e.g. to compare a geometric
+     * lower bound against the current k-th best surrogate.
+     *
+     * @param distance A true distance.
+     * @return The corresponding surrogate distance.
+     */
+    double toSurrogate(double distance);
+
+    /**
+     * Computes the true distance between two arbitrary vectors, such as a query and
+     * a tree node's centroid.
+     *
+     * @param vectorA First vector
+     * @param vectorB Second vector
+     * @return The distance between the vectors
+     */
+    double distance(double[] vectorA, double[] vectorB);
+
+    /**
+     * Reports whether this is a true metric, i.e. satisfies the triangle inequality.
+     * Ball trees and split-plane pruning rely on this property.
+     *
+     * @return true if the triangle inequality holds
+     */
+    boolean isMetricSpace();
+}
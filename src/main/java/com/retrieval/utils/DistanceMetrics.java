@@ -0,0 +1,281 @@
+package com.retrieval.utils;
+
+/**
+ * The standard distance metrics supported by the search implementations.
+ */
+public enum DistanceMetrics implements DistanceMetric {
+
+    /**
+     * L2 distance. Ranks by squared distance, avoiding the square root per comparison.
+     */
+    EUCLIDEAN {
+        @Override
+        public double surrogate(PreparedQuery query, double[] data, int offset, double norm) {
+            double[] q = query.getVector();
+            return FeatureUtils.kernels().squaredEuclidean(q, 0, data, offset, q.length);
+        }
+
+        @Override
+        public double surrogate(PreparedQuery query, float[] data, int offset, double norm) {
+            double[] q = query.getVector();
+            return FeatureUtils.kernels().squaredEuclidean(q, 0, data, offset, q.length);
+        }
+
+        @Override
+        public double boundedSurrogate(PreparedQuery query, double[] data, int offset, double norm,
+                                       DimensionOrder order, double bound) {
+            return FeatureUtils.kernels().boundedSquaredEuclidean(query.getVector(), data, offset, order, bound);
+        }
+
+        @Override
+        public double boundedSurrogate(PreparedQuery query, float[] data, int offset, double norm,
+                                       DimensionOrder order, double bound) {
+            return FeatureUtils.kernels().boundedSquaredEuclidean(query.getVector(), data, offset, order, bound);
+        }
+
+        @Override
+        public boolean supportsEarlyAbandon() {
+            return true;
+        }
+
+        /**
+         * Uses {@code |q - v|^2 = |q|^2 + |v|^2 - 2 q.v}, which loses relative accuracy for
+         * distances much smaller than the norms, as {@link FeatureUtils#distanceMatrix} does.
+         */
+        @Override
+        public void surrogates(PreparedBatch batch, double[] data, int offset, double norm,
+                               double[] out, int outOffset, int outStride) {
+            FeatureUtils.kernels().dotRows(batch.getVectors(), 0, batch.size(), data, offset,
+                    batch.getDimensions(), out, outOffset, outStride);
+            squaredFromDots(batch, norm, out, outOffset, outStride);
+        }
+
+        @Override
+        public void surrogates(PreparedBatch batch, float[] data, int offset, double norm,
+                               double[] out, int outOffset, int outStride) {
+            FeatureUtils.kernels().dotRows(batch.getVectors(), 0, batch.size(), data, offset,
+                    batch.getDimensions(), out, outOffset, outStride);
+            squaredFromDots(batch, norm, out, outOffset, outStride);
+        }
+
+        private void squaredFromDots(PreparedBatch batch, double norm, double[] out, int outOffset, int outStride) {
+            double storedSquare = norm * norm;
+            for (int i = 0; i < batch.size(); i++) {
+                int cell = outOffset + i * outStride;
+                out[cell] = Math.max(0.0, batch.getSquaredNorm(i) + storedSquare - 2.0 * out[cell]);
+            }
+        }
+
+        @Override
+        public double toDistance(double surrogate) {
+            return Math.sqrt(Math.max(0.0, surrogate));
+        }
+
+        @Override
+        public double toSurrogate(double distance) {
+            // Signed, so that the conversion stays monotonic and a negative radius matches nothing
+            return Math.copySign(distance * distance, distance);
+        }
+
+        @Override
+        public double distance(double[] vectorA, double[] vectorB) {
+            return FeatureUtils.euclideanDistance(vectorA, vectorB);
+        }
+
+        @Override
+        public boolean isMetricSpace() {
+            return true;
+        }
+    },
+
+    /**
+     * Cosine distance, {@code 1 - cos(q, v)}, in [0, 2]. Ranks by negative cosine
+     * similarity, which needs one dot product against the pre-normalized query and a
+     * division by the stored norm (skipped for unit-length vectors).
+     */
+    COSINE {
+        @Override
+        public double surrogate(PreparedQuery query, double[] data, int offset, double norm) {
+            if (!query.hasDirection() || norm < PreparedQuery.MIN_NORM) {
+                return 0.0; // Zero vectors are treated as orthogonal, i.e. cosine distance 1.0
+            }
+            double[] q = query.getNormalized();
+            double dot = FeatureUtils.kernels().dot(q, 0, data, offset, q.length);
+            return -(norm == 1.0 ? dot : dot / norm);
+        }
+
+        @Override
+        public double surrogate(PreparedQuery query, float[] data, int offset, double norm) {
+            if (!query.hasDirection() || norm < PreparedQuery.MIN_NORM) {
+                return 0.0;
+            }
+            double[] q = query.getNormalized();
+            double dot = FeatureUtils.kernels().dot(q, 0, data, offset, q.length);
+            return -(norm == 1.0 ? dot : dot / norm);
+        }
+
+        @Override
+        public void surrogates(PreparedBatch batch, double[] data, int offset, double norm,
+                               double[] out, int outOffset, int outStride) {
+            FeatureUtils.kernels().dotRows(batch.getNormalized(), 0, batch.size(), data, offset,
+                    batch.getDimensions(), out, outOffset, outStride);
+            cosinesFromDots(batch, norm, out, outOffset, outStride);
+        }
+
+        @Override
+        public void surrogates(PreparedBatch batch, float[] data, int offset, double norm,
+                               double[] out, int outOffset, int outStride) {
+            FeatureUtils.kernels().dotRows(batch.getNormalized(), 0, batch.size(), data, offset,
+                    batch.getDimensions(), out, outOffset, outStride);
+            cosinesFromDots(batch, norm, out, outOffset, outStride);
+        }
+
+        private void cosinesFromDots(PreparedBatch batch, double norm, double[] out, int outOffset, int outStride) {
+            boolean zero = norm < PreparedQuery.MIN_NORM;
+            for (int i = 0; i < batch.size(); i++) {
+                int cell = outOffset + i * outStride;
+                if (zero || !batch.get(i).hasDirection()) {
+                    out[cell] = 0.0;
+                } else {
+                    out[cell] = -(norm == 1.0 ? out[cell] : out[cell] / norm);
+                }
+            }
+        }
+
+        @Override
+        public double toDistance(double surrogate) {
+            // Clamp to [0, 2] to handle numerical precision issues
+            return Math.max(0.0, Math.min(2.0, 1.0 + surrogate));
+        }
+
+        @Override
+        public double toSurrogate(double distance) {
+            return distance - 1.0;
+        }
+
+        @Override
+        public double distance(double[] vectorA, double[] vectorB) {
+            return FeatureUtils.cosineDistance(vectorA, vectorB);
+        }
+
+        @Override
+        public boolean isMetricSpace() {
+            return false;
+        }
+    },
+
+    /**
+     * Negative inner product, {@code -(q . v)}. Equivalent to cosine ranking for
+     * unit-length vectors, and the natural choice for embeddings trained with a
+     * dot-product objective. Can be negative.
+     */
+    INNER_PRODUCT {
+        @Override
+        public double surrogate(PreparedQuery query, double[] data, int offset, double norm) {
+            double[] q = query.getVector();
+            return -FeatureUtils.kernels().dot(q, 0, data, offset, q.length);
+        }
+
+        @Override
+        public double surrogate(PreparedQuery query, float[] data, int offset, double norm) {
+            double[] q = query.getVector();
+            return -FeatureUtils.kernels().dot(q, 0, data, offset, q.length);
+        }
+
+        @Override
+        public void surrogates(PreparedBatch batch, double[] data, int offset, double norm,
+                               double[] out, int outOffset, int outStride) {
+            FeatureUtils.kernels().dotRows(batch.getVectors(), 0, batch.size(), data, offset,
+                    batch.getDimensions(), out, outOffset, outStride);
+            negate(batch.size(), out, outOffset, outStride);
+        }
+
+        @Override
+        public void surrogates(PreparedBatch batch, float[] data, int offset, double norm,
+                               double[] out, int outOffset, int outStride) {
+            FeatureUtils.kernels().dotRows(batch.getVectors(), 0, batch.size(), data, offset,
+                    batch.getDimensions(), out, outOffset, outStride);
+            negate(batch.size(), out, outOffset, outStride);
+        }
+
+        private void negate(int count, double[] out, int outOffset, int outStride) {
+            for (int i = 0; i < count; i++) {
+                out[outOffset + i * outStride] = -out[outOffset + i * outStride];
+            }
+        }
+
+        @Override
+        public double toDistance(double surrogate) {
+            return surrogate;
+        }
+
+        @Override
+        public double toSurrogate(double distance) {
+            return distance;
+        }
+
+        @Override
+        public double distance(double[] vectorA, double[] vectorB) {
+            return -FeatureUtils.dotProduct(vectorA, vectorB);
+        }
+
+        @Override
+        public boolean isMetricSpace() {
+            return false;
+        }
+    },
+
+    /**
+     * L1 (Manhattan) distance. The surrogate is the distance itself.
+     */
+    MANHATTAN {
+        @Override
+        public double surrogate(PreparedQuery query, double[] data, int offset, double norm) {
+            double[] q = query.getVector();
+            return FeatureUtils.kernels().manhattan(q, 0, data, offset, q.length);
+        }
+
+        @Override
+        public double surrogate(PreparedQuery query, float[] data, int offset, double norm) {
+            double[] q = query.getVector();
+            return FeatureUtils.kernels().manhattan(q, 0, data, offset, q.length);
+        }
+
+        @Override
+        public double boundedSurrogate(PreparedQuery query, double[] data, int offset, double norm,
+                                       DimensionOrder order, double bound) {
+            return FeatureUtils.kernels().boundedManhattan(query.getVector(), data, offset, order, bound);
+        }
+
+        @Override
+        public double boundedSurrogate(PreparedQuery query, float[] data, int offset, double norm,
+                                       DimensionOrder order, double bound) {
+            return FeatureUtils.kernels().boundedManhattan(query.getVector(), data, offset, order, bound);
+        }
+
+        @Override
+        public boolean supportsEarlyAbandon() {
+            return true;
+        }
+
+        @Override
+        public double toDistance(double surrogate) {
+            return surrogate;
+        }
+
+        @Override
+        public double toSurrogate(double distance) {
+            return distance;
+        }
+
+        @Override
+        public double distance(double[] vectorA, double[] vectorB) {
+            return FeatureUtils.manhattanDistance(vectorA, vectorB);
+        }
+
+        @Override
+        public boolean isMetricSpace() {
+            return true;
+        }
+    }
+}
@@ -3,15 +3,117 @@ package com.retrieval.utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
 /**
  * Consolidated utility class for feature vector operations and distance calculations.
  * This class provides common mathematical operations used across the image retrieval system.
+ * <p>
+ * The distance and norm computations are delegated to a kernel chosen once at class
+ * initialization. When the JVM is started with {@code --add-modules jdk.incubator.vector}
+ * and the CPU offers at least two double lanes, vectorized (SIMD) kernels are used;
+ * otherwise, or when the {@code DISABLE_SIMD_KERNELS} environment variable is {@code true},
+ * plain scalar loops are used. The SIMD kernels sum in a different order and use fused
+ * multiply-add, so results may differ from the scalar loops by rounding error. For
+ * {@code n}-dimensional vectors the difference is about {@code n * 2^-53} relative to the
+ * sum of the absolute terms: relative to the result for Euclidean and Manhattan distances,
+ * whose terms are non-negative, but possibly much larger relative to a dot product or
+ * cosine distance whose terms cancel. Rankings agree except for near-ties within that
+ * rounding error.
  */
 public class FeatureUtils {
     private static final Logger log = LoggerFactory.getLogger(FeatureUtils.class);
 
     private static final double EPSILON = 1e-12; // Small value to prevent division by zero
 
+    private static final String SIMD_KERNELS_CLASS = "com.retrieval.utils.SimdDistanceKernels";
+    private static final boolean SIMD_DISABLED =
+            Boolean.parseBoolean(System.getenv().getOrDefault("DISABLE_SIMD_KERNELS", "false"));
+
+    private static final DistanceKernels KERNELS = loadKernels();
+
+    /**
+     * Target size of one block of query rows and one tile of corpus rows in
+     * {@link #distanceMatrix}, small enough for both to stay in a per-core L2 cache.
+     */
+    private static final int MATRIX_TILE_BYTES = 64 * 1024;
+
+    /**
+     * Below this many multiply-adds a distance matrix is computed on the calling thread.
+     */
+    private static final long MATRIX_PARALLEL_THRESHOLD = 1L << 20;
+
+    /**
+     * Picks the SIMD kernels when the Vector API module is present and usable,
+     * falling back to the scalar kernels otherwise.
+     */
+    private static DistanceKernels loadKernels() {
+        DistanceKernels kernels = new ScalarDistanceKernels();
+        if (!SIMD_DISABLED) {
+            try {
+                kernels = (DistanceKernels) Class.forName(SIMD_KERNELS_CLASS)
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (LinkageError | ReflectiveOperationException | RuntimeException e) {
+                log.info("Vector API kernels unavailable ({}), using scalar distance kernels", e.toString());
+            }
+        }
+        log.info("FeatureUtils distance kernels: {}", kernels.describe());
+        return kernels;
+    }
+
+    /**
+     * Describes the distance kernels selected at startup, e.g. "scalar" or
+     * "simd (256-bit, 4 lanes)".
+     *
+     * @return The kernel description
+     */
+    public static String getKernelDescription() {
+        return KERNELS.describe();
+    }
+
+    /**
+     * @return The kernels selected at startup, for other classes in this package.
+     */
+    static DistanceKernels kernels() {
+        return KERNELS;
+    }
+
+    /**
+     * Validates that two vectors are non-null, non-empty and of equal length.
+     */
+    private static void checkPair(double[] vectorA, double[] vectorB) {
+        if (vectorA == null || vectorB == null) {
+            throw new IllegalArgumentException("Vectors cannot be null");
+        }
+        if (vectorA.length == 0 || vectorB.length == 0) {
+            throw new IllegalArgumentException("Vectors cannot be empty");
+        }
+        if (vectorA.length != vectorB.length) {
+            throw new IllegalArgumentException(
+                    String.format("Vector dimensions must match: %d vs %d",
+                            vectorA.length, vectorB.length));
+        }
+    }
+
+    /**
+     * Validates a double-precision query against a single-precision vector.
+     */
+    private static void checkPair(double[] vectorA, float[] vectorB) {
+        if (vectorA == null || vectorB == null) {
+            throw new IllegalArgumentException("Vectors cannot be null");
+        }
+        if (vectorA.length == 0 || vectorB.length == 0) {
+            throw new IllegalArgumentException("Vectors cannot be empty");
+        }
+        if (vectorA.length != vectorB.length) {
+            throw new IllegalArgumentException(
+                    String.format("Vector dimensions must match: %d vs %d",
+                            vectorA.length, vectorB.length));
+        }
+    }
+
     /**
      * Normalizes a feature vector to unit length (L2 normalization).
      * This operation is performed in-place, modifying the original vector.
@@ -24,11 +126,7 @@ public class FeatureUtils {
             throw new IllegalArgumentException("Vector cannot be null or empty");
         }
 
-        double norm = 0.0;
-        for (double v : vector) {
-            norm += v * v;
-        }
-        norm = Math.sqrt(norm);
+        double norm = Math.sqrt(KERNELS.sumOfSquares(vector, 0, vector.length));
 
         if (norm > EPSILON) {
             for (int i = 0; i < vector.length; i++) {
@@ -68,37 +166,17 @@ public class FeatureUtils {
      * @throws IllegalArgumentException if vectors are null, empty, or have different lengths
      */
     public static double cosineDistance(double[] vectorA, double[] vectorB) {
-        if (vectorA == null || vectorB == null) {
-            throw new IllegalArgumentException("Vectors cannot be null");
-        }
-        if (vectorA.length == 0 || vectorB.length == 0) {
-            throw new IllegalArgumentException("Vectors cannot be empty");
-        }
-        if (vectorA.length != vectorB.length) {
-            throw new IllegalArgumentException(
-                    String.format("Vector dimensions must match: %d vs %d",
-                            vectorA.length, vectorB.length));
-        }
-
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
+        checkPair(vectorA, vectorB);
 
-        for (int i = 0; i < vectorA.length; i++) {
-            dotProduct += vectorA[i] * vectorB[i];
-            normA += vectorA[i] * vectorA[i];
-            normB += vectorB[i] * vectorB[i];
-        }
+        double cosineSimilarity = KERNELS.cosineSimilarity(vectorA, 0, vectorB, 0, vectorA.length, EPSILON);
 
         // Handle edge cases where one or both vectors are zero vectors
-        if (normA < EPSILON || normB < EPSILON) {
+        if (Double.isNaN(cosineSimilarity)) {
             log.warn("One or both vectors have near-zero norm (normA={}, normB={})",
-                    Math.sqrt(normA), Math.sqrt(normB));
+                    l2Norm(vectorA), l2Norm(vectorB));
             return 1.0; // Maximum dissimilarity for zero vectors
         }
 
-        double cosineSimilarity = dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
-
         // Clamp to [-1, 1] to handle numerical precision issues
         cosineSimilarity = Math.max(-1.0, Math.min(1.0, cosineSimilarity));
 
@@ -114,25 +192,9 @@ public class FeatureUtils {
      * @throws IllegalArgumentException if vectors are null, empty, or have different lengths
      */
     public static double euclideanDistance(double[] vectorA, double[] vectorB) {
-        if (vectorA == null || vectorB == null) {
-            throw new IllegalArgumentException("Vectors cannot be null");
-        }
-        if (vectorA.length == 0 || vectorB.length == 0) {
-            throw new IllegalArgumentException("Vectors cannot be empty");
-        }
-        if (vectorA.length != vectorB.length) {
-            throw new IllegalArgumentException(
-                    String.format("Vector dimensions must match: %d vs %d",
-                            vectorA.length, vectorB.length));
-        }
-
-        double sum = 0.0;
-        for (int i = 0; i < vectorA.length; i++) {
-            double diff = vectorA[i] - vectorB[i];
-            sum += diff * diff;
-        }
+        checkPair(vectorA, vectorB);
 
-        return Math.sqrt(sum);
+        return Math.sqrt(KERNELS.squaredEuclidean(vectorA, 0, vectorB, 0, vectorA.length));
     }
 
     /**
@@ -144,6 +206,35 @@ public class FeatureUtils {
      * @throws IllegalArgumentException if vectors are null, empty, or have different lengths
      */
     public static double manhattanDistance(double[] vectorA, double[] vectorB) {
+        checkPair(vectorA, vectorB);
+
+        return KERNELS.manhattan(vectorA, 0, vectorB, 0, vectorA.length);
+    }
+
+    /**
+     * Calculates the dot (inner) product of two feature vectors.
+     *
+     * @param vectorA First feature vector
+     * @param vectorB Second feature vector
+     * @return The dot product of the vectors
+     * @throws IllegalArgumentException if vectors are null, empty, or have different lengths
+     */
+    public static double dotProduct(double[] vectorA, double[] vectorB) {
+        checkPair(vectorA, vectorB);
+
+        return KERNELS.dot(vectorA, 0, vectorB, 0, vectorA.length);
+    }
+
+    /**
+     * Calculates the dot product of two int8 vectors, such as scalar-quantized codes,
+     * with exact integer arithmetic.
+     *
+     * @param vectorA First vector
+     * @param vectorB Second vector
+     * @return The dot product of the vectors
+     * @throws IllegalArgumentException if vectors are null, empty, or have different lengths
+     */
+    public static int dotProduct(byte[] vectorA, byte[] vectorB) {
         if (vectorA == null || vectorB == null) {
             throw new IllegalArgumentException("Vectors cannot be null");
         }
@@ -156,12 +247,108 @@ public class FeatureUtils {
                             vectorA.length, vectorB.length));
         }
 
-        double sum = 0.0;
-        for (int i = 0; i < vectorA.length; i++) {
-            sum += Math.abs(vectorA[i] - vectorB[i]);
+        return KERNELS.dot(vectorA, 0, vectorB, 0, vectorA.length);
+    }
+
+    /**
+     * Calculates the dot product of two ranges of int8 values, e.g. a quantized query and
+     * one row of a contiguous code array. No validation is performed beyond the array
+     * bounds checks of the JVM.
+     *
+     * @param vectorA First array
+     * @param aOffset Index of the first component in {@code vectorA}
+     * @param vectorB Second array
+     * @param bOffset Index of the first component in {@code vectorB}
+     * @param length  Number of components
+     * @return The dot product of the ranges
+     */
+    public static int dotProduct(byte[] vectorA, int aOffset, byte[] vectorB, int bOffset, int length) {
+        return KERNELS.dot(vectorA, aOffset, vectorB, bOffset, length);
+    }
+
+    /**
+     * Calculates the Hamming distance between two packed binary descriptors, i.e. the
+     * number of differing bits. {@link Long#bitCount} is compiled to a single population
+     * count instruction on current x86 and ARM CPUs, so each 64-bit word costs one XOR
+     * and one popcount.
+     *
+     * @param bitsA First packed descriptor
+     * @param bitsB Second packed descriptor
+     * @return The number of differing bits
+     * @throws IllegalArgumentException if descriptors are null, empty, or have different lengths
+     */
+    public static int hammingDistance(long[] bitsA, long[] bitsB) {
+        if (bitsA == null || bitsB == null) {
+            throw new IllegalArgumentException("Descriptors cannot be null");
+        }
+        if (bitsA.length == 0 || bitsB.length == 0) {
+            throw new IllegalArgumentException("Descriptors cannot be empty");
+        }
+        if (bitsA.length != bitsB.length) {
+            throw new IllegalArgumentException(
+                    String.format("Descriptor lengths must match: %d vs %d words",
+                            bitsA.length, bitsB.length));
         }
 
-        return sum;
+        return hammingDistance(bitsA, 0, bitsB, 0, bitsA.length);
+    }
+
+    /**
+     * Calculates the Hamming distance between two ranges of packed words, e.g. a query and
+     * one row of a contiguous descriptor array. No validation is performed beyond the
+     * array bounds checks of the JVM.
+     *
+     * @param bitsA   First array
+     * @param aOffset Index of the first word in {@code bitsA}
+     * @param bitsB   Second array
+     * @param bOffset Index of the first word in {@code bitsB}
+     * @param words   Number of words to compare
+     * @return The number of differing bits
+     */
+    public static int hammingDistance(long[] bitsA, int aOffset, long[] bitsB, int bOffset, int words) {
+        int distance = 0;
+        for (int i = 0; i < words; i++) {
+            distance += Long.bitCount(bitsA[aOffset + i] ^ bitsB[bOffset + i]);
+        }
+        return distance;
+    }
+
+    /**
+     * Packs a byte-oriented binary descriptor (as produced by ORB or BRIEF) into 64-bit
+     * words. Byte {@code j} becomes bits {@code 8 * (j % 8)} to {@code 8 * (j % 8) + 7} of
+     * word {@code j / 8}, so bit {@code i} of the descriptor is bit {@code i % 64} of word
+     * {@code i / 64}.
+     *
+     * @param bytes The descriptor bytes
+     * @return The packed descriptor, {@code ceil(bytes.length / 8)} words long
+     * @throws IllegalArgumentException if bytes is null or empty
+     */
+    public static long[] packBits(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            throw new IllegalArgumentException("Descriptor cannot be null or empty");
+        }
+
+        long[] words = new long[(bytes.length + Long.BYTES - 1) / Long.BYTES];
+        for (int j = 0; j < bytes.length; j++) {
+            words[j / Long.BYTES] |= (bytes[j] & 0xFFL) << (Byte.SIZE * (j % Long.BYTES));
+        }
+        return words;
+    }
+
+    /**
+     * Calculates the squared Euclidean distance between two feature vectors.
+     * This avoids the square root and preserves the ordering of {@link #euclideanDistance},
+     * so it is preferable when only the ranking of distances matters.
+     *
+     * @param vectorA First feature vector
+     * @param vectorB Second feature vector
+     * @return The squared Euclidean distance between the vectors
+     * @throws IllegalArgumentException if vectors are null, empty, or have different lengths
+     */
+    public static double squaredEuclideanDistance(double[] vectorA, double[] vectorB) {
+        checkPair(vectorA, vectorB);
+
+        return KERNELS.squaredEuclidean(vectorA, 0, vectorB, 0, vectorA.length);
     }
 
     /**
@@ -176,12 +363,7 @@ public class FeatureUtils {
             throw new IllegalArgumentException("Vector cannot be null or empty");
         }
 
-        double sum = 0.0;
-        for (double v : vector) {
-            sum += v * v;
-        }
-
-        return Math.sqrt(sum);
+        return Math.sqrt(KERNELS.sumOfSquares(vector, 0, vector.length));
     }
 
     /**
@@ -206,6 +388,340 @@ public class FeatureUtils {
         return isNormalized(vector, 1e-6);
     }
 
+    /**
+     * Normalizes a single-precision feature vector to unit length (L2 normalization).
+     * The norm is accumulated in double precision. This operation is performed in-place.
+     *
+     * @param vector The feature vector to normalize
+     * @throws IllegalArgumentException if vector is null or empty
+     */
+    public static void normalize(float[] vector) {
+        if (vector == null || vector.length == 0) {
+            throw new IllegalArgumentException("Vector cannot be null or empty");
+        }
+
+        double norm = Math.sqrt(KERNELS.sumOfSquares(vector, 0, vector.length));
+
+        if (norm > EPSILON) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = (float) (vector[i] / norm);
+            }
+        } else {
+            log.warn("Vector has near-zero norm ({}), skipping normalization", norm);
+        }
+    }
+
+    /**
+     * Computes the L2 norm (magnitude) of a single-precision feature vector.
+     *
+     * @param vector The feature vector
+     * @return The L2 norm of the vector
+     * @throws IllegalArgumentException if vector is null or empty
+     */
+    public static double l2Norm(float[] vector) {
+        if (vector == null || vector.length == 0) {
+            throw new IllegalArgumentException("Vector cannot be null or empty");
+        }
+
+        return Math.sqrt(KERNELS.sumOfSquares(vector, 0, vector.length));
+    }
+
+    /**
+     * Narrows a double-precision vector to single precision.
+     *
+     * @param vector The vector to convert
+     * @return A new float array with the same components
+     * @throws IllegalArgumentException if vector is null
+     */
+    public static float[] toFloatArray(double[] vector) {
+        if (vector == null) {
+            throw new IllegalArgumentException("Vector cannot be null");
+        }
+
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) vector[i];
+        }
+        return result;
+    }
+
+    /**
+     * Widens a single-precision vector to double precision.
+     *
+     * @param vector The vector to convert
+     * @return A new double array with the same components
+     * @throws IllegalArgumentException if vector is null
+     */
+    public static double[] toDoubleArray(float[] vector) {
+        if (vector == null) {
+            throw new IllegalArgumentException("Vector cannot be null");
+        }
+
+        double[] result = new double[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = vector[i];
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the cosine distance between a double-precision query and a
+     * single-precision stored vector, accumulating in double precision.
+     *
+     * @param query  The query vector
+     * @param vector The stored vector
+     * @return The cosine distance between the vectors
+     * @throws IllegalArgumentException if vectors are null, empty, or have different lengths
+     * @see #cosineDistance(double[], double[])
+     */
+    public static double cosineDistance(double[] query, float[] vector) {
+        checkPair(query, vector);
+
+        double cosineSimilarity = KERNELS.cosineSimilarity(query, 0, vector, 0, query.length, EPSILON);
+        if (Double.isNaN(cosineSimilarity)) {
+            log.warn("One or both vectors have near-zero norm (normA={}, normB={})",
+                    l2Norm(query), l2Norm(vector));
+            return 1.0;
+        }
+        return 1.0 - Math.max(-1.0, Math.min(1.0, cosineSimilarity));
+    }
+
+    /**
+     * Calculates the Euclidean distance between a double-precision query and a
+     * single-precision stored vector.
+     *
+     * @param query  The query vector
+     * @param vector The stored vector
+     * @return The Euclidean distance between the vectors
+     * @throws IllegalArgumentException if vectors are null, empty, or have different lengths
+     */
+    public static double euclideanDistance(double[] query, float[] vector) {
+        checkPair(query, vector);
+
+        return Math.sqrt(KERNELS.squaredEuclidean(query, 0, vector, 0, query.length));
+    }
+
+    /**
+     * Calculates the Manhattan (L1) distance between a double-precision query and a
+     * single-precision stored vector.
+     *
+     * @param query  The query vector
+     * @param vector The stored vector
+     * @return The Manhattan distance between the vectors
+     * @throws IllegalArgumentException if vectors are null, empty, or have different lengths
+     */
+    public static double manhattanDistance(double[] query, float[] vector) {
+        checkPair(query, vector);
+
+        return KERNELS.manhattan(query, 0, vector, 0, query.length);
+    }
+
+    /**
+     * Computes the distances between every query and every corpus vector.
+     * <p>
+     * Both inputs are row-major: row {@code i} of {@code queries} occupies
+     * {@code [i * dimensions, (i + 1) * dimensions)}, and likewise for {@code corpus}. The
+     * result is row-major as well, with the distance between query {@code i} and corpus
+     * vector {@code j} at {@code out[i * corpusCount + j]}.
+     * <p>
+     * The work is split into cache-sized tiles of queries and corpus vectors that are
+     * processed in parallel for large inputs. For {@link DistanceMetrics#EUCLIDEAN},
+     * {@link DistanceMetrics#COSINE} and {@link DistanceMetrics#INNER_PRODUCT} only dot
+     * products are computed, four query rows at a time per corpus load, and the distances
+     * are derived from precomputed norms ({@code |q - c|^2 = |q|^2 + |c|^2 - 2 q.c}). This
+     * identity loses relative accuracy for distances much smaller than the vector norms,
+     * so near-duplicate thresholds below about 1e-6 of the norm should be checked with
+     * {@link #euclideanDistance(double[], double[])}. Other metrics are evaluated pair by pair.
+     *
+     * @param queries     The query vectors, row-major.
+     * @param queryCount  The number of query rows to use.
+     * @param corpus      The corpus vectors, row-major.
+     * @param corpusCount The number of corpus rows to use.
+     * @param dimensions  The dimensionality of every row.
+     * @param metric      The distance metric.
+     * @param out         A buffer of at least {@code queryCount * corpusCount} elements to
+     *                    write the result into, or null to allocate one.
+     * @return The buffer holding the result ({@code out} if it was given).
+     * @throws IllegalArgumentException if an array is null or too short, a count is negative,
+     *                                  dimensions is not positive, or metric is null
+     */
+    public static double[] distanceMatrix(double[] queries, int queryCount, double[] corpus, int corpusCount,
+                                          int dimensions, DistanceMetric metric, double[] out) {
+        checkMatrix(queries, queryCount, corpus == null ? -1 : corpus.length, corpusCount, dimensions, metric);
+        return computeDistanceMatrix(queries, queryCount, new DoubleCorpus(corpus), corpusCount,
+                dimensions, metric, out);
+    }
+
+    /**
+     * Variant of {@link #distanceMatrix(double[], int, double[], int, int, DistanceMetric, double[])}
+     * for a single-precision corpus. Arithmetic is carried out in double precision.
+     */
+    public static double[] distanceMatrix(double[] queries, int queryCount, float[] corpus, int corpusCount,
+                                          int dimensions, DistanceMetric metric, double[] out) {
+        checkMatrix(queries, queryCount, corpus == null ? -1 : corpus.length, corpusCount, dimensions, metric);
+        return computeDistanceMatrix(queries, queryCount, new FloatCorpus(corpus), corpusCount,
+                dimensions, metric, out);
+    }
+
+    private static void checkMatrix(double[] queries, int queryCount, int corpusLength, int corpusCount,
+                                    int dimensions, DistanceMetric metric) {
+        if (queries == null || corpusLength < 0) {
+            throw new IllegalArgumentException("Query and corpus arrays cannot be null");
+        }
+        if (metric == null) {
+            throw new IllegalArgumentException("Distance metric cannot be null");
+        }
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("Dimensions must be positive");
+        }
+        if (queryCount < 0 || corpusCount < 0) {
+            throw new IllegalArgumentException("Row counts cannot be negative");
+        }
+        if ((long) queryCount * dimensions > queries.length || (long) corpusCount * dimensions > corpusLength) {
+            throw new IllegalArgumentException(
+                    String.format("Arrays too short for %d x %d queries and %d x %d corpus vectors",
+                            queryCount, dimensions, corpusCount, dimensions));
+        }
+        if ((long) queryCount * corpusCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Distance matrix too large: " + queryCount + " x " + corpusCount);
+        }
+    }
+
+    /**
+     * Uniform access to double- and single-precision corpus rows for the matrix kernel.
+     */
+    private interface MatrixCorpus {
+        void dotRows(double[] queries, int queryOffset, int rows, int row, int dimensions,
+                     double[] out, int outOffset, int outStride);
+
+        double sumOfSquares(int row, int dimensions);
+
+        double surrogate(DistanceMetric metric, PreparedQuery query, int row, int dimensions, double norm);
+    }
+
+    private record DoubleCorpus(double[] data) implements MatrixCorpus {
+        @Override
+        public void dotRows(double[] queries, int queryOffset, int rows, int row, int dimensions,
+                            double[] out, int outOffset, int outStride) {
+            KERNELS.dotRows(queries, queryOffset, rows, data, row * dimensions, dimensions, out, outOffset, outStride);
+        }
+
+        @Override
+        public double sumOfSquares(int row, int dimensions) {
+            return KERNELS.sumOfSquares(data, row * dimensions, dimensions);
+        }
+
+        @Override
+        public double surrogate(DistanceMetric metric, PreparedQuery query, int row, int dimensions, double norm) {
+            return metric.surrogate(query, data, row * dimensions, norm);
+        }
+    }
+
+    private record FloatCorpus(float[] data) implements MatrixCorpus {
+        @Override
+        public void dotRows(double[] queries, int queryOffset, int rows, int row, int dimensions,
+                            double[] out, int outOffset, int outStride) {
+            KERNELS.dotRows(queries, queryOffset, rows, data, row * dimensions, dimensions, out, outOffset, outStride);
+        }
+
+        @Override
+        public double sumOfSquares(int row, int dimensions) {
+            return KERNELS.sumOfSquares(data, row * dimensions, dimensions);
+        }
+
+        @Override
+        public double surrogate(DistanceMetric metric, PreparedQuery query, int row, int dimensions, double norm) {
+            return metric.surrogate(query, data, row * dimensions, norm);
+        }
+    }
+
+    private static double[] computeDistanceMatrix(double[] queries, int queryCount, MatrixCorpus corpus,
+                                                  int corpusCount, int dimensions, DistanceMetric metric,
+                                                  double[] out) {
+        int cells = queryCount * corpusCount;
+        if (out == null) {
+            out = new double[cells];
+        } else if (out.length < cells) {
+            throw new IllegalArgumentException(
+                    String.format("Output buffer too small: %d < %d", out.length, cells));
+        }
+        if (cells == 0) {
+            return out;
+        }
+
+        // Only metrics derivable from dot products and norms take the blocked path
+        boolean dotBased = metric == DistanceMetrics.EUCLIDEAN
+                || metric == DistanceMetrics.COSINE
+                || metric == DistanceMetrics.INNER_PRODUCT;
+
+        double[] querySquares = new double[queryCount];
+        for (int q = 0; q < queryCount; q++) {
+            querySquares[q] = KERNELS.sumOfSquares(queries, q * dimensions, dimensions);
+        }
+        double[] corpusSquares = new double[corpusCount];
+        for (int c = 0; c < corpusCount; c++) {
+            corpusSquares[c] = corpus.sumOfSquares(c, dimensions);
+        }
+        PreparedQuery[] prepared = null;
+        if (!dotBased) {
+            prepared = new PreparedQuery[queryCount];
+            for (int q = 0; q < queryCount; q++) {
+                prepared[q] = PreparedQuery.of(Arrays.copyOfRange(queries, q * dimensions, (q + 1) * dimensions));
+            }
+        }
+
+        int rowsPerTile = Math.max(1, MATRIX_TILE_BYTES / (dimensions * Double.BYTES));
+        int queryTiles = (queryCount + rowsPerTile - 1) / rowsPerTile;
+        int corpusTiles = (corpusCount + rowsPerTile - 1) / rowsPerTile;
+
+        double[] result = out;
+        PreparedQuery[] preparedQueries = prepared;
+        IntStream tiles = IntStream.range(0, queryTiles * corpusTiles);
+        if ((long) cells * dimensions >= MATRIX_PARALLEL_THRESHOLD) {
+            tiles = tiles.parallel();
+        }
+        tiles.forEach(tile -> {
+            int qStart = (tile / corpusTiles) * rowsPerTile;
+            int qEnd = Math.min(queryCount, qStart + rowsPerTile);
+            int cStart = (tile % corpusTiles) * rowsPerTile;
+            int cEnd = Math.min(corpusCount, cStart + rowsPerTile);
+            for (int c = cStart; c < cEnd; c++) {
+                if (dotBased) {
+                    corpus.dotRows(queries, qStart * dimensions, qEnd - qStart, c, dimensions,
+                            result, qStart * corpusCount + c, corpusCount);
+                    for (int q = qStart; q < qEnd; q++) {
+                        int cell = q * corpusCount + c;
+                        result[cell] = distanceFromDot(metric, result[cell], querySquares[q], corpusSquares[c]);
+                    }
+                } else {
+                    double norm = Math.sqrt(corpusSquares[c]);
+                    for (int q = qStart; q < qEnd; q++) {
+                        result[q * corpusCount + c] =
+                                metric.toDistance(corpus.surrogate(metric, preparedQueries[q], c, dimensions, norm));
+                    }
+                }
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Derives a distance from a dot product and the squared norms of both vectors.
+     */
+    private static double distanceFromDot(DistanceMetric metric, double dot, double querySquare, double corpusSquare) {
+        if (metric == DistanceMetrics.EUCLIDEAN) {
+            return Math.sqrt(Math.max(0.0, querySquare + corpusSquare - 2.0 * dot));
+        }
+        if (metric == DistanceMetrics.COSINE) {
+            if (querySquare < EPSILON || corpusSquare < EPSILON) {
+                return 1.0; // Maximum dissimilarity for zero vectors, as in cosineDistance
+            }
+            double cosineSimilarity = dot / (Math.sqrt(querySquare) * Math.sqrt(corpusSquare));
+            return 1.0 - Math.max(-1.0, Math.min(1.0, cosineSimilarity));
+        }
+        return -dot;
+    }
+
     /**
      * Calculates basic statistics for a feature vector.
      *
@@ -0,0 +1,120 @@
+package com.retrieval.utils;
+
+import java.util.Arrays;
+
+/**
+ * An unbounded min-heap of (priority, id) pairs held in primitive arrays, e.g. the branches
+ * still to explore in a tree search. Offering and polling allocate nothing once the arrays
+ * have grown to the largest size needed, so one instance can be cleared and reused across
+ * queries.
+ * <p>
+ * Unlike {@link TopK}, ties on priority are not broken by id; entries of equal priority
+ * come out in the order a binary heap yields them, as with {@link java.util.PriorityQueue}.
+ * Instances are not thread-safe.
+ */
+public final class IntMinHeap {
+    private int[] ids;
+    private double[] priorities;
+    private int size = 0;
+
+    public IntMinHeap() {
+        this(64);
+    }
+
+    /**
+     * @param initialCapacity The number of entries the heap holds before it first grows.
+     */
+    public IntMinHeap(int initialCapacity) {
+        this.ids = new int[Math.max(1, initialCapacity)];
+        this.priorities = new double[ids.length];
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @param id       The entry, e.g. a node index.
+     * @param priority The entry's priority; smaller comes out first.
+     */
+    public void offer(int id, double priority) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            priorities = Arrays.copyOf(priorities, size * 2);
+        }
+        siftUp(size++, id, priority);
+    }
+
+    /**
+     * @return Whether the heap holds no entries.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The smallest priority held; the heap must not be empty.
+     */
+    public double peekPriority() {
+        return priorities[0];
+    }
+
+    /**
+     * Removes the entry with the smallest priority; the heap must not be empty.
+     *
+     * @return The removed entry's id.
+     */
+    public int poll() {
+        int id = ids[0];
+        int last = --size;
+        if (last > 0) {
+            siftDown(0, ids[last], priorities[last]);
+        }
+        return id;
+    }
+
+    /**
+     * Removes all entries, keeping the arrays for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    private void siftUp(int index, int id, double priority) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (priority >= priorities[parent]) {
+                break;
+            }
+            ids[index] = ids[parent];
+            priorities[index] = priorities[parent];
+            index = parent;
+        }
+        ids[index] = id;
+        priorities[index] = priority;
+    }
+
+    private void siftDown(int index, int id, double priority) {
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && priorities[child] > priorities[right]) {
+                child = right;
+            }
+            if (priority <= priorities[child]) {
+                break;
+            }
+            ids[index] = ids[child];
+            priorities[index] = priorities[child];
+            index = child;
+        }
+        ids[index] = id;
+        priorities[index] = priority;
+    }
+}
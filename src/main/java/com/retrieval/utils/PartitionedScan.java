@@ -0,0 +1,69 @@
+package com.retrieval.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Splits a scan over {@code 0..count-1} into contiguous partitions run as fork/join tasks,
+ * shared by the selections in {@link TopK} and {@link RadiusHits}.
+ */
+final class PartitionedScan {
+    // Partitions smaller than this are not worth the fork and merge
+    private static final int MIN_PARTITION_SIZE = 4096;
+    // Several partitions per worker so that an uneven split still balances
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    private PartitionedScan() {
+    }
+
+    /**
+     * Scans one contiguous range of candidates.
+     */
+    @FunctionalInterface
+    interface RangeScan<T> {
+        T scan(int from, int to);
+    }
+
+    /**
+     * Splits {@code 0..count-1} into partitions, scans them as tasks on {@code pool} and
+     * merges the results in partition order. Scans too small to split, or limited to a
+     * single worker, run on the calling thread without forking.
+     */
+    static <T> T run(int count, ForkJoinPool pool, int parallelism, RangeScan<T> scan, BinaryOperator<T> merge) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        int partitions = Math.min(parallelism * PARTITIONS_PER_THREAD, (count + MIN_PARTITION_SIZE - 1) / MIN_PARTITION_SIZE);
+        if (partitions <= 1) {
+            return scan.scan(0, count);
+        }
+        int partitionSize = (count + partitions - 1) / partitions;
+        RecursiveTask<T> task = new RecursiveTask<>() {
+            @Override
+            protected T compute() {
+                List<ForkJoinTask<T>> forked = new ArrayList<>(partitions - 1);
+                for (int partition = 1; partition < partitions; partition++) {
+                    int from = partition * partitionSize;
+                    int to = Math.min(count, from + partitionSize);
+                    forked.add(ForkJoinTask.adapt(() -> scan.scan(from, to)).fork());
+                }
+                T result = scan.scan(0, Math.min(count, partitionSize));
+                for (ForkJoinTask<T> partition : forked) {
+                    result = merge.apply(result, partition.join());
+                }
+                return result;
+            }
+        };
+        // Outside any pool, fork() targets the common pool, so the caller can take part in
+        // a common-pool scan; a dedicated pool must run the task itself
+        if (ForkJoinTask.getPool() == pool
+                || (pool == ForkJoinPool.commonPool() && !ForkJoinTask.inForkJoinPool())) {
+            return task.invoke();
+        }
+        return pool.invoke(task);
+    }
+}
@@ -0,0 +1,95 @@
+package com.retrieval.utils;
+
+/**
+ * A batch of {@link PreparedQuery} objects whose vectors are also packed row-major into
+ * shared arrays, so that a stored vector can be compared against several queries per
+ * load with {@link DistanceMetric#surrogates}.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ */
+public final class PreparedBatch {
+    private final PreparedQuery[] queries;
+    private final int dimensions;
+    private final double[] vectors;
+    private final double[] normalized;
+    private final double[] squaredNorms;
+
+    private PreparedBatch(double[][] queryVectors) {
+        this.queries = new PreparedQuery[queryVectors.length];
+        this.dimensions = queryVectors.length == 0 ? 0 : queryVectors[0] == null ? 0 : queryVectors[0].length;
+        this.vectors = new double[queryVectors.length * dimensions];
+        this.normalized = new double[queryVectors.length * dimensions];
+        this.squaredNorms = new double[queryVectors.length];
+        for (int i = 0; i < queryVectors.length; i++) {
+            PreparedQuery query = PreparedQuery.of(queryVectors[i]);
+            if (query.getDimensions() != dimensions) {
+                throw new IllegalArgumentException(
+                        String.format("Query vector dimensions must match: %d vs %d", dimensions, query.getDimensions()));
+            }
+            queries[i] = query;
+            System.arraycopy(query.getVector(), 0, vectors, i * dimensions, dimensions);
+            System.arraycopy(query.getNormalized(), 0, normalized, i * dimensions, dimensions);
+            squaredNorms[i] = query.getNorm() * query.getNorm();
+        }
+    }
+
+    /**
+     * Validates and prepares a batch of query vectors. The vectors are copied.
+     *
+     * @param queryVectors The query vectors; all must have the same dimensionality.
+     * @return The prepared batch.
+     * @throws IllegalArgumentException if the array or a vector is null or empty, or the
+     *                                  dimensionalities differ
+     */
+    public static PreparedBatch of(double[][] queryVectors) {
+        if (queryVectors == null) {
+            throw new IllegalArgumentException("Query vectors cannot be null");
+        }
+        return new PreparedBatch(queryVectors);
+    }
+
+    /**
+     * @return The number of queries.
+     */
+    public int size() {
+        return queries.length;
+    }
+
+    /**
+     * @return The dimensionality of the queries, or 0 for an empty batch.
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @param index The position of a query in the batch.
+     * @return The prepared query.
+     */
+    public PreparedQuery get(int index) {
+        return queries[index];
+    }
+
+    /**
+     * @return The query vectors as given, row-major. The array is shared and must not be modified.
+     */
+    public double[] getVectors() {
+        return vectors;
+    }
+
+    /**
+     * @return The unit-length query vectors, row-major, with the original vector in place of
+     * any query with near-zero norm. The array is shared and must not be modified.
+     */
+    public double[] getNormalized() {
+        return normalized;
+    }
+
+    /**
+     * @param index The position of a query in the batch.
+     * @return The squared L2 norm of the query vector.
+     */
+    public double getSquaredNorm(int index) {
+        return squaredNorms[index];
+    }
+}
@@ -0,0 +1,126 @@
+package com.retrieval.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * A query vector that has been validated and normalized once, so that each comparison
+ * against an indexed vector with a known norm costs a single dot product.
+ * <p>
+ * With a unit-length query {@code q} and a stored vector {@code v} of norm {@code |v|},
+ * the cosine distance is {@code 1 - (q . v) / |v|}; when the index guarantees unit-norm
+ * vectors the division is skipped as well. The results match
+ * {@link FeatureUtils#cosineDistance(double[], double[])} up to floating-point rounding.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ */
+public final class PreparedQuery {
+    private static final Logger log = LoggerFactory.getLogger(PreparedQuery.class);
+
+    /**
+     * Vectors with an L2 norm below this value have no direction; cosine distances to
+     * them are 1.0. Same cut-off as FeatureUtils.cosineDistance, which compares squared
+     * norms against 1e-12.
+     */
+    public static final double MIN_NORM = 1e-6;
+
+    private final double[] vector;
+    private final double[] normalized;
+    private final double norm;
+
+    private PreparedQuery(double[] vector) {
+        this.vector = Arrays.copyOf(vector, vector.length);
+        this.norm = FeatureUtils.l2Norm(vector);
+        if (norm >= MIN_NORM) {
+            this.normalized = new double[vector.length];
+            for (int i = 0; i < vector.length; i++) {
+                normalized[i] = vector[i] / norm;
+            }
+        } else {
+            log.warn("Query vector has near-zero norm ({}); cosine distances will be 1.0", norm);
+            this.normalized = null;
+        }
+    }
+
+    /**
+     * Validates and prepares a query vector. The vector is copied, so later changes
+     * to the argument do not affect the prepared query.
+     *
+     * @param vector The query vector.
+     * @return The prepared query.
+     * @throws IllegalArgumentException if vector is null or empty
+     */
+    public static PreparedQuery of(double[] vector) {
+        if (vector == null || vector.length == 0) {
+            throw new IllegalArgumentException("Query vector cannot be null or empty");
+        }
+        return new PreparedQuery(vector);
+    }
+
+    /**
+     * @return The query vector as given. The array is shared and must not be modified.
+     */
+    public double[] getVector() {
+        return vector;
+    }
+
+    /**
+     * @return The unit-length query vector, or the original vector if its norm is near zero.
+     * The array is shared and must not be modified.
+     */
+    public double[] getNormalized() {
+        return normalized != null ? normalized : vector;
+    }
+
+    /**
+     * @return The L2 norm of the query vector.
+     */
+    public double getNorm() {
+        return norm;
+    }
+
+    /**
+     * @return false if the query has near-zero norm and therefore no direction.
+     */
+    public boolean hasDirection() {
+        return normalized != null;
+    }
+
+    /**
+     * @return The dimensionality of the query vector.
+     */
+    public int getDimensions() {
+        return vector.length;
+    }
+
+    /**
+     * Computes the cosine distance to a stored vector whose norm is already known.
+     *
+     * @param stored     The stored vector.
+     * @param storedNorm The L2 norm of the stored vector; pass exactly 1.0 for vectors
+     *                   known to be unit length to skip the division.
+     * @return The cosine distance, in [0, 2]; 1.0 if either vector has near-zero norm.
+     * @throws IllegalArgumentException if the stored vector's length differs from the query's
+     */
+    public double cosineDistance(double[] stored, double storedNorm) {
+        checkLength(stored.length);
+        return DistanceMetrics.COSINE.toDistance(DistanceMetrics.COSINE.surrogate(this, stored, 0, storedNorm));
+    }
+
+    /**
+     * Single-precision variant of {@link #cosineDistance(double[], double)}.
+     */
+    public double cosineDistance(float[] stored, double storedNorm) {
+        checkLength(stored.length);
+        return DistanceMetrics.COSINE.toDistance(DistanceMetrics.COSINE.surrogate(this, stored, 0, storedNorm));
+    }
+
+    private void checkLength(int length) {
+        if (length != vector.length) {
+            throw new IllegalArgumentException(
+                    String.format("Vector dimensions must match: %d vs %d", vector.length, length));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.retrieval.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntPredicate;
+
+/**
+ * A growable list of (score, id) pairs whose score is within a bound, the range-query
+ * counterpart of {@link TopK}. Pairs are held in primitive arrays, so collecting a hit
+ * allocates only when the arrays grow.
+ * <p>
+ * Instances are not thread-safe; parallel scans keep one list per partition and combine
+ * them with {@link #addAll(RadiusHits)}, as {@link #select} does.
+ */
+public final class RadiusHits {
+    private int[] ids;
+    private double[] scores;
+    private int size = 0;
+
+    public RadiusHits() {
+        this(16);
+    }
+
+    /**
+     * @param initialCapacity The number of hits the list holds before it first grows.
+     */
+    public RadiusHits(int initialCapacity) {
+        this.ids = new int[Math.max(1, initialCapacity)];
+        this.scores = new double[ids.length];
+    }
+
+    /**
+     * Scans {@code count} candidates in parallel partitions, as {@link TopK}'s selections
+     * do, and keeps every candidate whose score is at most {@code bound}. The bound is
+     * passed to the scorer, so that scores which are sums of non-negative terms can be
+     * abandoned as soon as they exceed it.
+     *
+     * @param count       The number of candidates; candidate ids are {@code 0..count-1}.
+     * @param bound       The largest score kept.
+     * @param excluded    The candidates to skip, or null to keep all; called concurrently.
+     * @param scores      The score of each candidate; called concurrently.
+     * @param pool        The pool that scans the partitions.
+     * @param parallelism The number of workers the scan may occupy.
+     * @return The kept candidates in ascending order of id.
+     */
+    public static RadiusHits select(int count, double bound, IntPredicate excluded, TopK.BoundedScores scores,
+                                    ForkJoinPool pool, int parallelism) {
+        return PartitionedScan.run(count, pool, parallelism,
+                (from, to) -> scan(from, to, bound, excluded, scores),
+                (a, b) -> {
+                    a.addAll(b);
+                    return a;
+                });
+    }
+
+    private static RadiusHits scan(int from, int to, double bound, IntPredicate excluded, TopK.BoundedScores scores) {
+        RadiusHits hits = new RadiusHits();
+        for (int id = from; id < to; id++) {
+            if (excluded == null || !excluded.test(id)) {
+                double score = scores.score(id, bound);
+                if (score <= bound) {
+                    hits.add(id, score);
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Appends a hit; the caller is responsible for checking it against the bound.
+     *
+     * @param id    The candidate.
+     * @param score The candidate's score.
+     */
+    public void add(int id, double score) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        ids[size] = id;
+        scores[size] = score;
+        size++;
+    }
+
+    /**
+     * Appends all hits of another list.
+     *
+     * @param other The list to append; left unchanged.
+     */
+    public void addAll(RadiusHits other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.ids[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * @return The number of hits.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sorts the hits in ascending order of score, breaking ties by the smaller id as
+     * {@link TopK} does.
+     */
+    public void sort() {
+        if (size < 2) {
+            return;
+        }
+        TopK heap = new TopK(size);
+        for (int i = 0; i < size; i++) {
+            heap.offer(ids[i], scores[i]);
+        }
+        heap.drainTo(ids, scores);
+    }
+
+    /**
+     * @param index The position of a hit.
+     * @return The hit's id.
+     */
+    public int id(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @param index The position of a hit.
+     * @return The hit's score.
+     */
+    public double score(int index) {
+        return scores[index];
+    }
+}
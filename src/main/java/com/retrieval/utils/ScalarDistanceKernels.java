@@ -0,0 +1,216 @@
+package com.retrieval.utils;
+
+/**
+ * Plain Java loops. Used when the Vector API is unavailable or disabled,
+ * and as the reference implementation for the SIMD kernels.
+ */
+final class ScalarDistanceKernels implements DistanceKernels {
+
+    @Override
+    public String describe() {
+        return "scalar";
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double squaredEuclidean(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double manhattan(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += Math.abs(a[aOffset + i] - b[bOffset + i]);
+        }
+        return sum;
+    }
+
+    @Override
+    public double boundedSquaredEuclidean(double[] a, double[] b, int bOffset, DimensionOrder order, double bound) {
+        double sum = 0.0;
+        for (int block = 0; block < order.blockCount(); block++) {
+            int start = order.blockStart(block);
+            int end = start + order.blockLength(block);
+            for (int i = start; i < end; i++) {
+                double diff = a[i] - b[bOffset + i];
+                sum += diff * diff;
+            }
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public double boundedManhattan(double[] a, double[] b, int bOffset, DimensionOrder order, double bound) {
+        double sum = 0.0;
+        for (int block = 0; block < order.blockCount(); block++) {
+            int start = order.blockStart(block);
+            int end = start + order.blockLength(block);
+            for (int i = start; i < end; i++) {
+                sum += Math.abs(a[i] - b[bOffset + i]);
+            }
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfSquares(double[] a, int offset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double v = a[offset + i];
+            sum += v * v;
+        }
+        return sum;
+    }
+
+    @Override
+    public double cosineSimilarity(double[] a, int aOffset, double[] b, int bOffset, int length, double epsilon) {
+        double dotProduct = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < length; i++) {
+            double va = a[aOffset + i];
+            double vb = b[bOffset + i];
+            dotProduct += va * vb;
+            normA += va * va;
+            normB += vb * vb;
+        }
+        if (normA < epsilon || normB < epsilon) {
+            return Double.NaN;
+        }
+        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double squaredEuclidean(double[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double manhattan(double[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += Math.abs(a[aOffset + i] - b[bOffset + i]);
+        }
+        return sum;
+    }
+
+    @Override
+    public double boundedSquaredEuclidean(double[] a, float[] b, int bOffset, DimensionOrder order, double bound) {
+        double sum = 0.0;
+        for (int block = 0; block < order.blockCount(); block++) {
+            int start = order.blockStart(block);
+            int end = start + order.blockLength(block);
+            for (int i = start; i < end; i++) {
+                double diff = a[i] - b[bOffset + i];
+                sum += diff * diff;
+            }
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public double boundedManhattan(double[] a, float[] b, int bOffset, DimensionOrder order, double bound) {
+        double sum = 0.0;
+        for (int block = 0; block < order.blockCount(); block++) {
+            int start = order.blockStart(block);
+            int end = start + order.blockLength(block);
+            for (int i = start; i < end; i++) {
+                sum += Math.abs(a[i] - b[bOffset + i]);
+            }
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfSquares(float[] a, int offset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double v = a[offset + i];
+            sum += v * v;
+        }
+        return sum;
+    }
+
+    @Override
+    public double cosineSimilarity(double[] a, int aOffset, float[] b, int bOffset, int length, double epsilon) {
+        double dotProduct = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < length; i++) {
+            double va = a[aOffset + i];
+            double vb = b[bOffset + i];
+            dotProduct += va * vb;
+            normA += va * va;
+            normB += vb * vb;
+        }
+        if (normA < epsilon || normB < epsilon) {
+            return Double.NaN;
+        }
+        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    @Override
+    public void dotRows(double[] a, int aOffset, int rows, double[] b, int bOffset, int length,
+                        double[] out, int outOffset, int outStride) {
+        for (int r = 0; r < rows; r++) {
+            out[outOffset + r * outStride] = dot(a, aOffset + r * length, b, bOffset, length);
+        }
+    }
+
+    @Override
+    public void dotRows(double[] a, int aOffset, int rows, float[] b, int bOffset, int length,
+                        double[] out, int outOffset, int outStride) {
+        for (int r = 0; r < rows; r++) {
+            out[outOffset + r * outStride] = dot(a, aOffset + r * length, b, bOffset, length);
+        }
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,471 @@
+package com.retrieval.utils;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Distance kernels built on the incubating JDK Vector API ({@code jdk.incubator.vector}).
+ * The lane count follows the widest shape the CPU supports (2 lanes for SSE/NEON,
+ * 4 for AVX2, 8 for AVX-512); the remainder of each range is handled by a scalar tail.
+ * Single-precision inputs are loaded with a half-width float species and widened lane
+ * for lane, so the mixed kernels read half the bytes while still accumulating in double.
+ * Int8 inputs are widened to int lanes in the same way; on CPUs whose preferred shape is
+ * narrower than 256 bits the byte loads would be too short, so the int8 kernel uses a
+ * scalar loop there.
+ * <p>
+ * This class must only be loaded reflectively (see {@link FeatureUtils}) so that a JVM
+ * started without {@code --add-modules jdk.incubator.vector} falls back to
+ * {@link ScalarDistanceKernels} instead of failing with a linkage error.
+ */
+final class SimdDistanceKernels implements DistanceKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOAT_SPECIES =
+            FloatVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTE_SPECIES = INT_SPECIES.vectorBitSize() >= 256
+            ? VectorSpecies.of(byte.class, VectorShape.forBitSize(INT_SPECIES.vectorBitSize() / 4))
+            : null;
+
+    /**
+     * Minimum lane count for which the vectorized loops beat the scalar ones.
+     */
+    static final int MIN_LANES = 2;
+
+    SimdDistanceKernels() {
+        if (SPECIES.length() < MIN_LANES) {
+            throw new UnsupportedOperationException(
+                    "Preferred double species has only " + SPECIES.length() + " lane(s)");
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "simd (" + SPECIES.vectorBitSize() + "-bit, " + SPECIES.length() + " lanes)";
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double squaredEuclidean(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector diff = DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, bOffset + i));
+            acc = diff.fma(diff, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double manhattan(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector diff = DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, bOffset + i));
+            acc = acc.add(diff.abs());
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += Math.abs(a[aOffset + i] - b[bOffset + i]);
+        }
+        return sum;
+    }
+
+    @Override
+    public double boundedSquaredEuclidean(double[] a, double[] b, int bOffset, DimensionOrder order, double bound) {
+        double sum = 0.0;
+        for (int block = 0; block < order.blockCount(); block++) {
+            int start = order.blockStart(block);
+            int length = order.blockLength(block);
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            int upper = start + SPECIES.loopBound(length);
+            int i = start;
+            for (; i < upper; i += SPECIES.length()) {
+                DoubleVector diff = DoubleVector.fromArray(SPECIES, a, i).sub(DoubleVector.fromArray(SPECIES, b, bOffset + i));
+                acc = diff.fma(diff, acc);
+            }
+            for (; i < start + length; i++) {
+                double diff = a[i] - b[bOffset + i];
+                sum += diff * diff;
+            }
+            sum += acc.reduceLanes(VectorOperators.ADD);
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public double boundedManhattan(double[] a, double[] b, int bOffset, DimensionOrder order, double bound) {
+        double sum = 0.0;
+        for (int block = 0; block < order.blockCount(); block++) {
+            int start = order.blockStart(block);
+            int length = order.blockLength(block);
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            int upper = start + SPECIES.loopBound(length);
+            int i = start;
+            for (; i < upper; i += SPECIES.length()) {
+                DoubleVector diff = DoubleVector.fromArray(SPECIES, a, i).sub(DoubleVector.fromArray(SPECIES, b, bOffset + i));
+                acc = acc.add(diff.abs());
+            }
+            for (; i < start + length; i++) {
+                sum += Math.abs(a[i] - b[bOffset + i]);
+            }
+            sum += acc.reduceLanes(VectorOperators.ADD);
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfSquares(double[] a, int offset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, offset + i);
+            acc = va.fma(va, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double v = a[offset + i];
+            sum += v * v;
+        }
+        return sum;
+    }
+
+    @Override
+    public double cosineSimilarity(double[] a, int aOffset, double[] b, int bOffset, int length, double epsilon) {
+        DoubleVector dotAcc = DoubleVector.zero(SPECIES);
+        DoubleVector normAAcc = DoubleVector.zero(SPECIES);
+        DoubleVector normBAcc = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            dotAcc = va.fma(vb, dotAcc);
+            normAAcc = va.fma(va, normAAcc);
+            normBAcc = vb.fma(vb, normBAcc);
+        }
+        double dotProduct = dotAcc.reduceLanes(VectorOperators.ADD);
+        double normA = normAAcc.reduceLanes(VectorOperators.ADD);
+        double normB = normBAcc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double va = a[aOffset + i];
+            double vb = b[bOffset + i];
+            dotProduct += va * vb;
+            normA += va * va;
+            normB += vb * vb;
+        }
+        if (normA < epsilon || normB < epsilon) {
+            return Double.NaN;
+        }
+        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    /**
+     * Number of rows whose dot products share each load of {@code b} in {@code dotRows}.
+     * Four accumulators plus one operand stay within the vector registers of every
+     * supported shape.
+     */
+    private static final int ROW_BLOCK = 4;
+
+    @Override
+    public void dotRows(double[] a, int aOffset, int rows, double[] b, int bOffset, int length,
+                        double[] out, int outOffset, int outStride) {
+        int upper = SPECIES.loopBound(length);
+        int r = 0;
+        for (; r + ROW_BLOCK <= rows; r += ROW_BLOCK) {
+            int a0 = aOffset + r * length;
+            int a1 = a0 + length;
+            int a2 = a1 + length;
+            int a3 = a2 + length;
+            DoubleVector acc0 = DoubleVector.zero(SPECIES);
+            DoubleVector acc1 = DoubleVector.zero(SPECIES);
+            DoubleVector acc2 = DoubleVector.zero(SPECIES);
+            DoubleVector acc3 = DoubleVector.zero(SPECIES);
+            int i = 0;
+            for (; i < upper; i += SPECIES.length()) {
+                DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+                acc0 = DoubleVector.fromArray(SPECIES, a, a0 + i).fma(vb, acc0);
+                acc1 = DoubleVector.fromArray(SPECIES, a, a1 + i).fma(vb, acc1);
+                acc2 = DoubleVector.fromArray(SPECIES, a, a2 + i).fma(vb, acc2);
+                acc3 = DoubleVector.fromArray(SPECIES, a, a3 + i).fma(vb, acc3);
+            }
+            double s0 = acc0.reduceLanes(VectorOperators.ADD);
+            double s1 = acc1.reduceLanes(VectorOperators.ADD);
+            double s2 = acc2.reduceLanes(VectorOperators.ADD);
+            double s3 = acc3.reduceLanes(VectorOperators.ADD);
+            for (; i < length; i++) {
+                double vb = b[bOffset + i];
+                s0 += a[a0 + i] * vb;
+                s1 += a[a1 + i] * vb;
+                s2 += a[a2 + i] * vb;
+                s3 += a[a3 + i] * vb;
+            }
+            int o = outOffset + r * outStride;
+            out[o] = s0;
+            out[o + outStride] = s1;
+            out[o + 2 * outStride] = s2;
+            out[o + 3 * outStride] = s3;
+        }
+        for (; r < rows; r++) {
+            out[outOffset + r * outStride] = dot(a, aOffset + r * length, b, bOffset, length);
+        }
+    }
+
+    /**
+     * Loads {@code SPECIES.length()} floats and widens them to a double vector.
+     */
+    private static DoubleVector loadWidened(float[] array, int offset) {
+        return (DoubleVector) FloatVector.fromArray(FLOAT_SPECIES, array, offset)
+                .convertShape(VectorOperators.F2D, SPECIES, 0);
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, float[] b, int bOffset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            acc = va.fma(loadWidened(b, bOffset + i), acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double squaredEuclidean(double[] a, int aOffset, float[] b, int bOffset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector diff = DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(loadWidened(b, bOffset + i));
+            acc = diff.fma(diff, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double manhattan(double[] a, int aOffset, float[] b, int bOffset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector diff = DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(loadWidened(b, bOffset + i));
+            acc = acc.add(diff.abs());
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += Math.abs(a[aOffset + i] - b[bOffset + i]);
+        }
+        return sum;
+    }
+
+    @Override
+    public double boundedSquaredEuclidean(double[] a, float[] b, int bOffset, DimensionOrder order, double bound) {
+        double sum = 0.0;
+        for (int block = 0; block < order.blockCount(); block++) {
+            int start = order.blockStart(block);
+            int length = order.blockLength(block);
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            int upper = start + SPECIES.loopBound(length);
+            int i = start;
+            for (; i < upper; i += SPECIES.length()) {
+                DoubleVector diff = DoubleVector.fromArray(SPECIES, a, i).sub(loadWidened(b, bOffset + i));
+                acc = diff.fma(diff, acc);
+            }
+            for (; i < start + length; i++) {
+                double diff = a[i] - b[bOffset + i];
+                sum += diff * diff;
+            }
+            sum += acc.reduceLanes(VectorOperators.ADD);
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public double boundedManhattan(double[] a, float[] b, int bOffset, DimensionOrder order, double bound) {
+        double sum = 0.0;
+        for (int block = 0; block < order.blockCount(); block++) {
+            int start = order.blockStart(block);
+            int length = order.blockLength(block);
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            int upper = start + SPECIES.loopBound(length);
+            int i = start;
+            for (; i < upper; i += SPECIES.length()) {
+                DoubleVector diff = DoubleVector.fromArray(SPECIES, a, i).sub(loadWidened(b, bOffset + i));
+                acc = acc.add(diff.abs());
+            }
+            for (; i < start + length; i++) {
+                sum += Math.abs(a[i] - b[bOffset + i]);
+            }
+            sum += acc.reduceLanes(VectorOperators.ADD);
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfSquares(float[] a, int offset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector va = loadWidened(a, offset + i);
+            acc = va.fma(va, acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double v = a[offset + i];
+            sum += v * v;
+        }
+        return sum;
+    }
+
+    @Override
+    public double cosineSimilarity(double[] a, int aOffset, float[] b, int bOffset, int length, double epsilon) {
+        DoubleVector dotAcc = DoubleVector.zero(SPECIES);
+        DoubleVector normAAcc = DoubleVector.zero(SPECIES);
+        DoubleVector normBAcc = DoubleVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector vb = loadWidened(b, bOffset + i);
+            dotAcc = va.fma(vb, dotAcc);
+            normAAcc = va.fma(va, normAAcc);
+            normBAcc = vb.fma(vb, normBAcc);
+        }
+        double dotProduct = dotAcc.reduceLanes(VectorOperators.ADD);
+        double normA = normAAcc.reduceLanes(VectorOperators.ADD);
+        double normB = normBAcc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double va = a[aOffset + i];
+            double vb = b[bOffset + i];
+            dotProduct += va * vb;
+            normA += va * va;
+            normB += vb * vb;
+        }
+        if (normA < epsilon || normB < epsilon) {
+            return Double.NaN;
+        }
+        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    @Override
+    public void dotRows(double[] a, int aOffset, int rows, float[] b, int bOffset, int length,
+                        double[] out, int outOffset, int outStride) {
+        int upper = SPECIES.loopBound(length);
+        int r = 0;
+        for (; r + ROW_BLOCK <= rows; r += ROW_BLOCK) {
+            int a0 = aOffset + r * length;
+            int a1 = a0 + length;
+            int a2 = a1 + length;
+            int a3 = a2 + length;
+            DoubleVector acc0 = DoubleVector.zero(SPECIES);
+            DoubleVector acc1 = DoubleVector.zero(SPECIES);
+            DoubleVector acc2 = DoubleVector.zero(SPECIES);
+            DoubleVector acc3 = DoubleVector.zero(SPECIES);
+            int i = 0;
+            for (; i < upper; i += SPECIES.length()) {
+                DoubleVector vb = loadWidened(b, bOffset + i);
+                acc0 = DoubleVector.fromArray(SPECIES, a, a0 + i).fma(vb, acc0);
+                acc1 = DoubleVector.fromArray(SPECIES, a, a1 + i).fma(vb, acc1);
+                acc2 = DoubleVector.fromArray(SPECIES, a, a2 + i).fma(vb, acc2);
+                acc3 = DoubleVector.fromArray(SPECIES, a, a3 + i).fma(vb, acc3);
+            }
+            double s0 = acc0.reduceLanes(VectorOperators.ADD);
+            double s1 = acc1.reduceLanes(VectorOperators.ADD);
+            double s2 = acc2.reduceLanes(VectorOperators.ADD);
+            double s3 = acc3.reduceLanes(VectorOperators.ADD);
+            for (; i < length; i++) {
+                double vb = b[bOffset + i];
+                s0 += a[a0 + i] * vb;
+                s1 += a[a1 + i] * vb;
+                s2 += a[a2 + i] * vb;
+                s3 += a[a3 + i] * vb;
+            }
+            int o = outOffset + r * outStride;
+            out[o] = s0;
+            out[o + outStride] = s1;
+            out[o + 2 * outStride] = s2;
+            out[o + 3 * outStride] = s3;
+        }
+        for (; r < rows; r++) {
+            out[outOffset + r * outStride] = dot(a, aOffset + r * length, b, bOffset, length);
+        }
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int sum = 0;
+        int i = 0;
+        if (BYTE_SPECIES != null) {
+            IntVector acc = IntVector.zero(INT_SPECIES);
+            int upper = BYTE_SPECIES.loopBound(length);
+            for (; i < upper; i += BYTE_SPECIES.length()) {
+                IntVector va = (IntVector) ByteVector.fromArray(BYTE_SPECIES, a, aOffset + i)
+                        .convertShape(VectorOperators.B2I, INT_SPECIES, 0);
+                IntVector vb = (IntVector) ByteVector.fromArray(BYTE_SPECIES, b, bOffset + i)
+                        .convertShape(VectorOperators.B2I, INT_SPECIES, 0);
+                acc = acc.add(va.mul(vb));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+}
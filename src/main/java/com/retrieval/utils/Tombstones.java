@@ -0,0 +1,70 @@
+package com.retrieval.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A growable bitset of deleted ordinals. Indexes mark removed entries here instead of
+ * restructuring their storage, and skip marked ordinals when searching; the space is
+ * reclaimed later by compaction.
+ * <p>
+ * Marking must be serialized by the owning index, but {@link #contains(int)} may be called
+ * concurrently from any thread: bits are published through an {@link AtomicLongArray},
+ * and the array is replaced rather than resized when it grows, so a reader sees every
+ * deletion made before its last read of the array.
+ */
+public final class Tombstones {
+    private static final int WORD_SHIFT = 6;
+
+    private volatile AtomicLongArray words = new AtomicLongArray(0);
+    private volatile int count = 0;
+
+    /**
+     * Marks an ordinal as deleted.
+     *
+     * @param ordinal The ordinal to mark; must not be negative.
+     * @return true if the ordinal was not already marked.
+     */
+    public boolean add(int ordinal) {
+        int word = ordinal >>> WORD_SHIFT;
+        AtomicLongArray current = words;
+        if (word >= current.length()) {
+            AtomicLongArray grown = new AtomicLongArray(Math.max(word + 1, current.length() * 2));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            words = current = grown;
+        }
+        long bit = 1L << ordinal;
+        long previous = current.get(word);
+        if ((previous & bit) != 0) {
+            return false;
+        }
+        current.set(word, previous | bit);
+        count++;
+        return true;
+    }
+
+    /**
+     * @param ordinal The ordinal to test.
+     * @return true if the ordinal has been marked as deleted.
+     */
+    public boolean contains(int ordinal) {
+        int word = ordinal >>> WORD_SHIFT;
+        AtomicLongArray current = words;
+        return word < current.length() && (current.get(word) & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * @return The number of marked ordinals.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @return true if no ordinal is marked.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+}
@@ -0,0 +1,378 @@
+package com.retrieval.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Bounded selection of the {@code k} smallest scores, kept in a primitive binary max-heap
+ * of (score, id) pairs so that offering a candidate allocates nothing and rejecting one
+ * costs a single comparison against the current worst score.
+ * <p>
+ * Ties on score are broken by the smaller id, so results are deterministic regardless of
+ * how a scan was partitioned. Instances are not thread-safe; parallel scans keep one heap
+ * per partition and combine them with {@link #addAll(TopK)}, as {@link #select} does.
+ */
+public final class TopK {
+    private final int capacity;
+    private final int[] ids;
+    private final double[] scores;
+    private int size = 0;
+
+    /**
+     * @param capacity The number of smallest scores to keep (k).
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public TopK(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.ids = new int[capacity];
+        this.scores = new double[capacity];
+    }
+
+    /**
+     * Scans {@code count} candidates in parallel partitions and returns the {@code k} with
+     * the smallest scores. The number of partitions, and so the allocation per call,
+     * depends on the pool parallelism rather than on {@code count}.
+     *
+     * @param count  The number of candidates; candidate ids are {@code 0..count-1}.
+     * @param k      The number of results to keep.
+     * @param scores The score of each candidate, e.g. a surrogate distance; called concurrently.
+     * @return A heap holding the selected candidates.
+     */
+    public static TopK select(int count, int k, IntToDoubleFunction scores) {
+        return select(count, k, null, scores);
+    }
+
+    /**
+     * Like {@link #select(int, int, IntToDoubleFunction)}, but never scores or keeps the
+     * candidates matched by {@code excluded}, e.g. deleted entries.
+     *
+     * @param count    The number of candidates; candidate ids are {@code 0..count-1}.
+     * @param k        The number of results to keep.
+     * @param excluded The candidates to skip, or null to keep all; called concurrently.
+     * @param scores   The score of each candidate; called concurrently.
+     * @return A heap holding the selected candidates.
+     */
+    public static TopK select(int count, int k, IntPredicate excluded, IntToDoubleFunction scores) {
+        return select(count, k, excluded, scores, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Like {@link #select(int, int, IntPredicate, IntToDoubleFunction)}, but scans the
+     * partitions on the given pool and uses at most {@code parallelism} workers' worth of
+     * partitions. With a parallelism of 1 the scan runs entirely on the calling thread.
+     *
+     * @param count       The number of candidates; candidate ids are {@code 0..count-1}.
+     * @param k           The number of results to keep.
+     * @param excluded    The candidates to skip, or null to keep all; called concurrently.
+     * @param scores      The score of each candidate; called concurrently.
+     * @param pool        The pool that scans the partitions.
+     * @param parallelism The number of workers the scan may occupy.
+     * @return A heap holding the selected candidates.
+     */
+    public static TopK select(int count, int k, IntPredicate excluded, IntToDoubleFunction scores,
+                              ForkJoinPool pool, int parallelism) {
+        return PartitionedScan.run(count, pool, parallelism,
+                (from, to) -> scan(from, to, k, excluded, scores),
+                (a, b) -> {
+                    a.addAll(b);
+                    return a;
+                });
+    }
+
+    /**
+     * Scores a candidate given the score it must not exceed to be kept.
+     */
+    @FunctionalInterface
+    public interface BoundedScores {
+        /**
+         * @param id    The candidate.
+         * @param bound The current threshold of the heap the candidate is offered to.
+         * @return The candidate's score, or any value greater than {@code bound} if it is
+         * known to be worse.
+         */
+        double score(int id, double bound);
+    }
+
+    /**
+     * Like {@link #select(int, int, IntPredicate, IntToDoubleFunction)}, but passes each
+     * partition's current {@link #threshold()} to the scorer, so that scores which are
+     * sums of non-negative terms can be abandoned as soon as the candidate cannot be kept.
+     *
+     * @param count    The number of candidates; candidate ids are {@code 0..count-1}.
+     * @param k        The number of results to keep.
+     * @param excluded The candidates to skip, or null to keep all; called concurrently.
+     * @param scores   The score of each candidate; called concurrently.
+     * @return A heap holding the selected candidates.
+     */
+    public static TopK selectBounded(int count, int k, IntPredicate excluded, BoundedScores scores) {
+        return selectBounded(count, k, excluded, scores, ForkJoinPool.commonPool(),
+                ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Like {@link #selectBounded(int, int, IntPredicate, BoundedScores)}, on the given
+     * pool as in {@link #select(int, int, IntPredicate, IntToDoubleFunction, ForkJoinPool, int)}.
+     */
+    public static TopK selectBounded(int count, int k, IntPredicate excluded, BoundedScores scores,
+                                     ForkJoinPool pool, int parallelism) {
+        return PartitionedScan.run(count, pool, parallelism,
+                (from, to) -> scanBounded(from, to, k, excluded, scores),
+                (a, b) -> {
+                    a.addAll(b);
+                    return a;
+                });
+    }
+
+    /**
+     * Scores one candidate against every query of a batch.
+     */
+    @FunctionalInterface
+    public interface BatchScores {
+        /**
+         * @param id     The candidate.
+         * @param out    Receives the score of query {@code i} at {@code out[offset + i * stride]}.
+         * @param offset The position of the first query's score.
+         * @param stride The distance between consecutive queries' positions.
+         */
+        void score(int id, double[] out, int offset, int stride);
+    }
+
+    /**
+     * Selects the {@code k} smallest scores for several queries in one pass over the
+     * candidates. Candidates are scored in tiles of {@code tileSize} against all queries
+     * before the next tile is read, so a tile sized to fit in cache is loaded from memory
+     * once rather than once per query. Partitions are scanned in parallel as in
+     * {@link #select(int, int, IntPredicate, IntToDoubleFunction)}.
+     *
+     * @param count      The number of candidates; candidate ids are {@code 0..count-1}.
+     * @param k          The number of results to keep per query.
+     * @param excluded   The candidates to skip, or null to keep all; called concurrently.
+     * @param queryCount The number of queries.
+     * @param scores     Scores a candidate against all queries; called concurrently.
+     * @param tileSize   The number of candidates scored at a time.
+     * @return One heap per query, in query order.
+     */
+    public static TopK[] selectBatch(int count, int k, IntPredicate excluded, int queryCount, BatchScores scores,
+                                     int tileSize) {
+        return selectBatch(count, k, excluded, queryCount, scores, tileSize,
+                ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Like {@link #selectBatch(int, int, IntPredicate, int, BatchScores, int)}, on the given
+     * pool as in {@link #select(int, int, IntPredicate, IntToDoubleFunction, ForkJoinPool, int)}.
+     */
+    public static TopK[] selectBatch(int count, int k, IntPredicate excluded, int queryCount, BatchScores scores,
+                                     int tileSize, ForkJoinPool pool, int parallelism) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive");
+        }
+        return PartitionedScan.run(count, pool, parallelism,
+                (from, to) -> scanBatch(from, to, k, excluded, queryCount, scores, tileSize),
+                (a, b) -> {
+                    for (int query = 0; query < a.length; query++) {
+                        a[query].addAll(b[query]);
+                    }
+                    return a;
+                });
+    }
+
+    private static TopK[] scanBatch(int from, int to, int k, IntPredicate excluded, int queryCount,
+                                    BatchScores scores, int tileSize) {
+        TopK[] heaps = new TopK[queryCount];
+        for (int query = 0; query < queryCount; query++) {
+            heaps[query] = new TopK(k);
+        }
+        if (queryCount == 0) {
+            return heaps;
+        }
+        // Scores of the current tile, one row per query
+        int stride = Math.min(tileSize, Math.max(1, to - from));
+        double[] tile = new double[queryCount * stride];
+        for (int tileStart = from; tileStart < to; tileStart += stride) {
+            int tileEnd = Math.min(to, tileStart + stride);
+            for (int id = tileStart; id < tileEnd; id++) {
+                if (excluded == null || !excluded.test(id)) {
+                    scores.score(id, tile, id - tileStart, stride);
+                }
+            }
+            for (int query = 0; query < queryCount; query++) {
+                TopK heap = heaps[query];
+                int row = query * stride - tileStart;
+                for (int id = tileStart; id < tileEnd; id++) {
+                    if (excluded == null || !excluded.test(id)) {
+                        heap.offer(id, tile[row + id]);
+                    }
+                }
+            }
+        }
+        return heaps;
+    }
+
+    private static TopK scan(int from, int to, int k, IntPredicate excluded, IntToDoubleFunction scores) {
+        TopK heap = new TopK(k);
+        if (excluded == null) {
+            for (int id = from; id < to; id++) {
+                heap.offer(id, scores.applyAsDouble(id));
+            }
+        } else {
+            for (int id = from; id < to; id++) {
+                if (!excluded.test(id)) {
+                    heap.offer(id, scores.applyAsDouble(id));
+                }
+            }
+        }
+        return heap;
+    }
+
+    private static TopK scanBounded(int from, int to, int k, IntPredicate excluded, BoundedScores scores) {
+        TopK heap = new TopK(k);
+        for (int id = from; id < to; id++) {
+            if (excluded == null || !excluded.test(id)) {
+                heap.offer(id, scores.score(id, heap.threshold()));
+            }
+        }
+        return heap;
+    }
+
+    /**
+     * Offers a candidate, replacing the current worst one if the heap is full and the
+     * candidate is better.
+     *
+     * @param id    The candidate identifier, e.g. a vector ordinal.
+     * @param score The candidate's score; smaller is better.
+     * @return Whether the candidate was kept.
+     */
+    public boolean offer(int id, double score) {
+        if (size < capacity) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (!isBetter(score, id, scores[0], ids[0])) {
+            return false;
+        }
+        ids[0] = id;
+        scores[0] = score;
+        siftDown(0, size);
+        return true;
+    }
+
+    /**
+     * Offers every candidate held by another heap.
+     *
+     * @param other The heap to merge in; it is not modified.
+     */
+    public void addAll(TopK other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.ids[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * @return The worst score kept once the heap is full, which a candidate must beat to be
+     * kept; positive infinity until then.
+     */
+    public double threshold() {
+        return size < capacity ? Double.POSITIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * @return The number of candidates currently kept.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The maximum number of candidates kept (k).
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Removes all candidates in ascending order of score.
+     *
+     * @param idsOut    Receives the ids; must hold at least {@link #size()} elements.
+     * @param scoresOut Receives the matching scores, or null if they are not needed.
+     * @return The number of candidates written; the heap is empty afterwards.
+     */
+    public int drainTo(int[] idsOut, double[] scoresOut) {
+        int count = size;
+        // Heapsort: repeatedly move the worst remaining candidate to the end
+        for (int last = count - 1; last >= 0; last--) {
+            idsOut[last] = ids[0];
+            if (scoresOut != null) {
+                scoresOut[last] = scores[0];
+            }
+            ids[0] = ids[last];
+            scores[0] = scores[last];
+            siftDown(0, last);
+        }
+        size = 0;
+        return count;
+    }
+
+    /**
+     * Removes all candidates and returns their ids in ascending order of score.
+     *
+     * @return The ids of the kept candidates, best first; the heap is empty afterwards.
+     */
+    public int[] drainIds() {
+        int[] result = new int[size];
+        drainTo(result, null);
+        return result;
+    }
+
+    private void siftUp(int index) {
+        int id = ids[index];
+        double score = scores[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isBetter(scores[parent], ids[parent], score, id)) {
+                break;
+            }
+            ids[index] = ids[parent];
+            scores[index] = scores[parent];
+            index = parent;
+        }
+        ids[index] = id;
+        scores[index] = score;
+    }
+
+    private void siftDown(int index, int heapSize) {
+        int id = ids[index];
+        double score = scores[index];
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < heapSize && isBetter(scores[child], ids[child], scores[right], ids[right])) {
+                child = right;
+            }
+            if (!isBetter(score, id, scores[child], ids[child])) {
+                break;
+            }
+            ids[index] = ids[child];
+            scores[index] = scores[child];
+            index = child;
+        }
+        ids[index] = id;
+        scores[index] = score;
+    }
+
+    /**
+     * Orders candidates by score, then id; the root of the heap is the worst candidate.
+     * Scores compare as {@link Double#compare} does, so NaN ranks after every number.
+     */
+    private static boolean isBetter(double score, int id, double otherScore, int otherId) {
+        int order = Double.compare(score, otherScore);
+        return order < 0 || (order == 0 && id < otherId);
+    }
+}